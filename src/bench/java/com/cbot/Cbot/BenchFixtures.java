@@ -0,0 +1,82 @@
+package com.cbot.Cbot;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared inputs for the benchmarks: the stored model and the rows of
+ * {@code Data/testingSet.csv} in every form the prediction path consumes.
+ */
+final class BenchFixtures {
+
+    final DiagnosisEngine engine;
+    final KnowledgeBase knowledgeBase;
+    final Instances testRows;
+    /** Per row: the yes bits. */
+    final long[][] bits;
+    /** Per row: symptom name to 1.0, as the original front ends collected answers. */
+    final List<Map<String, Double>> symptomMaps;
+    /** Per row: the Weka instance the classifier sees. */
+    final Instance[] instances;
+    /** Per row: the labelled disease name. */
+    final String[] diseases;
+
+    private BenchFixtures() throws Exception {
+        engine = DiagnosisEngine.load();
+        knowledgeBase = KnowledgeBase.getDefault();
+        testRows = load(ModelStore.TEST_FILE);
+
+        SymptomVocabulary vocabulary = engine.vocabulary();
+        int[] columns = vocabulary.columnsOf(testRows);
+        int n = testRows.numInstances();
+        bits = new long[n][];
+        symptomMaps = new ArrayList<>(n);
+        instances = new Instance[n];
+        diseases = new String[n];
+        for (int r = 0; r < n; r++) {
+            Instance row = testRows.instance(r);
+            bits[r] = vocabulary.encode(row, columns);
+            Map<String, Double> symptoms = new HashMap<>();
+            for (int s = 0; s < vocabulary.size(); s++) {
+                if ((bits[r][s >>> 6] & (1L << s)) != 0) {
+                    symptoms.put(vocabulary.name(s), 1.0);
+                }
+            }
+            symptomMaps.add(symptoms);
+            instances[r] = vocabulary.toInstance(bits[r]);
+            diseases[r] = testRows.classAttribute().value((int) row.classValue());
+        }
+    }
+
+    static Instances load(String file) throws Exception {
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(file));
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        return data;
+    }
+
+    private static final class Holder {
+        static final BenchFixtures INSTANCE;
+
+        static {
+            try {
+                INSTANCE = new BenchFixtures();
+            } catch (Exception e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    /** Loaded once per benchmark JVM. */
+    static BenchFixtures get() {
+        return Holder.INSTANCE;
+    }
+}
@@ -0,0 +1,43 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** Loading the 4920-row dataset: Weka's CSVLoader versus the streaming reader. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DatasetBenchmark {
+
+    private SymptomVocabulary vocabulary;
+
+    @Setup
+    public void setUp() {
+        vocabulary = BenchFixtures.get().engine.vocabulary();
+    }
+
+    @Benchmark
+    public Instances csvLoader() throws Exception {
+        return BenchFixtures.load(ModelStore.DATASET_FILE);
+    }
+
+    @Benchmark
+    public DiseaseProfiles diseaseProfilesFromCsv() throws Exception {
+        return DiseaseProfiles.fromCsv(new File(ModelStore.DATASET_FILE), vocabulary);
+    }
+}
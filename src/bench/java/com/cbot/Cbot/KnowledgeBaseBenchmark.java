@@ -0,0 +1,79 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MasterData lookups for a predicted disease: the in-memory
+ * {@link KnowledgeBase} against the original scan of the CSV per lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KnowledgeBaseBenchmark {
+
+    private KnowledgeBase knowledgeBase;
+    private String[] diseases;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = BenchFixtures.get();
+        knowledgeBase = fixtures.knowledgeBase;
+        diseases = fixtures.diseases;
+    }
+
+    private String nextDisease() {
+        int row = next;
+        next = (row + 1 == diseases.length) ? 0 : row + 1;
+        return diseases[row];
+    }
+
+    @Benchmark
+    public List<String> precautions() {
+        return knowledgeBase.precautions(nextDisease());
+    }
+
+    @Benchmark
+    public String description() {
+        return knowledgeBase.description(nextDisease());
+    }
+
+    @Benchmark
+    public int severity() {
+        return knowledgeBase.severity(nextDisease());
+    }
+
+    /** The original per-lookup file scan, for comparison. */
+    @Benchmark
+    public String[] precautionsFileScan() throws IOException {
+        String disease = nextDisease();
+        try (Scanner scanner = new Scanner(new FileReader(KnowledgeBase.PRECAUTIONS_FILE))) {
+            while (scanner.hasNextLine()) {
+                String[] parts = scanner.nextLine().split(",");
+                if (parts.length >= 2 && parts[0].equalsIgnoreCase(disease)) {
+                    return Arrays.copyOfRange(parts, 1, parts.length);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,198 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import weka.classifiers.trees.RandomForest;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One prediction, stage by stage: building the instance from the answers and
+ * classifying it with Weka, with the compiled forest or with the single
+ * triage tree. Single-row benchmarks cycle through the testing rows; batched
+ * ones score a fixed-size batch cycled from them per operation and report
+ * per-row throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PredictionBenchmark {
+
+    // Rows per batched operation, cycled from the testing rows whatever their number
+    private static final int BATCH = 1024;
+
+    private BenchFixtures fixtures;
+    private RandomForest forest;
+    private CompiledForest compiled;
+    private TriageTree triage;
+    private TriageTree generatedTriage;
+    private KnowledgeBase knowledgeBase;
+    private PredictionCache cache;
+    private ConsultationBits[] consultations;
+    private Instances header;
+    private Instances batch;
+    private long[][] batchBits;
+    private double[] distributions;
+    private int[] predictions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        fixtures = BenchFixtures.get();
+        forest = (RandomForest) fixtures.engine.snapshot().classifier();
+        compiled = fixtures.engine.forest();
+        header = fixtures.engine.snapshot().header();
+        batch = new Instances(header, BATCH);
+        batchBits = new long[BATCH][];
+        for (int r = 0; r < BATCH; r++) {
+            batch.add(fixtures.instances[r % fixtures.instances.length]);
+            batchBits[r] = fixtures.bits[r % fixtures.bits.length];
+        }
+        String[] symptoms = new String[fixtures.engine.vocabulary().size()];
+        for (int i = 0; i < symptoms.length; i++) {
+            symptoms[i] = fixtures.engine.vocabulary().name(i);
+        }
+        try {
+            triage = TriageTree.load(new File(TriageTree.TREE_FILE), symptoms);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        generatedTriage = triage.generated();
+        try {
+            knowledgeBase = KnowledgeBase.getDefault();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache = new PredictionCache(knowledgeBase, PredictionCache.DEFAULT_CAPACITY);
+        consultations = new ConsultationBits[fixtures.bits.length];
+        for (int r = 0; r < consultations.length; r++) {
+            consultations[r] = fixtures.engine.vocabulary().newConsultation();
+            long[] bits = fixtures.bits[r];
+            for (int s = 0; s < consultations[r].numSymptoms(); s++) {
+                if ((bits[s >>> 6] & (1L << s)) != 0) {
+                    consultations[r].answer(s, true);
+                }
+            }
+            cache.get(fixtures.engine, consultations[r]);
+        }
+        distributions = new double[BATCH * compiled.numClasses()];
+        predictions = new int[BATCH];
+    }
+
+    private int nextRow() {
+        int row = next;
+        next = (row + 1 == fixtures.bits.length) ? 0 : row + 1;
+        return row;
+    }
+
+    /** The original front ends' construction: one name lookup per attribute. */
+    @Benchmark
+    public Instance instanceFromSymptomMap() {
+        Map<String, Double> symptoms = fixtures.symptomMaps.get(nextRow());
+        DenseInstance instance = new DenseInstance(header.numAttributes());
+        instance.setDataset(header);
+        for (int i = 0; i < header.numAttributes() - 1; i++) {
+            instance.setValue(i, symptoms.getOrDefault(header.attribute(i).name(), 0.0));
+        }
+        return instance;
+    }
+
+    @Benchmark
+    public Instance instanceFromBits() {
+        return fixtures.engine.vocabulary().toInstance(fixtures.bits[nextRow()]);
+    }
+
+    @Benchmark
+    public double wekaClassifyInstance() throws Exception {
+        return forest.classifyInstance(fixtures.instances[nextRow()]);
+    }
+
+    @Benchmark
+    public double[] wekaDistributionForInstance() throws Exception {
+        return forest.distributionForInstance(fixtures.instances[nextRow()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double[][] wekaDistributionsForInstances() throws Exception {
+        return forest.distributionsForInstances(batch);
+    }
+
+    @Benchmark
+    public int compiledClassify() {
+        return compiled.classify(fixtures.bits[nextRow()]);
+    }
+
+    @Benchmark
+    public int compiledClassifyEarlyExit() {
+        return compiled.classifyEarly(fixtures.bits[nextRow()], CompiledForest.NO_CONFIDENCE_THRESHOLD, null);
+    }
+
+    @Benchmark
+    public int triageTreeInterpreted() {
+        return triage.classify(fixtures.bits[nextRow()]);
+    }
+
+    @Benchmark
+    public int triageTreeGenerated() {
+        return generatedTriage.classify(fixtures.bits[nextRow()]);
+    }
+
+    @Benchmark
+    public Prediction enginePredict() {
+        ConsultationBits consultation = fixtures.engine.vocabulary().newConsultation();
+        long[] bits = fixtures.bits[nextRow()];
+        for (int s = 0; s < consultation.numSymptoms(); s++) {
+            if ((bits[s >>> 6] & (1L << s)) != 0) {
+                consultation.answer(s, true);
+            }
+        }
+        return fixtures.engine.predict(consultation);
+    }
+
+    /** What a cache miss costs: classification plus the knowledge base lookups. */
+    @Benchmark
+    public KnowledgeBase.Advice predictWithAdvice() {
+        Prediction prediction = fixtures.engine.predict(consultations[nextRow()]);
+        return knowledgeBase.advice(prediction.disease());
+    }
+
+    @Benchmark
+    public PredictionCache.Entry predictionCacheHit() {
+        return cache.get(fixtures.engine, consultations[nextRow()]);
+    }
+
+    /** Ranking every disease against a consultation, explanations of the top five included. */
+    @Benchmark
+    public List<DifferentialIndex.Candidate> differentialTopK() {
+        return fixtures.engine.differential(consultations[nextRow()], DifferentialIndex.DEFAULT_TOP_K);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void compiledClassifyBatch(Blackhole blackhole) {
+        compiled.classifyBatch(batchBits, BATCH, distributions, predictions);
+        blackhole.consume(predictions);
+    }
+}
@@ -0,0 +1,69 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choosing the next question. Each fixture is a consultation part way
+ * through: the first two symptoms of a testing row answered yes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class QuestionBenchmark {
+
+    private ConsultationBits[] consultations;
+    private int[] previous;
+    private QuestionStrategy informationGain;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = BenchFixtures.get();
+        informationGain = fixtures.engine.questionStrategy();
+        consultations = new ConsultationBits[fixtures.bits.length];
+        previous = new int[fixtures.bits.length];
+        for (int r = 0; r < fixtures.bits.length; r++) {
+            ConsultationBits consultation = fixtures.engine.vocabulary().newConsultation();
+            long[] bits = fixtures.bits[r];
+            for (int s = 0; s < consultation.numSymptoms() && consultation.yesCount() < 2; s++) {
+                if ((bits[s >>> 6] & (1L << s)) != 0) {
+                    consultation.answer(s, true);
+                    previous[r] = s;
+                }
+            }
+            consultations[r] = consultation;
+        }
+    }
+
+    private int nextRow() {
+        int row = next;
+        next = (row + 1 == consultations.length) ? 0 : row + 1;
+        return row;
+    }
+
+    @Benchmark
+    public int sequentialNextQuestion() {
+        int row = nextRow();
+        return QuestionStrategy.SEQUENTIAL.nextQuestion(consultations[row], previous[row]);
+    }
+
+    @Benchmark
+    public int informationGainNextQuestion() {
+        int row = nextRow();
+        return informationGain.nextQuestion(consultations[row], previous[row]);
+    }
+}
@@ -0,0 +1,77 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One consultation report rendered to PDF on the calling thread, as a
+ * {@link ReportService} worker does it, and the snapshot the caller takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReportBenchmark {
+
+    private static final int SESSIONS = 64;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 14);
+    private ConsultationSession[] sessions;
+    private ReportService.Report[] reports;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = BenchFixtures.get();
+        DiagnosisEngine engine = fixtures.engine;
+        PredictionCache predictions = PredictionCache.withDefaultCapacity(fixtures.knowledgeBase);
+        sessions = new ConsultationSession[SESSIONS];
+        reports = new ReportService.Report[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            long[] yes = fixtures.bits[i * fixtures.bits.length / SESSIONS];
+            ConsultationSession session = new ConsultationSession(engine, predictions);
+            int first = 0;
+            while ((yes[first >>> 6] & (1L << first)) == 0) {
+                first++;
+            }
+            ConsultationSession.State state = session.start(engine.vocabulary().name(first));
+            while (state == ConsultationSession.State.AWAITING_ANSWER) {
+                int question = session.currentQuestion();
+                state = session.answer((yes[question >>> 6] & (1L << question)) != 0);
+            }
+            sessions[i] = session;
+            reports[i] = ReportService.Report.of(session, "Benchmark patient");
+        }
+    }
+
+    private int nextRow() {
+        int row = next;
+        next = (row + 1 == SESSIONS) ? 0 : row + 1;
+        return row;
+    }
+
+    @Benchmark
+    public int render() throws Exception {
+        out.reset();
+        ReportService.render(reports[nextRow()], out);
+        return out.size();
+    }
+
+    @Benchmark
+    public ReportService.Report snapshot() {
+        return ReportService.Report.of(sessions[nextRow()], "Benchmark patient");
+    }
+}
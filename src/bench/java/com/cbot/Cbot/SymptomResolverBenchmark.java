@@ -0,0 +1,76 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-keystroke symptom autocompletion: every prefix of a few typed
+ * symptoms, some misspelled, against the dataset's columns and against a
+ * synthetic vocabulary of 100k terms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SymptomResolverBenchmark {
+
+    private static final String[] TYPED = {
+        "sneezing", "skin rash", "stomch pain", "high fever", "diarhea", "shortness of breath", "joint pain",
+        "yelow skin", "headache", "blurred vision"
+    };
+    private static final String[] WORDS = {
+        "acute", "chronic", "pain", "swelling", "left", "right", "upper", "lower", "lesion", "fever",
+        "rash", "cough", "joint", "nerve", "skin", "ocular", "renal", "hepatic", "cardiac", "muscle"
+    };
+
+    /** 0 for the dataset's own columns, otherwise the size of a synthetic vocabulary. */
+    @Param({"0", "100000"})
+    public int terms;
+
+    private SymptomResolver resolver;
+    private String[] keystrokes;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (terms == 0) {
+            resolver = BenchFixtures.get().engine.resolver();
+        } else {
+            String[] symptoms = new String[terms];
+            for (int i = 0; i < terms; i++) {
+                symptoms[i] = WORDS[i % 20] + "_" + WORDS[(i / 20) % 20] + "_" + WORDS[(i / 400) % 20] + "_" + i;
+            }
+            resolver = new SymptomResolver(symptoms, Collections.emptyMap());
+        }
+        List<String> inputs = new ArrayList<>();
+        for (String typed : TYPED) {
+            for (int length = 1; length <= typed.length(); length++) {
+                inputs.add(typed.substring(0, length));
+            }
+        }
+        keystrokes = inputs.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public List<SymptomResolver.Match> complete() {
+        int k = next;
+        next = (k + 1 == keystrokes.length) ? 0 : k + 1;
+        return resolver.complete(keystrokes[k], SymptomResolver.DEFAULT_LIMIT);
+    }
+}
@@ -0,0 +1,57 @@
+package com.cbot.Cbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** {@code buildClassifier} with the stored options, on every training row and on the weighted patterns. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class TrainingBenchmark {
+
+    private String[] options;
+    private Instances everyRow;
+    private Instances deduplicated;
+
+    @Setup
+    public void setUp() throws Exception {
+        options = ModelStore.readOptions(new File(ModelStore.OPTIONS_FILE));
+        everyRow = BenchFixtures.load(ModelStore.TRAIN_FILE);
+        deduplicated = DatasetPreprocessor.deduplicate(everyRow);
+    }
+
+    @Benchmark
+    public RandomForest buildEveryRow() throws Exception {
+        RandomForest forest = ModelStore.newClassifier(options);
+        forest.buildClassifier(everyRow);
+        return forest;
+    }
+
+    @Benchmark
+    public RandomForest buildDeduplicated() throws Exception {
+        RandomForest forest = ModelStore.newClassifier(options);
+        forest.buildClassifier(deduplicated);
+        return forest;
+    }
+
+    @Benchmark
+    public CompiledForest buildDeduplicatedAndCompile() throws Exception {
+        return CompiledForest.compile(buildDeduplicated(), new Instances(deduplicated, 0));
+    }
+}
@@ -1,40 +1,50 @@
 package com.cbot.Cbot;
 
-import weka.classifiers.Classifier;
-import weka.classifiers.trees.RandomForest;
-import weka.core.DenseInstance;
-import weka.core.Instances;
-import weka.core.converters.CSVLoader;
-import weka.core.converters.CSVSaver;
-
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class App extends JFrame implements ActionListener {
 
-    private static final String TRAIN_FILE = "Data/trainingSet.csv";
-    private static final String TEST_FILE = "Data/testingSet.csv";
-    private static final String PRECAUTIONS_FILE = "MasterData/symptom_precaution.csv";
-    private static final String SEVERITY_FILE = "MasterData/Symptom_severity.csv";
-    private static final String DESCRIPTION_FILE = "MasterData/symptom_Description.csv";
-
     private JTextField nameField;
     private JTextField symptomField;
     private JTextArea chatArea;
     private JButton startButton;
     private JButton submitButton;
-    private Instances testData;
-    private Classifier classifier;
-
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+
+    // Set on the EDT once the background warm-up finishes
+    private ModelHolder models;
+    // Answers repeated yes-sets without classifying again; shared by every consultation
+    private PredictionCache predictions;
+    private ConsultationJournal journal;
+    // Renders a printable report of every finished consultation; null when reports are turned off
+    private ReportService reports;
+    // Answers symptoms typed before the model is ready; set on the EDT, dropped once it is
+    private TriageTree triage;
+    private long[] triageBits;
+    private int triageSymptoms;
+
+    // Classification and knowledge base lookups run here, never on the EDT
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(Threads.daemonFactory("chatbot-worker"));
+
+    // Input typed while the model loads or while the worker is busy, in order
+    private final Deque<String> pendingInput = new ArrayDeque<>();
+    private boolean busy;
+
+    private ConsultationSession session;
     private String previousSymptom;
     private boolean predicting;
 
@@ -45,22 +55,6 @@ public class App extends JFrame implements ActionListener {
         setLayout(new BorderLayout());
 
         initComponents();
-
-        // Load dataset and build classifier
-        try {
-            CSVLoader loader = new CSVLoader();
-            loader.setSource(new File("Data/dataset.csv"));
-            Instances data = loader.getDataSet();
-            data.setClassIndex(data.numAttributes() - 1);
-
-            this.testData = data;
-            this.classifier = new RandomForest();
-            this.classifier.buildClassifier(data);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error initializing the chatbot. Please try again later.");
-        }
     }
 
     private void initComponents() {
@@ -84,6 +78,9 @@ public class App extends JFrame implements ActionListener {
         JPanel inputPanel = new JPanel(new BorderLayout());
         JLabel symptomLabel = new JLabel("Enter symptom :");
         symptomField = new JTextField(20);
+        symptomField.addActionListener(this);
+        new SymptomAutocomplete(symptomField,
+                () -> (models != null) ? models.current().resolver() : null, this::expectingSymptom);
         submitButton = new JButton("Submit");
         submitButton.addActionListener(this);
 
@@ -91,7 +88,92 @@ public class App extends JFrame implements ActionListener {
         inputPanel.add(symptomField, BorderLayout.CENTER);
         inputPanel.add(submitButton, BorderLayout.EAST);
 
-        add(inputPanel, BorderLayout.SOUTH);
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusLabel = new JLabel("Loading model...");
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        statusPanel.add(progressBar);
+        statusPanel.add(statusLabel);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(inputPanel, BorderLayout.NORTH);
+        southPanel.add(statusPanel, BorderLayout.SOUTH);
+
+        add(southPanel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Loads the model and the knowledge base on a background thread while the
+     * window is already usable; input given meanwhile is queued.
+     */
+    private void warmUp() {
+        new SwingWorker<Void, String>() {
+            private ModelHolder loadedModels;
+            private PredictionCache loadedPredictions;
+            private ConsultationJournal openedJournal;
+            private ReportService openedReports;
+
+            @Override
+            protected Void doInBackground() throws Exception {
+                // A single decision tree loads in milliseconds and answers until the forest is ready
+                try {
+                    TriageTree tree = TriageTree.loadDefault();
+                    SwingUtilities.invokeLater(() -> {
+                        if (models == null) {
+                            triage = tree;
+                            triageBits = new long[tree.words()];
+                        }
+                    });
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Triage tree unavailable: " + e.getMessage());
+                }
+                // Load the stored model, retraining only if the dataset or parameters changed
+                publish("Loading model...");
+                loadedModels = ModelHolder.load();
+                publish("Loading knowledge base...");
+                loadedPredictions = PredictionCache.withDefaultCapacity(KnowledgeBase.getDefault());
+                Metrics.registerCache(loadedPredictions);
+                // Stage timings and consultation counts over JMX and as Prometheus text
+                Metrics.exportDefault();
+                openedJournal = ConsultationJournal.openDefault();
+                Runtime.getRuntime().addShutdownHook(new Thread(openedJournal::close));
+                openedReports = ReportService.openDefault();
+                if (openedReports != null) {
+                    Metrics.registerReports(openedReports);
+                    Runtime.getRuntime().addShutdownHook(new Thread(openedReports::close));
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<String> stages) {
+                statusLabel.setText(stages.get(stages.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                progressBar.setVisible(false);
+                try {
+                    get();
+                    models = loadedModels;
+                    predictions = loadedPredictions;
+                    journal = openedJournal;
+                    reports = openedReports;
+                    triage = null;
+                    triageBits = null;
+                    statusLabel.setText("Ready (model version " + models.current().version() + ")");
+                    models.addListener(engine -> SwingUtilities.invokeLater(() ->
+                            statusLabel.setText("Model updated to version " + engine.version())));
+                    models.watch(ModelHolder.DEFAULT_POLL_SECONDS, TimeUnit.SECONDS);
+                    keepFirstSymptom();
+                    drainPendingInput();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Model failed to load");
+                    JOptionPane.showMessageDialog(App.this, "Error initializing the chatbot. Please try again later.");
+                }
+            }
+        }.execute();
     }
 
     @Override
@@ -107,190 +189,209 @@ public class App extends JFrame implements ActionListener {
                 startButton.setEnabled(false);
                 predicting = true;
                 previousSymptom = null;
+                resetTriage();
             }
-        } else if (e.getSource() == submitButton && predicting) {
+        } else if ((e.getSource() == submitButton || e.getSource() == symptomField) && predicting) {
             // Submit button clicked during chat session
             String userInput = symptomField.getText().trim();
-            
-            if (previousSymptom == null) {
-                // Expecting a symptom
-                previousSymptom = userInput;
-                chatArea.append("Do you have " + previousSymptom + "? (yes or no)\n");
-            } else {
-                // Expecting the response ("yes" or "no") to the symptom
-                String response = userInput.toLowerCase();
-                if (response.equals("yes") || response.equals("no")) {
-                    try {
-                        // Process the response
-                        double value = response.equals("yes") ? 1.0 : 0.0;
-                        predictDisease(previousSymptom, value);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                        JOptionPane.showMessageDialog(this, "Error predicting disease. Please try again.");
-                    }
-                } else {
-                    JOptionPane.showMessageDialog(this, "Please enter 'yes' or 'no'.");
+            symptomField.setText("");
+            if (userInput.isEmpty()) {
+                return;
+            }
+            if (models == null || busy) {
+                pendingInput.add(userInput);
+                if (models == null) {
+                    chatArea.append("(" + userInput + " will be answered as soon as the model is ready)\n");
+                    quickTriage(userInput);
                 }
-                previousSymptom = null; // Reset to accept the next symptom
+                return;
             }
-            symptomField.setText("");
+            processInput(userInput);
         }
     }
 
-    private void predictDisease(String symptom, double value) throws Exception {
-        Map<String, Double> symptomsMap = new HashMap<>();
-        symptomsMap.put(symptom, value);
-
-        // Display the first symptom and its value in the chatArea
-        chatArea.append("Symptom: " + symptom + ", Response: " + (value == 1.0 ? "Yes" : "No") + "\n");
-
-        while (symptomsMap.size() < 8) {
-            String nextSymptom = getNextSymptom(symptom);
-            if (nextSymptom == null) {
-                break; // No more symptoms to ask
-            }
-            String response = JOptionPane.showInputDialog("Do you have " + nextSymptom + "? (yes or no)");
-            double responseValue = (response != null && response.equalsIgnoreCase("yes")) ? 1.0 : 0.0;
-            symptomsMap.put(nextSymptom, responseValue);
-            symptom = nextSymptom;
-
-            // Display the next symptom and its value in the chatArea
-            chatArea.append("Symptom: " + nextSymptom + ", Response: " + (responseValue == 1.0 ? "Yes" : "No") + "\n");
+    /**
+     * Tells a symptom typed during loading what the decision tree makes of
+     * the symptoms so far, once there are as many as a consultation needs
+     * before it predicts.
+     */
+    private void quickTriage(String userInput) {
+        int column = (triage != null) ? triage.columnOf(userInput) : -1;
+        if (column < 0 || (triageBits[column >>> 6] & (1L << column)) != 0) {
+            return;
         }
-
-        if (!symptomsMap.isEmpty()) {
-            // Count the number of 'yes' responses in symptomsMap
-            long numberOfYesResponses = symptomsMap.values().stream().filter(values -> values == 1.0).count();
-
-            if (numberOfYesResponses < 3) {
-                chatArea.append("Sorry, the symptoms provided are not sufficient to predict a disease.\n");
-            } else {
-                DenseInstance newInstance = new DenseInstance(testData.numAttributes());
-                newInstance.setDataset(testData);
-
-                for (int i = 0; i < testData.numAttributes() - 1; i++) {
-                    String attributeName = testData.attribute(i).name();
-                    double symptomValue = symptomsMap.getOrDefault(attributeName, 0.0);
-                    newInstance.setValue(i, symptomValue);
-                }
-
-                double predictedClass = classifier.classifyInstance(newInstance);
-                String predictedDisease = testData.classAttribute().value((int) predictedClass);
-
-                chatArea.append("Predicted Disease: " + predictedDisease + "\n");
-                displayAdditionalInfo(predictedDisease);
-                
-                
-            }
+        triageBits[column >>> 6] |= 1L << column;
+        triageSymptoms++;
+        if (triageSymptoms < ConsultationSession.MIN_YES_ANSWERS) {
+            return;
         }
+        double support = triage.leafSupport(triageBits);
+        chatArea.append("(Quick triage from the decision tree, most likely so far: "
+                + triage.label(triage.classify(triageBits)).trim()
+                + ((support > 0) ? String.format(", matching %.0f training cases", support) : "") + ")\n");
     }
 
-
-
-
-
-    private String getNextSymptom(String previousSymptom) {
-        for (int i = 0; i < testData.numAttributes() - 1; i++) {
-            String attributeName = testData.attribute(i).name();
-            if (attributeName.equalsIgnoreCase(previousSymptom)) {
-                return testData.attribute(i + 1).name();
-            }
+    // Symptoms typed for an earlier consultation must not count towards the next one's triage
+    private void resetTriage() {
+        if (triageBits != null) {
+            Arrays.fill(triageBits, 0);
         }
-        return null;
+        triageSymptoms = 0;
     }
 
-    
-
+    // A consultation starts from one symptom; the rest typed during loading would be refused as answers
+    private void keepFirstSymptom() {
+        if (pendingInput.size() <= 1) {
+            return;
+        }
+        String first = pendingInput.poll();
+        chatArea.append("(Starting with " + first + "; answer yes to the others when asked about them)\n");
+        pendingInput.clear();
+        pendingInput.add(first);
+    }
 
-    private void displayAdditionalInfo(String predictedDisease) {
-        displayPrecautions(predictedDisease);
-        displaySeverityMessage(predictedDisease);
-        displayDescription(predictedDisease);
+    private void drainPendingInput() {
+        while (models != null && !busy && !pendingInput.isEmpty()) {
+            processInput(pendingInput.poll());
+        }
     }
 
-    private void displayPrecautions(String predictedDisease) {
-        StringBuilder precautionsText = new StringBuilder("Precautions:\n");
-
-        try (Scanner scanner = new Scanner(new FileReader(PRECAUTIONS_FILE))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] parts = line.split(",");
-                if (parts.length >= 2 && parts[0].equalsIgnoreCase(predictedDisease)) {
-                    // Extract precautions from the line (excluding the disease name)
-                    for (int i = 1; i < parts.length; i++) {
-                        precautionsText.append("- ").append(parts[i].trim()).append("\n");
+    private void processInput(String userInput) {
+        if (session != null && session.state() == ConsultationSession.State.AWAITING_ANSWER) {
+            // Expecting the response ("yes" or "no") to a follow-up question
+            Boolean present = parseAnswer(userInput);
+            if (present == null) {
+                chatArea.append("Please enter 'yes' or 'no'.\n");
+                return;
+            }
+            chatArea.append("Symptom: " + session.currentQuestionName() + ", Response: "
+                    + (present ? "Yes" : "No") + "\n");
+            ConsultationSession current = session;
+            runOnWorker(current, () -> current.answer(present));
+        } else if (previousSymptom == null) {
+            // Expecting a symptom, which must name a column or one of its synonyms
+            SymptomResolver resolver = models.current().resolver();
+            String symptom = resolver.resolve(userInput);
+            if (symptom == null) {
+                List<SymptomResolver.Match> matches = resolver.complete(userInput, 5);
+                if (matches.isEmpty()) {
+                    chatArea.append("Sorry, I don't know the symptom '" + userInput + "'. Please try another.\n");
+                } else {
+                    StringBuilder text = new StringBuilder("Did you mean: ");
+                    for (int i = 0; i < matches.size(); i++) {
+                        text.append(i == 0 ? "" : ", ").append(matches.get(i).symptom());
                     }
-                    break; // Stop after displaying precautions for the predicted disease
+                    chatArea.append(text.append("?\n").toString());
                 }
+                return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            precautionsText.append("Error fetching precautions.");
+            previousSymptom = symptom;
+            chatArea.append("Do you have " + previousSymptom + "? (yes or no)\n");
+        } else {
+            // Expecting the response ("yes" or "no") to the symptom
+            Boolean present = parseAnswer(userInput);
+            if (present == null) {
+                chatArea.append("Please enter 'yes' or 'no'.\n");
+                return;
+            }
+            String symptom = previousSymptom;
+            previousSymptom = null;
+            chatArea.append("Symptom: " + symptom + ", Response: " + (present ? "Yes" : "No") + "\n");
+            // A consultation keeps this model even if a retrained one is swapped in meanwhile
+            ConsultationSession current = new ConsultationSession(models.current(), predictions);
+            session = current;
+            resetTriage();
+            runOnWorker(current, () -> current.start(symptom, present));
         }
+    }
 
-        JOptionPane.showMessageDialog(this, precautionsText.toString(), "Precautions for " + predictedDisease,
-                JOptionPane.INFORMATION_MESSAGE);
+    private boolean expectingSymptom() {
+        return predicting && !busy && previousSymptom == null
+                && (session == null || session.state() != ConsultationSession.State.AWAITING_ANSWER);
     }
 
-    private void displaySeverityMessage(String predictedDisease) {
-        int severityValue = getSeverity(predictedDisease);
-        String severityMessage;
-        if (severityValue > 3) {
-            severityMessage = "Severity level is high. You should take consultation from a doctor.";
-        } else {
-            severityMessage = "Severity level is moderate. It might not be that bad, but you should take precautions.";
+    private static Boolean parseAnswer(String userInput) {
+        String response = userInput.toLowerCase();
+        if (response.equals("yes")) {
+            return Boolean.TRUE;
         }
-
-        JOptionPane.showMessageDialog(this, severityMessage, "Severity for " + predictedDisease,
-                JOptionPane.INFORMATION_MESSAGE);
+        return response.equals("no") ? Boolean.FALSE : null;
     }
 
-    private void displayDescription(String predictedDisease) {
-        StringBuilder descriptionText = new StringBuilder("Description:\n");
-
-        try (Scanner scanner = new Scanner(new FileReader(DESCRIPTION_FILE))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] parts = line.split(",");
-                if (parts.length >= 2 && parts[0].equalsIgnoreCase(predictedDisease)) {
-                    // Build the description excluding the disease name
-                    for (int i = 1; i < parts.length; i++) {
-                        descriptionText.append("- ").append(parts[i].trim());
-                        if (i < parts.length - 1) {
-                            descriptionText.append(", ");
-                        }
-                    }
-                    break;
+    /**
+     * Advances the session on the worker thread and posts the bot's reply back
+     * to the chat area on the EDT.
+     */
+    private void runOnWorker(ConsultationSession current, Runnable step) {
+        busy = true;
+        ConsultationJournal consultations = journal;
+        ReportService reportService = reports;
+        String patient = nameField.getText();
+        worker.execute(() -> {
+            String reply;
+            try {
+                step.run();
+                reply = reply(current);
+                if (current.state() == ConsultationSession.State.FINISHED) {
+                    consultations.record(current);
+                    reply = queueReport(reportService, current, patient) + reply;
                 }
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+                reply = "Error predicting disease. Please try again.\n";
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            descriptionText.append("Error fetching description.");
-        }
+            String text = reply;
+            SwingUtilities.invokeLater(() -> {
+                chatArea.append(text);
+                chatArea.setCaretPosition(chatArea.getDocument().getLength());
+                busy = false;
+                drainPendingInput();
+            });
+        });
+    }
 
-        JOptionPane.showMessageDialog(this, descriptionText.toString(), "Description for " + predictedDisease,
-                JOptionPane.INFORMATION_MESSAGE);
+    // Runs on the worker thread; only snapshots the session, the PDF is rendered by the report service
+    private static String queueReport(ReportService reportService, ConsultationSession current, String patient) {
+        if (reportService == null) {
+            return "";
+        }
+        ReportService.Report report = ReportService.Report.of(current, patient);
+        try {
+            reportService.submit(report);
+            return "(A printable report is being saved to "
+                    + new File(reportService.directory(), report.fileName()) + ")\n";
+        } catch (ReportService.QueueFullException e) {
+            return "(Reports are busy right now, so no report was saved for this consultation)\n";
+        }
     }
 
-    private int getSeverity(String predictedDisease) {
-        try (Scanner scanner = new Scanner(new FileReader(SEVERITY_FILE))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] parts = line.split(",");
-                if (parts.length >= 2 && parts[0].equalsIgnoreCase(predictedDisease)) {
-                    return Integer.parseInt(parts[1]);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Runs on the worker thread
+    private static String reply(ConsultationSession current) {
+        if (current.state() == ConsultationSession.State.AWAITING_ANSWER) {
+            return "Do you have " + current.currentQuestionName() + "? (yes or no)\n";
+        }
+        Prediction prediction = current.prediction();
+        String differential = DifferentialIndex.text(
+                current.engine().differential(current.answers(), DifferentialIndex.DEFAULT_TOP_K));
+        if (prediction == null) {
+            return "Sorry, the symptoms provided are not sufficient to predict a disease.\n"
+                    + differential
+                    + "Enter another symptom to start again.\n";
         }
-        return -1; // Return default severity value if not found
+        StringBuilder text = new StringBuilder();
+        text.append("Predicted Disease: ").append(prediction.disease())
+                .append(" (model version ").append(prediction.modelVersion()).append(")\n");
+        text.append(differential);
+        text.append(current.advice().text());
+        text.append("Enter another symptom to predict again.\n");
+        return text.toString();
     }
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             App chatbotUI = new App();
             chatbotUI.setVisible(true);
+            chatbotUI.warmUp();
         });
     }
 }
@@ -0,0 +1,533 @@
+package com.cbot.Cbot;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Non-interactive scoring of symptom files of any size.
+ *
+ * <p>The input, a CSV or ARFF of 0/1 symptom columns optionally followed by a
+ * disease label or a {@link PackedDataset}, is streamed in chunks. Chunks are classified in parallel with
+ * the shared compiled forest while the next one is read, and written back in
+ * input order. At most {@code 2 * threads} chunks are in flight, so memory use
+ * does not grow with the input.</p>
+ *
+ * <p>Each output row holds the prediction, its probability, the top-k
+ * diseases and the knowledge-base severity. For labelled input the accuracy
+ * and throughput are printed and a confusion matrix is written next to the
+ * output.</p>
+ *
+ * <p>Usage: {@code BatchPredictor <input.csv|input.arff|input.packed> <output.csv> [--top k]
+ * [--threads n] [--chunk rows]}</p>
+ */
+public final class BatchPredictor {
+
+    public static final int DEFAULT_TOP_K = 3;
+    public static final int DEFAULT_CHUNK_ROWS = 4096;
+
+    private final DiagnosisEngine engine;
+    private final int topK;
+    private final int threads;
+    private final int chunkRows;
+
+    private final String[] diseaseNames;
+    private final String[] severities;
+    private final Map<String, Integer> classIndex = new HashMap<>();
+
+    public BatchPredictor(DiagnosisEngine engine, KnowledgeBase knowledgeBase, int topK, int threads, int chunkRows) {
+        this.engine = engine;
+        this.topK = Math.min(topK, engine.numDiseases());
+        this.threads = threads;
+        this.chunkRows = chunkRows;
+        int numDiseases = engine.numDiseases();
+        this.diseaseNames = new String[numDiseases];
+        this.severities = new String[numDiseases];
+        for (int c = 0; c < numDiseases; c++) {
+            String name = engine.diseaseName(c).trim();
+            diseaseNames[c] = name;
+            int severity = knowledgeBase.severity(name);
+            severities[c] = (severity < 0) ? "" : String.valueOf(severity);
+            classIndex.put(KnowledgeBase.diseaseKey(name), c);
+        }
+    }
+
+    /** Totals of one run. */
+    public static final class Summary {
+        long rows;
+        long labelled;
+        long correct;
+        long unknownLabels;
+        long nanos;
+        /** [true class][predicted class], the last column counting rows without a prediction. */
+        final long[][] confusion;
+
+        Summary(int numDiseases) {
+            confusion = new long[numDiseases][numDiseases + 1];
+        }
+
+        public long rows() {
+            return rows;
+        }
+
+        public long labelled() {
+            return labelled;
+        }
+
+        /** Correct fraction of the rows whose label the model knows. */
+        public double accuracy() {
+            return (labelled == 0) ? Double.NaN : (double) correct / labelled;
+        }
+
+        public double rowsPerSecond() {
+            return rows / Math.max(1e-9, nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                    "%d rows in %.2f s, %.0f rows/s", rows, nanos / 1e9, rowsPerSecond()));
+            if (labelled > 0) {
+                text.append(String.format(Locale.ROOT, ", accuracy %.2f%% of %d labelled rows",
+                        100 * accuracy(), labelled));
+            }
+            if (unknownLabels > 0) {
+                text.append(", ").append(unknownLabels).append(" rows with a label the model does not know");
+            }
+            return text.toString();
+        }
+    }
+
+    /** Scores {@code input} into {@code output}; the confusion matrix goes to {@code confusionOutput} if labelled. */
+    public Summary run(File input, File output, File confusionOutput) throws Exception {
+        Summary summary = new Summary(engine.numDiseases());
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Threads.daemonFactory("batch-predict"));
+        try (Source source = open(input);
+             Writer out = new BufferedWriter(Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8),
+                     1 << 16)) {
+            writeHeader(out, source.hasLabels());
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            long firstRow = 0;
+            while (true) {
+                Chunk chunk = read(source, firstRow);
+                if (chunk.count == 0) {
+                    break;
+                }
+                firstRow += chunk.count;
+                inFlight.add(pool.submit(chunk::classify));
+                if (inFlight.size() >= 2 * threads) {
+                    write(await(inFlight.poll()), out, summary);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(await(inFlight.poll()), out, summary);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        summary.nanos = System.nanoTime() - start;
+        if (summary.labelled > 0 && confusionOutput != null) {
+            writeConfusion(summary, confusionOutput);
+        }
+        return summary;
+    }
+
+    private static Chunk await(Future<Chunk> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /** Rows read together and classified as one batch. */
+    private final class Chunk {
+        final long firstRow;
+        final long[][] bits;
+        final String[] labels;
+        int count;
+        double[] distributions;
+        int[] predictions;
+
+        Chunk(long firstRow) {
+            this.firstRow = firstRow;
+            this.bits = new long[chunkRows][];
+            this.labels = new String[chunkRows];
+        }
+
+        Chunk classify() {
+            CompiledForest forest = engine.forest();
+            distributions = new double[count * forest.numClasses()];
+            predictions = new int[count];
+            forest.classifyBatch(bits, count, distributions, predictions);
+            return this;
+        }
+    }
+
+    private Chunk read(Source source, long firstRow) throws IOException {
+        Chunk chunk = new Chunk(firstRow);
+        int words = engine.vocabulary().words();
+        while (chunk.count < chunkRows) {
+            long[] bits = new long[words];
+            if (!source.next(bits)) {
+                break;
+            }
+            chunk.bits[chunk.count] = bits;
+            chunk.labels[chunk.count] = source.label();
+            chunk.count++;
+        }
+        return chunk;
+    }
+
+    private void writeHeader(Writer out, boolean labelled) throws IOException {
+        out.write("row,prediction,probability");
+        for (int k = 1; k <= topK; k++) {
+            out.write(",top" + k + ",top" + k + "_probability");
+        }
+        out.write(",severity");
+        if (labelled) {
+            out.write(",label,correct");
+        }
+        out.write('\n');
+    }
+
+    private void write(Chunk chunk, Writer out, Summary summary) throws IOException {
+        int numClasses = engine.forest().numClasses();
+        int[] top = new int[topK];
+        StringBuilder line = new StringBuilder(256);
+        for (int r = 0; r < chunk.count; r++) {
+            int base = r * numClasses;
+            int predicted = chunk.predictions[r];
+            topClasses(chunk.distributions, base, numClasses, top);
+
+            line.setLength(0);
+            line.append(chunk.firstRow + r + 1).append(',');
+            if (predicted >= 0) {
+                appendField(line, diseaseNames[predicted]).append(',');
+                appendProbability(line, chunk.distributions[base + predicted]);
+            } else {
+                line.append(',');
+            }
+            for (int k = 0; k < topK; k++) {
+                line.append(',');
+                if (top[k] >= 0) {
+                    appendField(line, diseaseNames[top[k]]).append(',');
+                    appendProbability(line, chunk.distributions[base + top[k]]);
+                } else {
+                    line.append(',');
+                }
+            }
+            line.append(',').append((predicted >= 0) ? severities[predicted] : "");
+
+            String label = chunk.labels[r];
+            if (label != null) {
+                Integer truth = label.isEmpty() ? null : classIndex.get(KnowledgeBase.diseaseKey(label));
+                boolean correct = truth != null && truth == predicted;
+                line.append(',');
+                appendField(line, label.trim()).append(',').append(correct);
+                if (truth != null) {
+                    summary.labelled++;
+                    summary.confusion[truth][(predicted >= 0) ? predicted : numClasses]++;
+                    if (correct) {
+                        summary.correct++;
+                    }
+                } else {
+                    summary.unknownLabels++;
+                }
+            }
+            line.append('\n');
+            out.append(line);
+            summary.rows++;
+        }
+    }
+
+    // The k most probable classes with a non-zero probability, -1 for the rest; ties keep class order
+    private static void topClasses(double[] distributions, int base, int numClasses, int[] top) {
+        Arrays.fill(top, -1);
+        for (int c = 0; c < numClasses; c++) {
+            double p = distributions[base + c];
+            if (p <= 0) {
+                continue;
+            }
+            int k = top.length - 1;
+            if (top[k] >= 0 && distributions[base + top[k]] >= p) {
+                continue;
+            }
+            while (k > 0 && (top[k - 1] < 0 || distributions[base + top[k - 1]] < p)) {
+                top[k] = top[k - 1];
+                k--;
+            }
+            top[k] = c;
+        }
+    }
+
+    private static StringBuilder appendField(StringBuilder line, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    // Four decimals without String.format, which dominated the write loop
+    private static void appendProbability(StringBuilder line, double p) {
+        long scaled = Math.round(p * 10000);
+        long fraction = scaled % 10000;
+        line.append(scaled / 10000).append('.');
+        for (long digit = 1000; digit > fraction && digit > 1; digit /= 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    private void writeConfusion(Summary summary, File file) throws IOException {
+        StringBuilder text = new StringBuilder("label \\ prediction");
+        for (String name : diseaseNames) {
+            appendField(text.append(','), name);
+        }
+        text.append(",(none),recall\n");
+        for (int t = 0; t < diseaseNames.length; t++) {
+            long rowTotal = 0;
+            appendField(text, diseaseNames[t]);
+            for (long count : summary.confusion[t]) {
+                text.append(',').append(count);
+                rowTotal += count;
+            }
+            text.append(',');
+            if (rowTotal > 0) {
+                appendProbability(text, (double) summary.confusion[t][t] / rowTotal);
+            }
+            text.append('\n');
+        }
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Rows of symptom bits, read one at a time. */
+    private interface Source extends Closeable {
+
+        /** Sets the bits of the next row's symptoms, or returns false at end of input. */
+        boolean next(long[] bits) throws IOException;
+
+        /** Label of the row just read, empty when missing, or null when the input has no labels. */
+        String label();
+
+        boolean hasLabels();
+    }
+
+    private Source open(File input) throws IOException {
+        String name = input.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(PackedDataset.EXTENSION)) {
+            return new PackedSource(input);
+        }
+        return name.endsWith(".arff") ? new ArffSource(input) : new CsvSource(input);
+    }
+
+    private final class CsvSource implements Source {
+        private final CsvReader reader;
+        private final int[] columns;
+        private final int labelColumn;
+        private String label;
+
+        CsvSource(File file) throws IOException {
+            reader = CsvReader.open(file);
+            String[] header = reader.next();
+            if (header == null) {
+                header = new String[0];
+            }
+            SymptomVocabulary vocabulary = engine.vocabulary();
+            columns = new int[header.length];
+            for (int i = 0; i < header.length; i++) {
+                columns[i] = vocabulary.indexOf(header[i]);
+            }
+            // A trailing column that is not a symptom holds the label
+            labelColumn = (header.length > 0 && columns[header.length - 1] < 0) ? header.length - 1 : -1;
+        }
+
+        @Override
+        public boolean next(long[] bits) throws IOException {
+            String[] record = reader.next();
+            if (record == null) {
+                return false;
+            }
+            int n = Math.min(record.length, columns.length);
+            for (int i = 0; i < n; i++) {
+                int index = columns[i];
+                if (index >= 0 && SymptomVocabulary.isPresentValue(record[i])) {
+                    bits[index >>> 6] |= 1L << index;
+                }
+            }
+            if (labelColumn >= 0) {
+                label = (labelColumn < record.length) ? record[labelColumn] : "";
+            }
+            return true;
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public boolean hasLabels() {
+            return labelColumn >= 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private final class PackedSource implements Source {
+        private final PackedDataset dataset;
+        private final int[] columns;
+        private final long[] packedBits;
+        private long row;
+        private String label;
+
+        PackedSource(File file) throws IOException {
+            dataset = PackedDataset.open(file);
+            columns = new int[dataset.numSymptoms()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = engine.vocabulary().indexOf(dataset.symptomName(i));
+            }
+            packedBits = new long[dataset.words()];
+        }
+
+        @Override
+        public boolean next(long[] bits) {
+            if (row == dataset.numRows()) {
+                return false;
+            }
+            dataset.bits(row, packedBits);
+            for (int w = 0; w < packedBits.length; w++) {
+                long word = packedBits[w];
+                while (word != 0) {
+                    int index = columns[(w << 6) + Long.numberOfTrailingZeros(word)];
+                    if (index >= 0) {
+                        bits[index >>> 6] |= 1L << index;
+                    }
+                    word &= word - 1;
+                }
+            }
+            int classId = dataset.classId(row);
+            label = (classId < 0) ? "" : dataset.classLabel(classId);
+            row++;
+            return true;
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public boolean hasLabels() {
+            return dataset.numClasses() > 0;
+        }
+
+        @Override
+        public void close() {
+            dataset.close();
+        }
+    }
+
+    private final class ArffSource implements Source {
+        private final ArffLoader loader = new ArffLoader();
+        private final Instances structure;
+        private final int[] columns;
+        private String label;
+
+        ArffSource(File file) throws IOException {
+            loader.setFile(file);
+            structure = loader.getStructure();
+            int last = structure.numAttributes() - 1;
+            if (last >= 0 && engine.vocabulary().indexOf(structure.attribute(last).name()) < 0) {
+                structure.setClassIndex(last);
+            }
+            columns = engine.vocabulary().columnsOf(structure);
+        }
+
+        @Override
+        public boolean next(long[] bits) throws IOException {
+            Instance row = loader.getNextInstance(structure);
+            if (row == null) {
+                return false;
+            }
+            long[] encoded = engine.vocabulary().encode(row, columns);
+            System.arraycopy(encoded, 0, bits, 0, bits.length);
+            if (structure.classIndex() >= 0) {
+                label = row.classIsMissing() ? "" : row.stringValue(structure.classIndex());
+            }
+            return true;
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public boolean hasLabels() {
+            return structure.classIndex() >= 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            loader.reset();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchPredictor <input.csv|input.arff|input.packed> <output.csv> [--top k] [--threads n]"
+                    + " [--chunk rows]");
+            System.exit(2);
+        }
+        int topK = DEFAULT_TOP_K;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkRows = DEFAULT_CHUNK_ROWS;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--top":
+                    topK = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--chunk":
+                    chunkRows = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        DiagnosisEngine engine = new DiagnosisEngine(new ModelStore().loadOrTrain());
+        BatchPredictor predictor = new BatchPredictor(engine, KnowledgeBase.getDefault(), topK, threads, chunkRows);
+        File output = new File(args[1]);
+        File confusion = new File(output.getPath().replaceFirst("(\\.csv)?$", ".confusion.csv"));
+        Summary summary = predictor.run(new File(args[0]), output, confusion);
+        System.out.println(summary);
+        if (summary.labelled() > 0) {
+            System.out.println("Confusion matrix written to " + confusion);
+        }
+    }
+}
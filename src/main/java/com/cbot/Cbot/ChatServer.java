@@ -0,0 +1,446 @@
+package com.cbot.Cbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON chat API serving many concurrent consultations from one shared model.
+ *
+ * <pre>
+ * POST   /sessions              {"symptom": "itching"}  start a consultation
+ * GET    /sessions/{id}                                 current state
+ * POST   /sessions/{id}/answer  {"answer": "yes"}      answer the pending question
+ * DELETE /sessions/{id}                                 end a consultation
+ * GET    /sessions/{id}/report?patient=Ann               finished consultation as a PDF report
+ * GET    /symptoms?q=sneez&amp;limit=8                      autocomplete a symptom name
+ * GET    /metrics                                       {@link Metrics} as Prometheus text
+ * </pre>
+ *
+ * A first symptom that names no column, directly or through a synonym, is
+ * answered with 422 and the closest symptom names as {@code suggestions}.
+ * Reports are rendered on the {@link ReportService} pool and streamed as they
+ * are written; when its queue is full the request is answered with 503.
+ * Every request runs on its own virtual thread where the JDK provides them.
+ */
+public final class ChatServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_SUGGESTIONS = 50;
+    private static final int DEFAULT_CAPACITY = 10_000;
+    private static final long DEFAULT_IDLE_MINUTES = 15;
+
+    private final ModelHolder models;
+    private final PredictionCache predictions;
+    private final SessionStore sessions;
+    private final ConsultationJournal journal;
+    private final ReportService reports;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /** Finished consultations go to {@code journal} unless it is null; the server closes it. */
+    public ChatServer(ModelHolder models, KnowledgeBase knowledgeBase, SessionStore sessions,
+                      ConsultationJournal journal, InetSocketAddress address) throws IOException {
+        this(models, knowledgeBase, sessions, journal, null, address);
+    }
+
+    /** As above, serving reports from {@code reports} unless it is null; the server closes it too. */
+    public ChatServer(ModelHolder models, KnowledgeBase knowledgeBase, SessionStore sessions,
+                      ConsultationJournal journal, ReportService reports, InetSocketAddress address)
+            throws IOException {
+        this.models = models;
+        this.predictions = PredictionCache.withDefaultCapacity(knowledgeBase);
+        this.sessions = sessions;
+        this.journal = journal;
+        this.reports = reports;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Threads.newPerTaskExecutor("chat-http");
+        server.setExecutor(executor);
+        server.createContext("/sessions", this::handle);
+        server.createContext("/symptoms", this::handle);
+        server.createContext("/metrics", Metrics::handleScrape);
+        Metrics.registerCache(predictions);
+        if (reports != null) {
+            Metrics.registerReports(reports);
+        }
+        Metrics.registerMBean();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            // path[0] is empty and path[1] is "sessions" or "symptoms"
+            if (path.length == 2 && path[1].equals("symptoms") && method.equals("GET")) {
+                respond(exchange, 200, suggestions(exchange.getRequestURI().getRawQuery()));
+            } else if (path.length == 2 && path[1].equals("symptoms")) {
+                throw new HttpError(404, "No such resource");
+            } else if (path.length == 2 && method.equals("POST")) {
+                createSession(exchange);
+            } else if (path.length == 3 && method.equals("GET")) {
+                respond(exchange, 200, view(path[2], requireSession(path[2])));
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                if (!sessions.remove(path[2])) {
+                    throw new HttpError(404, "Unknown session");
+                }
+                // The JDK server drops the keep-alive connection after a 204, failing the client's next request on it
+                Map<String, Object> deleted = new LinkedHashMap<>();
+                deleted.put("sessionId", path[2]);
+                deleted.put("deleted", true);
+                respond(exchange, 200, deleted);
+            } else if (path.length == 4 && path[3].equals("answer") && method.equals("POST")) {
+                answer(exchange, path[2]);
+            } else if (path.length == 4 && path[3].equals("report") && method.equals("GET")) {
+                report(exchange, path[2]);
+            } else {
+                throw new HttpError(404, "No such resource");
+            }
+        } catch (HttpError e) {
+            respond(exchange, e.status, error(e.getMessage()));
+        } catch (SessionStore.StoreFullException e) {
+            respond(exchange, 503, error(e.getMessage()));
+        } catch (ReportService.QueueFullException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, error(e.getMessage()));
+        } catch (IllegalStateException e) {
+            respond(exchange, 409, error(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, error("Internal error"));
+        } finally {
+            exchange.close();
+            Metrics.Stage.HTTP_REQUEST.recordSince(start);
+        }
+    }
+
+    private void createSession(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        Object symptom = body.get("symptom");
+        if (!(symptom instanceof String) || ((String) symptom).isBlank()) {
+            throw new HttpError(400, "Field 'symptom' is required");
+        }
+        // The session keeps this model even if a retrained one is swapped in meanwhile
+        DiagnosisEngine engine = models.current();
+        String column = engine.resolver().resolve((String) symptom);
+        if (column == null) {
+            Map<String, Object> unknown = error("Unknown symptom '" + ((String) symptom).trim() + "'");
+            unknown.put("suggestions", matchViews(engine.resolver().complete((String) symptom,
+                    SymptomResolver.DEFAULT_LIMIT)));
+            respond(exchange, 422, unknown);
+            return;
+        }
+        ConsultationSession session = new ConsultationSession(engine, predictions);
+        journalIfFinished(session, session.start(column));
+        String id = sessions.add(session);
+        respond(exchange, 201, view(id, session));
+    }
+
+    private void answer(HttpExchange exchange, String id) throws IOException {
+        ConsultationSession session = requireSession(id);
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        journalIfFinished(session, session.answer(parseAnswer(body.get("answer"))));
+        respond(exchange, 200, view(id, session));
+    }
+
+    // Queued before any header is sent, so a full queue can still be answered with 503
+    private void report(HttpExchange exchange, String id) throws IOException {
+        if (reports == null) {
+            throw new HttpError(404, "Reports are disabled");
+        }
+        ConsultationSession session = requireSession(id);
+        if (session.state() != ConsultationSession.State.FINISHED) {
+            throw new IllegalStateException("The consultation is not finished yet");
+        }
+        String patient = queryParameters(exchange.getRequestURI().getRawQuery()).getOrDefault("patient", "");
+        ReportService.Report report = ReportService.Report.of(session, patient);
+        // The headers wait for the worker's first byte; the length is unknown, so the body is chunked
+        OutputStream body = new HeadersOnFirstWrite(exchange, report.fileName());
+        Future<Void> written = reports.submit(report, body);
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            written.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering the report", e);
+        } catch (ExecutionException e) {
+            if (((HeadersOnFirstWrite) body).started) {
+                // Too late for an error status; the client sees the chunked body cut short
+                throw new IOException("Report rendering failed", e.getCause());
+            }
+            throw new RuntimeException("Report rendering failed", e.getCause());
+        }
+        body.close();
+    }
+
+    // Only the call that finished the session sees FINISHED returned, so each is journalled once
+    private void journalIfFinished(ConsultationSession session, ConsultationSession.State state) {
+        if (journal != null && state == ConsultationSession.State.FINISHED) {
+            journal.record(session);
+        }
+    }
+
+    private static boolean parseAnswer(Object answer) {
+        if (answer instanceof Boolean) {
+            return (Boolean) answer;
+        }
+        if (answer instanceof String) {
+            String text = ((String) answer).trim();
+            if (text.equalsIgnoreCase("yes")) {
+                return true;
+            }
+            if (text.equalsIgnoreCase("no")) {
+                return false;
+            }
+        }
+        throw new HttpError(400, "Field 'answer' must be \"yes\" or \"no\"");
+    }
+
+    private Map<String, Object> suggestions(String rawQuery) {
+        Map<String, String> parameters = queryParameters(rawQuery);
+        String query = parameters.getOrDefault("q", "");
+        int limit = SymptomResolver.DEFAULT_LIMIT;
+        if (parameters.containsKey("limit")) {
+            try {
+                limit = Integer.parseInt(parameters.get("limit"));
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Parameter 'limit' must be a number");
+            }
+            if (limit < 1 || limit > MAX_SUGGESTIONS) {
+                throw new HttpError(400, "Parameter 'limit' must be between 1 and " + MAX_SUGGESTIONS);
+            }
+        }
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("query", query);
+        view.put("matches", matchViews(models.current().resolver().complete(query, limit)));
+        return view;
+    }
+
+    private static List<Object> matchViews(List<SymptomResolver.Match> matches) {
+        List<Object> views = new ArrayList<>(matches.size());
+        for (SymptomResolver.Match match : matches) {
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("symptom", match.symptom());
+            view.put("term", match.term());
+            view.put("kind", match.kind().name());
+            view.put("score", match.score());
+            views.add(view);
+        }
+        return views;
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    private ConsultationSession requireSession(String id) {
+        ConsultationSession session = sessions.get(id);
+        if (session == null) {
+            throw new HttpError(404, "Unknown or expired session");
+        }
+        return session;
+    }
+
+    private Map<String, Object> view(String id, ConsultationSession session) {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("sessionId", id);
+        synchronized (session) {
+            view.put("state", session.state().name());
+            view.put("modelVersion", session.engine().version());
+            view.put("question", session.currentQuestionName());
+            view.put("questionsAsked", session.answers().askedCount());
+            ConsultationSession.Outcome outcome = session.outcome();
+            view.put("outcome", (outcome != null) ? outcome.name() : null);
+            Prediction prediction = session.prediction();
+            if (prediction != null) {
+                view.put("prediction", predictionView(prediction, session.advice()));
+            }
+        }
+        return view;
+    }
+
+    private static Map<String, Object> predictionView(Prediction prediction, KnowledgeBase.Advice advice) {
+        String disease = prediction.disease();
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("disease", disease.trim());
+        view.put("probability", prediction.probability());
+        view.put("modelVersion", prediction.modelVersion());
+        view.put("severity", advice.severity());
+        view.put("highSeverity", advice.isHighSeverity());
+        view.put("precautions", advice.precautions());
+        view.put("description", advice.description());
+        return view;
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        return error;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new HttpError(413, "Request body too large");
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.close();
+        if (journal != null) {
+            journal.close();
+        }
+        if (reports != null) {
+            reports.close();
+        }
+    }
+
+    /** Sends the PDF response headers just before the first byte of the report. */
+    private static final class HeadersOnFirstWrite extends OutputStream {
+
+        private final HttpExchange exchange;
+        private final String fileName;
+        private OutputStream out;
+        volatile boolean started;
+
+        HeadersOnFirstWrite(HttpExchange exchange, String fileName) {
+            this.exchange = exchange;
+            this.fileName = fileName;
+        }
+
+        private OutputStream out() throws IOException {
+            if (out == null) {
+                exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+                exchange.getResponseHeaders().set("Content-Disposition", "inline; filename=\"" + fileName + "\"");
+                exchange.sendResponseHeaders(200, 0);
+                started = true;
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out().close();
+        }
+    }
+
+    /** An error carrying the HTTP status to answer with. */
+    private static final class HttpError extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /** Serves the chat API on localhost, on the port given as first argument (default 8080). */
+    public static void main(String[] args) throws Exception {
+        // Without TCP_NODELAY the response's header and body writes meet the client's delayed ACK, 40 ms per turn.
+        // The JDK reads this once for every HttpServer in the JVM, so only the standalone server sets it
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ModelHolder models = ModelHolder.load();
+        models.watch(ModelHolder.DEFAULT_POLL_SECONDS, TimeUnit.SECONDS);
+        KnowledgeBase knowledgeBase = KnowledgeBase.getDefault();
+        SessionStore sessions = new SessionStore(DEFAULT_CAPACITY, DEFAULT_IDLE_MINUTES, TimeUnit.MINUTES);
+        ChatServer server = new ChatServer(models, knowledgeBase, sessions, ConsultationJournal.openDefault(),
+                ReportService.openDefault(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("Healthcare Chatbot API listening on http://" + server.address().getHostString()
+                + ":" + server.address().getPort() + "/sessions"
+                + (Threads.virtualThreadsAvailable() ? " (virtual threads)" : ""));
+    }
+}
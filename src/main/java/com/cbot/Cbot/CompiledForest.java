@@ -0,0 +1,547 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A trained Weka RandomForest flattened into primitive arrays and evaluated
+ * directly against a symptom bitset.
+ *
+ * <p>Every internal node tests one symptom bit and jumps to the child for a
+ * clear or a set bit. A child pointer {@code < 0} is a leaf, {@code ~child}
+ * being its index into the leaf tables. Leaf distributions are stored already
+ * normalized exactly as {@code RandomTree} returns them and are summed in tree
+ * order exactly as {@code Bagging} does, so the resulting probabilities are
+ * bit-for-bit those of {@link RandomForest#distributionForInstance}.</p>
+ */
+public final class CompiledForest {
+
+    private static final double[] NO_DISTRIBUTION = new double[0];
+
+    private final int numClasses;
+    private final int[] roots;
+    private final int[] feature;
+    private final int[] childIfClear;
+    private final int[] childIfSet;
+    private final double[] leafDistributions;
+    private final short[] leafClass;
+
+    private CompiledForest(int numClasses, int[] roots, int[] feature, int[] childIfClear, int[] childIfSet,
+                           double[] leafDistributions, short[] leafClass) {
+        this.numClasses = numClasses;
+        this.roots = roots;
+        this.feature = feature;
+        this.childIfClear = childIfClear;
+        this.childIfSet = childIfSet;
+        this.leafDistributions = leafDistributions;
+        this.leafClass = leafClass;
+    }
+
+    /** Compiles the forest stored in a snapshot. */
+    public static CompiledForest compile(ModelSnapshot snapshot) throws Exception {
+        Classifier classifier = snapshot.classifier();
+        if (!(classifier instanceof RandomForest)) {
+            throw new IllegalArgumentException("Only RandomForest models can be compiled, got "
+                    + classifier.getClass().getName());
+        }
+        return compile((RandomForest) classifier, snapshot.header());
+    }
+
+    /**
+     * Compiles a trained forest whose symptom attributes are 0/1 columns of the
+     * given header, in the same order as {@link SymptomVocabulary}.
+     */
+    public static CompiledForest compile(RandomForest forest, Instances header) throws Exception {
+        Classifier[] members = (Classifier[]) readField(forest, "m_Classifiers");
+        int numIterations = (Integer) readField(forest, "m_NumIterations");
+        List<RandomTree> trees = new ArrayList<>(numIterations);
+        for (int i = 0; i < numIterations; i++) {
+            if (!(members[i] instanceof RandomTree)) {
+                throw new IllegalArgumentException("Unsupported ensemble member " + members[i].getClass().getName());
+            }
+            trees.add((RandomTree) members[i]);
+        }
+        return compile(trees, header);
+    }
+
+    /** Compiles a list of random trees that are averaged like a RandomForest. */
+    public static CompiledForest compile(List<RandomTree> trees, Instances header) throws Exception {
+        Builder builder = new Builder(header);
+        int[] roots = new int[trees.size()];
+        for (int t = 0; t < trees.size(); t++) {
+            RandomTree tree = trees.get(t);
+            if (readField(tree, "m_zeroR") != null) {
+                throw new IllegalArgumentException("Tree " + t + " fell back to ZeroR and cannot be compiled");
+            }
+            builder.allowUnclassified = tree.getAllowUnclassifiedInstances();
+            roots[t] = builder.add(readField(tree, "m_Tree"), null);
+        }
+        return builder.build(roots);
+    }
+
+    public int numTrees() {
+        return roots.length;
+    }
+
+    public int numClasses() {
+        return numClasses;
+    }
+
+    public int numNodes() {
+        return feature.length;
+    }
+
+    public int numLeaves() {
+        return leafClass.length;
+    }
+
+    /** Index of the leaf tree {@code tree} routes the bitset to. */
+    private int leaf(int tree, long[] bits) {
+        int node = roots[tree];
+        while (node >= 0) {
+            int f = feature[node];
+            node = ((bits[f >>> 6] & (1L << f)) != 0) ? childIfSet[node] : childIfClear[node];
+        }
+        return ~node;
+    }
+
+    /**
+     * Writes the forest's class distribution for the bitset into {@code out},
+     * which must hold at least {@link #numClasses()} values. Allocation free.
+     */
+    public void distributionForBits(long[] bits, double[] out) {
+        Arrays.fill(out, 0, numClasses, 0.0);
+        for (int t = 0; t < roots.length; t++) {
+            int offset = leaf(t, bits) * numClasses;
+            for (int c = 0; c < numClasses; c++) {
+                out[c] += leafDistributions[offset + c];
+            }
+        }
+        normalize(out, 0);
+    }
+
+    public double[] distributionForBits(long[] bits) {
+        double[] out = new double[numClasses];
+        distributionForBits(bits, out);
+        return out;
+    }
+
+    /**
+     * Returns the predicted class index for the bitset, or -1 when no tree
+     * gives any class a non-zero probability (Weka's missing prediction).
+     */
+    public int classify(long[] bits) {
+        return classify(bits, new double[numClasses]);
+    }
+
+    /**
+     * Like {@link #classify(long[])}, summing into {@code scratch} (length at
+     * least {@link #numClasses()}); loops over many rows pass one buffer.
+     */
+    public int classify(long[] bits, double[] scratch) {
+        distributionForBits(bits, scratch);
+        return maxIndex(scratch, 0);
+    }
+
+    /** Trees evaluated by {@link #classifyEarly}; one instance per thread, it is not synchronized. */
+    public static final class EarlyExitStats {
+        private long calls;
+        private long treesEvaluated;
+        private int lastTreesEvaluated;
+
+        public long calls() {
+            return calls;
+        }
+
+        public long treesEvaluated() {
+            return treesEvaluated;
+        }
+
+        /** Trees evaluated by the most recent call. */
+        public int lastTreesEvaluated() {
+            return lastTreesEvaluated;
+        }
+
+        public double averageTreesEvaluated() {
+            return (calls == 0) ? 0 : (double) treesEvaluated / calls;
+        }
+
+        void record(int trees) {
+            calls++;
+            treesEvaluated += trees;
+            lastTreesEvaluated = trees;
+        }
+    }
+
+    /** Disables the confidence threshold of {@link #classifyEarly}. */
+    public static final double NO_CONFIDENCE_THRESHOLD = Double.NaN;
+
+    // Fewest trees a confidence threshold may stop at, so one stray tree cannot decide alone
+    private static final int MIN_TREES_FOR_CONFIDENCE = 5;
+
+    /**
+     * Like {@link #classify}, but stops evaluating trees once the answer is
+     * settled. Every tree adds at most 1 to any class, so as soon as the
+     * leader is ahead of the runner-up by more than the number of trees left
+     * the result cannot change and is exactly that of {@link #classify}.
+     *
+     * <p>With a {@code confidence} in (0, 1], evaluation also stops once at
+     * least {@value #MIN_TREES_FOR_CONFIDENCE} trees were evaluated and the
+     * leader holds that share of their votes. This is an approximation: the
+     * remaining trees could still have changed the answer.</p>
+     *
+     * @param stats receives the number of trees evaluated, may be null
+     */
+    public int classifyEarly(long[] bits, double confidence, EarlyExitStats stats) {
+        double[] sums = new double[numClasses];
+        boolean useConfidence = confidence > 0 && confidence <= 1;
+        int numTrees = roots.length;
+        int t = 0;
+        while (t < numTrees) {
+            int offset = leaf(t, bits) * numClasses;
+            for (int c = 0; c < numClasses; c++) {
+                sums[c] += leafDistributions[offset + c];
+            }
+            t++;
+            int remaining = numTrees - t;
+            // The leader can only be out of reach once more than half the trees are in
+            boolean mayBeDecided = 2 * t > numTrees;
+            boolean mayBeConfident = useConfidence && t >= MIN_TREES_FOR_CONFIDENCE;
+            if (remaining == 0 || !(mayBeDecided || mayBeConfident)) {
+                continue;
+            }
+            double first = 0;
+            double second = 0;
+            for (int c = 0; c < numClasses; c++) {
+                double sum = sums[c];
+                if (sum > first) {
+                    second = first;
+                    first = sum;
+                } else if (sum > second) {
+                    second = sum;
+                }
+            }
+            // Leaf distributions sum to 1 up to rounding; the slack keeps the bound safe
+            if (first - second > remaining * (1 + 1e-9) + 1e-9
+                    || (mayBeConfident && first >= confidence * t)) {
+                break;
+            }
+        }
+        if (stats != null) {
+            stats.record(t);
+        }
+        if (t == numTrees) {
+            // Same arithmetic as classify, so ties break identically
+            normalize(sums, 0);
+        }
+        return maxIndex(sums, 0);
+    }
+
+    /**
+     * Counts, per class, the trees whose own most probable class it is, into
+     * {@code votes} (length {@link #numClasses()}).
+     */
+    public void votes(long[] bits, int[] votes) {
+        Arrays.fill(votes, 0, numClasses, 0);
+        for (int t = 0; t < roots.length; t++) {
+            int vote = leafClass[leaf(t, bits)];
+            if (vote >= 0) {
+                votes[vote]++;
+            }
+        }
+    }
+
+    /**
+     * Classifies {@code count} bitsets in one pass over the trees, so each tree's
+     * arrays stay hot in cache for the whole batch. {@code distributions} must
+     * hold {@code count * numClasses()} values and receives every row's
+     * distribution; {@code predictions} receives the class indexes.
+     */
+    public void classifyBatch(long[][] rows, int count, double[] distributions, int[] predictions) {
+        Arrays.fill(distributions, 0, count * numClasses, 0.0);
+        for (int t = 0; t < roots.length; t++) {
+            for (int r = 0; r < count; r++) {
+                int offset = leaf(t, rows[r]) * numClasses;
+                int base = r * numClasses;
+                for (int c = 0; c < numClasses; c++) {
+                    distributions[base + c] += leafDistributions[offset + c];
+                }
+            }
+        }
+        for (int r = 0; r < count; r++) {
+            normalize(distributions, r * numClasses);
+            predictions[r] = maxIndex(distributions, r * numClasses);
+        }
+    }
+
+    // Same arithmetic as Utils.eq(Utils.sum(sums), 0) followed by Utils.normalize(sums)
+    private void normalize(double[] values, int offset) {
+        double sum = 0;
+        for (int c = 0; c < numClasses; c++) {
+            sum += values[offset + c];
+        }
+        if (Utils.eq(sum, 0)) {
+            return;
+        }
+        for (int c = 0; c < numClasses; c++) {
+            values[offset + c] /= sum;
+        }
+    }
+
+    // Same tie breaking as AbstractClassifier.classifyInstance: first strictly greater maximum
+    private int maxIndex(double[] values, int offset) {
+        double max = 0;
+        int maxIndex = -1;
+        for (int c = 0; c < numClasses; c++) {
+            if (values[offset + c] > max) {
+                max = values[offset + c];
+                maxIndex = c;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Compares the compiled forest with Weka on every row of {@code data} and
+     * returns the number of rows whose distribution differs in any value.
+     */
+    public static int verify(RandomForest forest, CompiledForest compiled, SymptomVocabulary vocabulary,
+                             Instances data) throws Exception {
+        int[] columns = vocabulary.columnsOf(data);
+        Instances header = vocabulary.header();
+        double[] compiledDistribution = new double[compiled.numClasses()];
+        int mismatches = 0;
+        for (Instance row : data) {
+            long[] bits = vocabulary.encode(row, columns);
+            double[] wekaDistribution = forest.distributionForInstance(denseInstance(header, bits));
+            compiled.distributionForBits(bits, compiledDistribution);
+            if (!Arrays.equals(wekaDistribution, compiledDistribution)) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static Instance denseInstance(Instances header, long[] bits) {
+        double[] values = new double[header.numAttributes()];
+        for (int i = 0; i < header.numAttributes() - 1; i++) {
+            values[i] = ((bits[i >>> 6] & (1L << i)) != 0) ? 1.0 : 0.0;
+        }
+        values[header.classIndex()] = Utils.missingValue();
+        Instance instance = new DenseInstance(1.0, values);
+        instance.setDataset(header);
+        return instance;
+    }
+
+    /**
+     * Verification mode: compiles the stored model, checks it against Weka on
+     * {@code Data/testingSet.csv} (or the file given as first argument) and
+     * reports the agreement and the per-row latency of both engines, then how
+     * many trees early-exit voting evaluates and whether its answers agree.
+     */
+    public static void main(String[] args) throws Exception {
+        ModelSnapshot snapshot = new ModelStore().loadOrTrain();
+        RandomForest forest = (RandomForest) snapshot.classifier();
+        SymptomVocabulary vocabulary = new SymptomVocabulary(snapshot.header());
+        CompiledForest compiled = compile(forest, snapshot.header());
+
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(args.length > 0 ? args[0] : ModelStore.TEST_FILE));
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+
+        int mismatches = verify(forest, compiled, vocabulary, data);
+        System.out.println("Compiled " + compiled.numTrees() + " trees, " + compiled.numNodes() + " nodes, "
+                + compiled.numLeaves() + " leaves");
+        System.out.println("Rows checked: " + data.numInstances() + ", mismatching distributions: " + mismatches);
+
+        int[] columns = vocabulary.columnsOf(data);
+        long[][] rows = new long[data.numInstances()][];
+        Instance[] instances = new Instance[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = vocabulary.encode(data.instance(r), columns);
+            instances[r] = denseInstance(snapshot.header(), rows[r]);
+        }
+        double[] distributions = new double[rows.length * compiled.numClasses()];
+        int[] predictions = new int[rows.length];
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (Instance instance : instances) {
+                forest.classifyInstance(instance);
+            }
+            long weka = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long[] row : rows) {
+                compiled.classify(row);
+            }
+            long single = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            compiled.classifyBatch(rows, rows.length, distributions, predictions);
+            long batch = System.nanoTime() - start;
+
+            EarlyExitStats exact = new EarlyExitStats();
+            start = System.nanoTime();
+            for (long[] row : rows) {
+                compiled.classifyEarly(row, NO_CONFIDENCE_THRESHOLD, exact);
+            }
+            long early = System.nanoTime() - start;
+
+            System.out.printf("Round %d: weka %.2f us/row, compiled %.2f us/row, batched %.2f us/row,"
+                            + " early exit %.2f us/row (%.1f of %d trees)%n", round,
+                    weka / 1000.0 / rows.length, single / 1000.0 / rows.length, batch / 1000.0 / rows.length,
+                    early / 1000.0 / rows.length, exact.averageTreesEvaluated(), compiled.numTrees());
+        }
+
+        for (double confidence : new double[] {NO_CONFIDENCE_THRESHOLD, 0.9, 0.8, 0.6}) {
+            EarlyExitStats stats = new EarlyExitStats();
+            int disagreements = 0;
+            for (long[] row : rows) {
+                if (compiled.classifyEarly(row, confidence, stats) != compiled.classify(row)) {
+                    disagreements++;
+                }
+            }
+            System.out.printf("Early exit, confidence %s: %.1f trees per row, %d of %d answers differ from the"
+                            + " full forest%n", Double.isNaN(confidence) ? "off" : String.valueOf(confidence),
+                    stats.averageTreesEvaluated(), disagreements, rows.length);
+        }
+    }
+
+    private static Object readField(Object target, String name) throws ReflectiveOperationException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException e) {
+                // Keep walking up the hierarchy
+            }
+        }
+        throw new NoSuchFieldException(target.getClass().getName() + "." + name);
+    }
+
+    /** Accumulates nodes and leaves while walking Weka's RandomTree.Tree objects. */
+    private static final class Builder {
+
+        private final Instances header;
+        private final int numClasses;
+        private final double[] yesValues;
+        private boolean allowUnclassified;
+
+        private int[] feature = new int[1024];
+        private int[] childIfClear = new int[1024];
+        private int[] childIfSet = new int[1024];
+        private int numNodes;
+        private double[] leafDistributions;
+        private short[] leafClass = new short[1024];
+        private int numLeaves;
+
+        Builder(Instances header) {
+            this.header = header;
+            this.numClasses = header.numClasses();
+            this.leafDistributions = new double[1024 * numClasses];
+            this.yesValues = new double[header.numAttributes()];
+            for (int i = 0; i < header.numAttributes(); i++) {
+                Attribute attribute = header.attribute(i);
+                yesValues[i] = attribute.isNominal() ? attribute.indexOfValue("1") : 1.0;
+            }
+        }
+
+        /**
+         * Adds the subtree rooted at {@code node} and returns its reference.
+         * {@code fallback} is the distribution Weka falls back to when the
+         * subtree yields none: the nearest ancestor's own distribution.
+         */
+        int add(Object node, double[] fallback) throws ReflectiveOperationException {
+            int attribute = (Integer) readField(node, "m_Attribute");
+            double[] classDistribution = (double[]) readField(node, "m_ClassDistribution");
+            double[] own = (classDistribution != null) ? normalized(classDistribution) : fallback;
+
+            if (attribute == -1) {
+                if (classDistribution == null && allowUnclassified) {
+                    own = new double[numClasses];
+                }
+                if (own == null) {
+                    throw new IllegalArgumentException("Tree has an empty leaf without an ancestor distribution");
+                }
+                return ~addLeaf(own);
+            }
+
+            Object[] successors = (Object[]) readField(node, "m_Successors");
+            int clearChild;
+            int setChild;
+            if (header.attribute(attribute).isNominal()) {
+                clearChild = 0;
+                setChild = (int) yesValues[attribute];
+            } else {
+                double splitPoint = (Double) readField(node, "m_SplitPoint");
+                clearChild = (0.0 < splitPoint) ? 0 : 1;
+                setChild = (yesValues[attribute] < splitPoint) ? 0 : 1;
+            }
+
+            int index = numNodes++;
+            ensureNodeCapacity();
+            feature[index] = attribute;
+            childIfClear[index] = add(successors[clearChild], own);
+            childIfSet[index] = add(successors[setChild], own);
+            return index;
+        }
+
+        private double[] normalized(double[] classDistribution) {
+            double[] copy = classDistribution.clone();
+            if (header.classAttribute().isNominal()) {
+                Utils.normalize(copy);
+            }
+            return copy;
+        }
+
+        private int addLeaf(double[] distribution) {
+            if (numLeaves == leafClass.length) {
+                leafClass = Arrays.copyOf(leafClass, numLeaves * 2);
+                leafDistributions = Arrays.copyOf(leafDistributions, numLeaves * 2 * numClasses);
+            }
+            System.arraycopy(distribution, 0, leafDistributions, numLeaves * numClasses, numClasses);
+            double max = 0;
+            int maxIndex = -1;
+            for (int c = 0; c < numClasses; c++) {
+                if (distribution[c] > max) {
+                    max = distribution[c];
+                    maxIndex = c;
+                }
+            }
+            leafClass[numLeaves] = (short) maxIndex;
+            return numLeaves++;
+        }
+
+        private void ensureNodeCapacity() {
+            if (numNodes > feature.length) {
+                feature = Arrays.copyOf(feature, feature.length * 2);
+                childIfClear = Arrays.copyOf(childIfClear, childIfClear.length * 2);
+                childIfSet = Arrays.copyOf(childIfSet, childIfSet.length * 2);
+            }
+        }
+
+        CompiledForest build(int[] roots) {
+            return new CompiledForest(numClasses, roots,
+                    Arrays.copyOf(feature, numNodes),
+                    Arrays.copyOf(childIfClear, numNodes),
+                    Arrays.copyOf(childIfSet, numNodes),
+                    Arrays.copyOf(leafDistributions, numLeaves * numClasses),
+                    Arrays.copyOf(leafClass, numLeaves));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.cbot.Cbot;
+
+import java.util.Arrays;
+
+/**
+ * The answers of one consultation packed into two bitsets over a
+ * {@link SymptomVocabulary}: the symptoms answered "yes", and the symptoms
+ * that have been asked at all.
+ */
+public final class ConsultationBits {
+
+    private final int numSymptoms;
+    private final long[] yes;
+    private final long[] asked;
+
+    public ConsultationBits(int numSymptoms) {
+        this.numSymptoms = numSymptoms;
+        this.yes = new long[(numSymptoms + 63) >>> 6];
+        this.asked = new long[yes.length];
+    }
+
+    private ConsultationBits(int numSymptoms, long[] yes, long[] asked) {
+        this.numSymptoms = numSymptoms;
+        this.yes = yes;
+        this.asked = asked;
+    }
+
+    public void answer(int index, boolean present) {
+        if (index < 0 || index >= numSymptoms) {
+            throw new IndexOutOfBoundsException("Symptom index " + index);
+        }
+        long mask = 1L << index;
+        asked[index >>> 6] |= mask;
+        if (present) {
+            yes[index >>> 6] |= mask;
+        } else {
+            yes[index >>> 6] &= ~mask;
+        }
+    }
+
+    public boolean isAsked(int index) {
+        return (asked[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean isYes(int index) {
+        return (yes[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public int yesCount() {
+        return bitCount(yes);
+    }
+
+    public int askedCount() {
+        return bitCount(asked);
+    }
+
+    public int numSymptoms() {
+        return numSymptoms;
+    }
+
+    /** The live yes-bitset; callers must not modify it. */
+    public long[] yesBits() {
+        return yes;
+    }
+
+    /** The live asked-bitset; callers must not modify it. */
+    public long[] askedBits() {
+        return asked;
+    }
+
+    public ConsultationBits copy() {
+        return new ConsultationBits(numSymptoms, yes.clone(), asked.clone());
+    }
+
+    public void clear() {
+        Arrays.fill(yes, 0L);
+        Arrays.fill(asked, 0L);
+    }
+
+    private static int bitCount(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /** Compact hex form {@code yes/asked}, most significant word first, for logs and cache keys. */
+    @Override
+    public String toString() {
+        return toHex(yes) + "/" + toHex(asked);
+    }
+
+    static String toHex(long[] bits) {
+        StringBuilder hex = new StringBuilder(bits.length * 16);
+        for (int w = bits.length - 1; w >= 0; w--) {
+            String word = Long.toHexString(bits[w]);
+            for (int pad = word.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(word);
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ConsultationBits)) {
+            return false;
+        }
+        ConsultationBits that = (ConsultationBits) other;
+        return Arrays.equals(yes, that.yes) && Arrays.equals(asked, that.asked);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(yes) + Arrays.hashCode(asked);
+    }
+}
@@ -0,0 +1,599 @@
+package com.cbot.Cbot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only audit journal of finished consultations: the symptoms asked in
+ * order, the answers as a yes-bitset, the outcome, the predicted disease and
+ * the model version.
+ *
+ * <p>{@link #record} only snapshots the session and offers it to a bounded
+ * lock-free queue, so it never blocks a user's turn; when the queue is full
+ * the record is dropped and counted. A single writer thread drains the
+ * queue, encodes everything waiting into one buffer and writes and forces it
+ * with one {@link FileChannel#write} and one {@link FileChannel#force} - a
+ * group commit, so the more consultations finish at once the fewer syncs
+ * each costs. A crash loses at most the records still queued and the batch
+ * being written.</p>
+ *
+ * <p>Records go to segment files {@code journal-<sequence>.seg} of at most
+ * {@link #DEFAULT_SEGMENT_BYTES} by default; every opening of the journal
+ * starts a new segment. Several processes may journal into one directory: a
+ * segment number another process has taken is skipped, and a segment that
+ * fails to open or write costs the batch in hand, not the journal. Every
+ * record is framed as length, CRC-32 and payload, little-endian. Symptom
+ * indexes refer to a vocabulary record written at the start of a segment and
+ * again whenever the model's vocabulary changes, so each segment can be read
+ * on its own. {@link #replay} stops a segment at the first torn or corrupt
+ * frame, which is where a crash interrupted the writer.</p>
+ */
+public final class ConsultationJournal implements Closeable {
+
+    public static final String DEFAULT_DIRECTORY = "Data/journal";
+    public static final int DEFAULT_CAPACITY = 65_536;
+    public static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+
+    private static final byte[] MAGIC = "HCBJRNL1".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 16;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final byte TYPE_VOCABULARY = 1;
+    private static final byte TYPE_CONSULTATION = 2;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Bounds the batch, and so the records a crash can lose once dequeued
+    private static final int BATCH_BYTES = 1 << 20;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_OPEN_ATTEMPTS = 100;
+
+    /** One journalled consultation, as read back by {@link #replay}. */
+    public static final class Entry {
+        private final long timestampMillis;
+        private final long modelVersion;
+        private final String[] symptomNames;
+        private final int[] askedOrder;
+        private final long[] yesBits;
+        private final ConsultationSession.Outcome outcome;
+        private final String disease;
+        private final double probability;
+
+        Entry(long timestampMillis, long modelVersion, String[] symptomNames, int[] askedOrder, long[] yesBits,
+              ConsultationSession.Outcome outcome, String disease, double probability) {
+            this.timestampMillis = timestampMillis;
+            this.modelVersion = modelVersion;
+            this.symptomNames = symptomNames;
+            this.askedOrder = askedOrder;
+            this.yesBits = yesBits;
+            this.outcome = outcome;
+            this.disease = disease;
+            this.probability = probability;
+        }
+
+        public long timestampMillis() {
+            return timestampMillis;
+        }
+
+        public long modelVersion() {
+            return modelVersion;
+        }
+
+        /** Symptom indexes in the order they were answered, the first symptom first. */
+        public int[] askedOrder() {
+            return askedOrder.clone();
+        }
+
+        public String symptomName(int index) {
+            return symptomNames[index];
+        }
+
+        public boolean isYes(int index) {
+            return (yesBits[index >>> 6] & (1L << index)) != 0;
+        }
+
+        public ConsultationSession.Outcome outcome() {
+            return outcome;
+        }
+
+        /** The predicted disease, or null when nothing was predicted. */
+        public String disease() {
+            return disease;
+        }
+
+        /** Probability of the predicted disease, or 0 when nothing was predicted. */
+        public double probability() {
+            return probability;
+        }
+    }
+
+    // A finished consultation waiting for the writer; the vocabulary is resolved there
+    private static final class Pending {
+        final long timestampMillis;
+        final long modelVersion;
+        final SymptomVocabulary vocabulary;
+        final int[] askedOrder;
+        final long[] yesBits;
+        final ConsultationSession.Outcome outcome;
+        final String disease;
+        final double probability;
+
+        Pending(ConsultationSession session, long timestampMillis) {
+            DiagnosisEngine engine = session.engine();
+            Prediction prediction = session.prediction();
+            this.timestampMillis = timestampMillis;
+            this.modelVersion = engine.version();
+            this.vocabulary = engine.vocabulary();
+            this.askedOrder = session.askedOrder();
+            this.yesBits = session.answers().yesBits();
+            this.outcome = session.outcome();
+            this.disease = (prediction != null) ? prediction.disease().trim() : null;
+            this.probability = (prediction != null) ? prediction.probability() : 0;
+        }
+    }
+
+    private final File directory;
+    private final int capacity;
+    private final long segmentBytes;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final Thread writer;
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
+    // Writer thread only
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private FileChannel channel;
+    private long segmentSequence;
+    private long segmentSize;
+    private SymptomVocabulary segmentVocabulary;
+    private int batchRecords;
+
+    public ConsultationJournal(File directory) throws IOException {
+        this(directory, DEFAULT_CAPACITY, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public ConsultationJournal(File directory, int capacity, long segmentBytes) throws IOException {
+        if (capacity <= 0 || segmentBytes <= SEGMENT_HEADER_BYTES) {
+            throw new IllegalArgumentException("Capacity and segment size must be positive");
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory.toPath());
+        // Never append to an existing segment, whose tail a crash may have torn
+        this.segmentSequence = lastSequence(directory);
+        openNextSegment();
+        this.writer = Threads.daemonFactory("consultation-journal").newThread(this::runWriter);
+        writer.start();
+    }
+
+    /** The journal in {@link #DEFAULT_DIRECTORY}. */
+    public static ConsultationJournal openDefault() throws IOException {
+        return new ConsultationJournal(new File(DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * Queues a finished consultation for writing and returns at once; false
+     * when the journal is closed or the queue is full and the record was
+     * dropped.
+     */
+    public boolean record(ConsultationSession session) {
+        if (closed) {
+            dropped.increment();
+            return false;
+        }
+        Pending pending;
+        synchronized (session) {
+            if (session.state() != ConsultationSession.State.FINISHED) {
+                throw new IllegalStateException("Only finished consultations are journalled");
+            }
+            pending = new Pending(session, System.currentTimeMillis());
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(pending);
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /** Records dropped because the queue was full or the journal closed. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Records written and forced to disk, or about to be. */
+    public long written() {
+        return written.sum();
+    }
+
+    /** Group commits so far; {@link #written()} divided by this is the mean batch size. */
+    public long commits() {
+        return commits.sum();
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    private void runWriter() {
+        while (true) {
+            try {
+                drain();
+                break;
+            } catch (IOException e) {
+                // Journalling must not take the chatbot down; lose this batch and go on in a fresh segment
+                System.err.println("Consultation journal write failed, dropping " + batchRecords + " record(s): " + e);
+                written.add(-batchRecords);
+                dropped.add(batchRecords);
+                batchRecords = 0;
+                batch.clear();
+                closeChannel();
+                if (!reopen()) {
+                    break;
+                }
+            }
+        }
+        closeChannel();
+    }
+
+    // Writes until the journal is closed and everything queued is on disk
+    private void drain() throws IOException {
+        while (true) {
+            Pending pending = queue.poll();
+            if (pending == null) {
+                if (batch.position() > 0) {
+                    commit();
+                    continue;
+                }
+                if (closed) {
+                    return;
+                }
+                writerIdle = true;
+                // Re-check after announcing, so a record offered meanwhile is not left waiting
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+                continue;
+            }
+            queued.decrementAndGet();
+            append(pending);
+            if (batch.position() >= BATCH_BYTES) {
+                commit();
+            }
+        }
+    }
+
+    // Retries a new segment until one opens; false when the journal was closed first
+    private boolean reopen() {
+        while (!closed) {
+            try {
+                openNextSegment();
+                return true;
+            } catch (IOException e) {
+                System.err.println("Unable to open a consultation journal segment, retrying: " + e);
+                LockSupport.parkNanos(this, RETRY_PARK_NANOS);
+            }
+        }
+        // Records still queued can no longer be written
+        for (Pending pending = queue.poll(); pending != null; pending = queue.poll()) {
+            queued.decrementAndGet();
+            dropped.increment();
+        }
+        return false;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close the consultation journal: " + e);
+        }
+        channel = null;
+    }
+
+    private void append(Pending pending) throws IOException {
+        int recordBytes = consultationBytes(pending);
+        if (pending.vocabulary != segmentVocabulary) {
+            recordBytes += vocabularyBytes(pending.vocabulary);
+        }
+        long segmentEnd = segmentSize + batch.position();
+        // A record larger than a whole segment still gets one of its own
+        if (segmentEnd > SEGMENT_HEADER_BYTES && segmentEnd + recordBytes > segmentBytes) {
+            commit();
+            closeChannel();
+            openNextSegment();
+        }
+        if (pending.vocabulary != segmentVocabulary) {
+            writeVocabulary(pending.vocabulary);
+            segmentVocabulary = pending.vocabulary;
+        }
+        writeConsultation(pending);
+        written.increment();
+        batchRecords++;
+    }
+
+    private void commit() throws IOException {
+        batch.flip();
+        int bytes = batch.remaining();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+        segmentSize += bytes;
+        batch.clear();
+        batchRecords = 0;
+        commits.increment();
+    }
+
+    private void openNextSegment() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            segmentSequence++;
+            File file = new File(directory,
+                    String.format("%s%020d%s", SEGMENT_PREFIX, segmentSequence, SEGMENT_SUFFIX));
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Another process journalling here took this number; continue after its latest segment
+                if (attempt == MAX_OPEN_ATTEMPTS) {
+                    throw e;
+                }
+                segmentSequence = Math.max(segmentSequence, lastSequence(directory));
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(0).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentSize = SEGMENT_HEADER_BYTES;
+        segmentVocabulary = null;
+    }
+
+    private static int vocabularyBytes(SymptomVocabulary vocabulary) {
+        int bytes = FRAME_HEADER_BYTES + 1 + 4;
+        for (int i = 0; i < vocabulary.size(); i++) {
+            bytes += 2 + vocabulary.name(i).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private static int consultationBytes(Pending pending) {
+        int diseaseBytes = (pending.disease != null) ? pending.disease.getBytes(StandardCharsets.UTF_8).length : 0;
+        return FRAME_HEADER_BYTES + 1 + 8 + 8 + 1 + 8 + 2 + diseaseBytes + 1 + 2 * pending.askedOrder.length
+                + 1 + 8 * pending.yesBits.length;
+    }
+
+    private void writeVocabulary(SymptomVocabulary vocabulary) {
+        int start = beginFrame(vocabularyBytes(vocabulary));
+        batch.put(TYPE_VOCABULARY).putInt(vocabulary.size());
+        for (int i = 0; i < vocabulary.size(); i++) {
+            putString(vocabulary.name(i));
+        }
+        endFrame(start);
+    }
+
+    private void writeConsultation(Pending pending) {
+        int start = beginFrame(consultationBytes(pending));
+        batch.put(TYPE_CONSULTATION)
+                .putLong(pending.timestampMillis)
+                .putLong(pending.modelVersion)
+                .put((byte) pending.outcome.ordinal())
+                .putDouble(pending.probability);
+        putString(pending.disease != null ? pending.disease : "");
+        batch.put((byte) pending.askedOrder.length);
+        for (int index : pending.askedOrder) {
+            batch.putShort((short) index);
+        }
+        batch.put((byte) pending.yesBits.length);
+        for (long word : pending.yesBits) {
+            batch.putLong(word);
+        }
+        endFrame(start);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        batch.putShort((short) bytes.length).put(bytes);
+    }
+
+    // Reserves the frame header and returns where it starts
+    private int beginFrame(int frameBytes) {
+        if (batch.remaining() < frameBytes) {
+            int size = batch.capacity();
+            while (size - batch.position() < frameBytes) {
+                size *= 2;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            batch.flip();
+            larger.put(batch);
+            batch = larger;
+        }
+        int start = batch.position();
+        batch.position(start + FRAME_HEADER_BYTES);
+        return start;
+    }
+
+    private void endFrame(int start) {
+        int payload = start + FRAME_HEADER_BYTES;
+        int length = batch.position() - payload;
+        crc.reset();
+        crc.update(batch.array(), payload, length);
+        batch.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+    }
+
+    /** Writes everything queued so far, then stops the writer. */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads every segment of the journal in {@code directory} in order and
+     * hands each consultation to {@code consumer}; returns the number of
+     * torn or corrupt segment tails skipped.
+     */
+    public static int replay(File directory, Consumer<Entry> consumer) throws IOException {
+        int skipped = 0;
+        for (File segment : segments(directory)) {
+            if (!replaySegment(segment, consumer)) {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    // False when the segment ends in a torn or corrupt frame
+    private static boolean replaySegment(File segment, Consumer<Entry> consumer) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(segment.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < SEGMENT_HEADER_BYTES) {
+            return in.remaining() == 0;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION) {
+            throw new IOException(segment + " is not a version " + VERSION + " consultation journal segment");
+        }
+        in.getInt();
+        CRC32 crc = new CRC32();
+        String[] names = null;
+        while (in.hasRemaining()) {
+            if (in.remaining() < FRAME_HEADER_BYTES) {
+                return false;
+            }
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                return false;
+            }
+            crc.reset();
+            crc.update(in.array(), in.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                return false;
+            }
+            ByteBuffer payload = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+            payload.limit(length);
+            in.position(in.position() + length);
+            byte type = payload.get();
+            if (type == TYPE_VOCABULARY) {
+                names = new String[payload.getInt()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = getString(payload);
+                }
+            } else if (type == TYPE_CONSULTATION && names != null) {
+                long timestamp = payload.getLong();
+                long modelVersion = payload.getLong();
+                ConsultationSession.Outcome outcome = ConsultationSession.Outcome.values()[payload.get()];
+                double probability = payload.getDouble();
+                String disease = getString(payload);
+                int[] askedOrder = new int[payload.get()];
+                for (int i = 0; i < askedOrder.length; i++) {
+                    askedOrder[i] = payload.getShort();
+                }
+                long[] yesBits = new long[payload.get()];
+                for (int w = 0; w < yesBits.length; w++) {
+                    yesBits[w] = payload.getLong();
+                }
+                consumer.accept(new Entry(timestamp, modelVersion, names, askedOrder, yesBits, outcome,
+                        disease.isEmpty() ? null : disease, probability));
+            }
+        }
+        return true;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<File> segments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX));
+        List<File> segments = new ArrayList<>((files != null) ? Arrays.asList(files) : List.of());
+        segments.sort(Comparator.comparingLong(ConsultationJournal::sequenceOf));
+        return segments;
+    }
+
+    private static long lastSequence(File directory) {
+        List<File> existing = segments(directory);
+        return existing.isEmpty() ? 0 : sequenceOf(existing.get(existing.size() - 1));
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Analytics over a journal: outcomes, questions per consultation and the
+     * most predicted diseases. Usage: {@code ConsultationJournal [directory]}.
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : DEFAULT_DIRECTORY);
+        long[] totals = new long[3]; // consultations, predicted, questions
+        Map<String, Integer> diseases = new HashMap<>();
+        Map<Long, Integer> versions = new HashMap<>();
+        int skipped = replay(directory, entry -> {
+            totals[0]++;
+            totals[2] += entry.askedOrder().length;
+            versions.merge(entry.modelVersion(), 1, Integer::sum);
+            if (entry.disease() != null) {
+                totals[1]++;
+                diseases.merge(entry.disease(), 1, Integer::sum);
+            }
+        });
+        System.out.printf("%d consultations, %d predicted, %d with insufficient symptoms, %.2f answers each%n",
+                totals[0], totals[1], totals[0] - totals[1], totals[0] == 0 ? 0.0 : (double) totals[2] / totals[0]);
+        System.out.println("Model versions: " + versions);
+        diseases.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(10)
+                .forEach(e -> System.out.printf("  %-40s %d%n", e.getKey(), e.getValue()));
+        if (skipped > 0) {
+            System.out.println(skipped + " segment(s) ended in a torn record, as left by a crash");
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.cbot.Cbot;
+
+import java.util.Arrays;
+
+/**
+ * The question/answer flow of one consultation as a state machine with no
+ * I/O: the user names a first symptom, answers up to {@link #MAX_QUESTIONS}
+ * yes/no questions in total, and a prediction is made once at least
+ * {@link #MIN_YES_ANSWERS} answers were yes. Front ends only render the
+ * current state and feed answers back in.
+ *
+ * <p>Instances are safe to call from several threads, one call at a time.</p>
+ */
+public final class ConsultationSession {
+
+    public static final int MAX_QUESTIONS = 8;
+    public static final int MIN_YES_ANSWERS = 3;
+
+    public enum State {
+        AWAITING_SYMPTOM,
+        AWAITING_ANSWER,
+        FINISHED
+    }
+
+    public enum Outcome {
+        PREDICTED,
+        INSUFFICIENT_SYMPTOMS
+    }
+
+    private final DiagnosisEngine engine;
+    private final QuestionStrategy strategy;
+    private final PredictionCache cache;
+    private final ConsultationBits consultation;
+
+    private State state = State.AWAITING_SYMPTOM;
+    private Outcome outcome;
+    private Prediction prediction;
+    private KnowledgeBase.Advice advice;
+    private String firstSymptom;
+    private int currentQuestion = -1;
+    private final int[] askedOrder = new int[MAX_QUESTIONS];
+    private int numAsked;
+
+    public ConsultationSession(DiagnosisEngine engine) {
+        this(engine, engine.questionStrategy());
+    }
+
+    public ConsultationSession(DiagnosisEngine engine, QuestionStrategy strategy) {
+        this(engine, strategy, null);
+    }
+
+    /** A session whose prediction and advice come from {@code cache}, shared with other sessions. */
+    public ConsultationSession(DiagnosisEngine engine, PredictionCache cache) {
+        this(engine, engine.questionStrategy(), cache);
+    }
+
+    public ConsultationSession(DiagnosisEngine engine, QuestionStrategy strategy, PredictionCache cache) {
+        this.engine = engine;
+        this.strategy = strategy;
+        this.cache = cache;
+        this.consultation = engine.vocabulary().newConsultation();
+    }
+
+    /** Starts the consultation with a symptom the user reports having. */
+    public synchronized State start(String symptom) {
+        return start(symptom, true);
+    }
+
+    /** Starts the consultation with the user's answer about a symptom they named. */
+    public synchronized State start(String symptom, boolean present) {
+        if (state != State.AWAITING_SYMPTOM) {
+            throw new IllegalStateException("Consultation already started");
+        }
+        firstSymptom = symptom;
+        Metrics.sessionStarted();
+        int index = engine.vocabulary().indexOf(symptom);
+        if (index < 0) {
+            // An unknown first symptom leaves nothing to follow up on
+            return finish();
+        }
+        recordAnswer(index, present);
+        return advance(index);
+    }
+
+    /** Records the answer to {@link #currentQuestion()} and moves on. */
+    public synchronized State answer(boolean present) {
+        if (state != State.AWAITING_ANSWER) {
+            throw new IllegalStateException("No question is waiting for an answer");
+        }
+        recordAnswer(currentQuestion, present);
+        return advance(currentQuestion);
+    }
+
+    private void recordAnswer(int index, boolean present) {
+        consultation.answer(index, present);
+        askedOrder[numAsked++] = index;
+    }
+
+    private State advance(int previousIndex) {
+        if (consultation.askedCount() >= MAX_QUESTIONS) {
+            return finish();
+        }
+        long start = System.nanoTime();
+        int next = strategy.nextQuestion(consultation, previousIndex);
+        Metrics.Stage.QUESTION_SELECTION.recordSince(start);
+        if (next < 0 || consultation.isAsked(next)) {
+            return finish();
+        }
+        Metrics.questionAsked();
+        currentQuestion = next;
+        state = State.AWAITING_ANSWER;
+        return state;
+    }
+
+    private State finish() {
+        currentQuestion = -1;
+        state = State.FINISHED;
+        if (consultation.yesCount() < MIN_YES_ANSWERS) {
+            prediction = null;
+        } else if (cache != null) {
+            PredictionCache.Entry entry = cache.get(engine, consultation);
+            prediction = (entry != null) ? entry.prediction() : null;
+            advice = (entry != null) ? entry.advice() : null;
+        } else {
+            prediction = engine.predict(consultation);
+        }
+        outcome = (prediction != null) ? Outcome.PREDICTED : Outcome.INSUFFICIENT_SYMPTOMS;
+        if (prediction != null) {
+            Metrics.predicted(prediction.disease());
+        } else {
+            Metrics.insufficientSymptoms();
+        }
+        return state;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** Index of the symptom being asked about, or -1 when no question is pending. */
+    public synchronized int currentQuestion() {
+        return currentQuestion;
+    }
+
+    /** Name of the symptom being asked about, or null when no question is pending. */
+    public synchronized String currentQuestionName() {
+        return (currentQuestion < 0) ? null : engine.vocabulary().name(currentQuestion);
+    }
+
+    /** How the consultation ended, or null while it is still running. */
+    public synchronized Outcome outcome() {
+        return outcome;
+    }
+
+    /** The prediction, or null unless the outcome is {@link Outcome#PREDICTED}. */
+    public synchronized Prediction prediction() {
+        return prediction;
+    }
+
+    /**
+     * Precautions, severity and description of the predicted disease, or null
+     * unless the outcome is {@link Outcome#PREDICTED} and the session has a
+     * cache.
+     */
+    public synchronized KnowledgeBase.Advice advice() {
+        return advice;
+    }
+
+    public synchronized String firstSymptom() {
+        return firstSymptom;
+    }
+
+    /** The symptoms answered so far, the first symptom first, in the order they were asked. */
+    public synchronized int[] askedOrder() {
+        return Arrays.copyOf(askedOrder, numAsked);
+    }
+
+    /** A snapshot of the answers given so far. */
+    public synchronized ConsultationBits answers() {
+        return consultation.copy();
+    }
+
+    public DiagnosisEngine engine() {
+        return engine;
+    }
+}
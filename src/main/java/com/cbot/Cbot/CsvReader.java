@@ -0,0 +1,121 @@
+package com.cbot.Cbot;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal streaming CSV parser. Fields may be wrapped in double quotes
+ * (RFC 4180, with "" as an escaped quote) or in the single quotes Weka's
+ * CSVSaver writes; quoted fields may contain commas and line breaks.
+ */
+public final class CsvReader implements Closeable {
+
+    private final Reader in;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private int pushedBack = -2;
+    private long recordNumber;
+
+    public CsvReader(Reader in) {
+        this.in = (in instanceof BufferedReader) ? in : new BufferedReader(in, 1 << 16);
+    }
+
+    public static CsvReader open(File file) throws IOException {
+        return new CsvReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the next record, or returns null at end of input. Blank lines are
+     * skipped.
+     */
+    public String[] next() throws IOException {
+        fields.clear();
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            c = read();
+        }
+        if (c == -1) {
+            return null;
+        }
+        while (true) {
+            field.setLength(0);
+            if (c == '"' || c == '\'') {
+                c = readQuoted(c);
+            } else {
+                while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    field.append((char) c);
+                    c = read();
+                }
+            }
+            fields.add(field.toString());
+            if (c == ',') {
+                c = read();
+                continue;
+            }
+            if (c == '\r') {
+                int n = read();
+                if (n != '\n') {
+                    unread(n);
+                }
+            }
+            break;
+        }
+        recordNumber++;
+        return fields.toArray(new String[0]);
+    }
+
+    /** Number of records returned so far, including the header. */
+    public long recordNumber() {
+        return recordNumber;
+    }
+
+    private int readQuoted(int quote) throws IOException {
+        int c = read();
+        while (true) {
+            if (c == -1) {
+                return c;
+            }
+            if (c == quote) {
+                int n = read();
+                if (n == quote && quote == '"') {
+                    field.append('"');
+                    c = read();
+                    continue;
+                }
+                // Tolerate stray characters between the closing quote and the separator
+                while (n != ',' && n != '\n' && n != '\r' && n != -1) {
+                    field.append((char) n);
+                    n = read();
+                }
+                return n;
+            }
+            field.append((char) c);
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,247 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Preprocessing for the heavily redundant symptom dataset, where thousands of
+ * rows repeat a few hundred distinct patterns: collapsing duplicates into
+ * weighted unique rows, and splitting by pattern so that no symptom vector
+ * ends up on both sides of a train/test split.
+ */
+public final class DatasetPreprocessor {
+
+    private DatasetPreprocessor() {
+    }
+
+    /** Training and held-out rows of a grouped split. */
+    public static final class Split {
+        private final Instances train;
+        private final Instances test;
+
+        Split(Instances train, Instances test) {
+            this.train = train;
+            this.test = test;
+        }
+
+        public Instances train() {
+            return train;
+        }
+
+        public Instances test() {
+            return test;
+        }
+    }
+
+    /**
+     * Collapses identical rows (symptoms and label) into one row whose weight
+     * is the total weight of the copies, in order of first appearance.
+     *
+     * <p>Training a forest on the result is not equivalent to training on
+     * every copy. The tree learners honour the weights, but bagging draws
+     * {@code bagSizePercent} of {@code numInstances()}, the unique rows, with
+     * probability proportional to weight. Each tree thus sees a bootstrap of a
+     * few hundred draws, leaving out a third of the patterns, where a bag of
+     * every copy draws thousands and misses almost none. The trees are smaller
+     * and more varied, which accounts for part of the drop in training time
+     * and model size. Weka caps the bag at 100% of the rows, so it cannot be
+     * scaled up to the total weight.</p>
+     */
+    public static Instances deduplicate(Instances data) {
+        Map<PatternKey, Instance> unique = new LinkedHashMap<>();
+        for (Instance row : data) {
+            PatternKey key = PatternKey.of(row.toDoubleArray());
+            Instance first = unique.get(key);
+            if (first == null) {
+                Instance copy = (Instance) row.copy();
+                unique.put(key, copy);
+            } else {
+                first.setWeight(first.weight() + row.weight());
+            }
+        }
+        Instances deduplicated = new Instances(data, unique.size());
+        for (Instance row : unique.values()) {
+            deduplicated.add(row);
+        }
+        return deduplicated;
+    }
+
+    /**
+     * Splits rows by a seeded hash of their symptom vector, so rows sharing a
+     * vector land on the same side and a row's side never depends on the
+     * other rows: appending to the dataset leaves every earlier row where it
+     * was. Agrees with {@link StreamingForestTrainer}'s held-out rows.
+     */
+    public static Split hashedSplit(Instances data, double trainRatio, long seed) {
+        SymptomVocabulary vocabulary = new SymptomVocabulary(data);
+        Instances train = new Instances(data, data.numInstances());
+        Instances test = new Instances(data, data.numInstances() / 4);
+        for (Instance row : data) {
+            (heldOut(vocabulary.encode(row), trainRatio, seed) ? test : train).add(row);
+        }
+        return new Split(train, test);
+    }
+
+    /** Whether rows with these symptom bits are held out by {@link #hashedSplit}. */
+    static boolean heldOut(long[] bits, double trainRatio, long seed) {
+        long hash = seed;
+        for (long word : bits) {
+            hash = mix(hash ^ word);
+        }
+        return (hash >>> 11) * 0x1.0p-53 >= trainRatio;
+    }
+
+    // The SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Splits rows so that all rows sharing a symptom vector land on the same
+     * side. Groups are shuffled with {@code seed} and assigned to the training
+     * side until it holds {@code trainRatio} of the rows.
+     */
+    public static Split groupedSplit(Instances data, double trainRatio, long seed) {
+        List<List<Integer>> shuffled = shuffledGroups(data, seed);
+
+        int trainTarget = (int) Math.round(data.numInstances() * trainRatio);
+        boolean[] inTrain = new boolean[data.numInstances()];
+        int trainRows = 0;
+        for (List<Integer> group : shuffled) {
+            if (trainRows >= trainTarget) {
+                break;
+            }
+            for (int row : group) {
+                inTrain[row] = true;
+            }
+            trainRows += group.size();
+        }
+
+        Instances train = new Instances(data, trainRows);
+        Instances test = new Instances(data, data.numInstances() - trainRows);
+        for (int i = 0; i < data.numInstances(); i++) {
+            (inTrain[i] ? train : test).add(data.instance(i));
+        }
+        return new Split(train, test);
+    }
+
+    /**
+     * Assigns every row to one of {@code folds} cross-validation folds, keeping
+     * rows that share a symptom vector in the same fold. Groups are shuffled
+     * with {@code seed} and dealt round-robin.
+     */
+    static int[] groupedFolds(Instances data, int folds, long seed) {
+        List<List<Integer>> shuffled = shuffledGroups(data, seed);
+        int[] fold = new int[data.numInstances()];
+        for (int g = 0; g < shuffled.size(); g++) {
+            for (int row : shuffled.get(g)) {
+                fold[row] = g % folds;
+            }
+        }
+        return fold;
+    }
+
+    // Row indexes grouped by symptom vector, groups in a seeded random order
+    private static List<List<Integer>> shuffledGroups(Instances data, long seed) {
+        Map<PatternKey, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < data.numInstances(); i++) {
+            groups.computeIfAbsent(symptomPattern(data.instance(i)), k -> new ArrayList<>()).add(i);
+        }
+        List<List<Integer>> shuffled = new ArrayList<>(groups.values());
+        Collections.shuffle(shuffled, new Random(seed));
+        return shuffled;
+    }
+
+    /** Number of test rows whose symptom vector also occurs in the training rows. */
+    public static int countLeakedRows(Instances train, Instances test) {
+        Set<PatternKey> seen = new HashSet<>();
+        for (Instance row : train) {
+            seen.add(symptomPattern(row));
+        }
+        int leaked = 0;
+        for (Instance row : test) {
+            if (seen.contains(symptomPattern(row))) {
+                leaked++;
+            }
+        }
+        return leaked;
+    }
+
+    private static PatternKey symptomPattern(Instance row) {
+        double[] values = row.toDoubleArray();
+        if (row.classIndex() >= 0) {
+            values[row.classIndex()] = 0;
+        }
+        return PatternKey.of(values);
+    }
+
+    static long serializedSize(Object model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(model);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Compares today's training path (plain 80/20 cut, every duplicate row)
+     * with the deduplicated, weighted path on the grouped split, reporting
+     * training time, model size, leakage and held-out accuracy.
+     */
+    public static void main(String[] args) throws Exception {
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(args.length > 0 ? args[0] : ModelStore.DATASET_FILE));
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+
+        int cut = (int) (data.numInstances() * ModelStore.TRAIN_RATIO);
+        Instances legacyTrain = new Instances(data, 0, cut);
+        Instances legacyTest = new Instances(data, cut, data.numInstances() - cut);
+
+        Split split = groupedSplit(data, ModelStore.TRAIN_RATIO, ModelStore.SPLIT_SEED);
+        Instances weighted = deduplicate(split.train());
+
+        System.out.println("Rows: " + data.numInstances() + ", unique rows: " + deduplicate(data).numInstances());
+        System.out.println("Plain split: " + legacyTrain.numInstances() + " train / " + legacyTest.numInstances()
+                + " test rows, " + countLeakedRows(legacyTrain, legacyTest) + " test rows also in train");
+        System.out.println("Grouped split: " + split.train().numInstances() + " train / "
+                + split.test().numInstances() + " test rows, "
+                + countLeakedRows(split.train(), split.test()) + " test rows also in train");
+
+        report("Every row, grouped split", split.train(), split.test());
+        report("Deduplicated, grouped split", weighted, split.test());
+    }
+
+    private static void report(String label, Instances train, Instances test) throws Exception {
+        long best = Long.MAX_VALUE;
+        RandomForest forest = null;
+        for (int round = 0; round < 3; round++) {
+            forest = ModelStore.newClassifier();
+            long start = System.nanoTime();
+            forest.buildClassifier(train);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        Evaluation evaluation = new Evaluation(train);
+        evaluation.evaluateModel(forest, test);
+        System.out.printf("%s: %d training rows, build %.0f ms, model %,d bytes, held-out accuracy %.2f%%%n",
+                label, train.numInstances(), best / 1e6, serializedSize(forest), evaluation.pctCorrect());
+    }
+}
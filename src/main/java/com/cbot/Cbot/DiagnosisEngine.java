@@ -0,0 +1,134 @@
+package com.cbot.Cbot;
+
+import weka.core.Attribute;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything needed to answer consultations with one trained model: the
+ * symptom vocabulary and its resolver, the compiled forest and the question
+ * strategy.
+ * Immutable and safe to share between any number of concurrent sessions.
+ */
+public final class DiagnosisEngine {
+
+    private final ModelSnapshot snapshot;
+    private final SymptomVocabulary vocabulary;
+    private final SymptomResolver resolver;
+    private final CompiledForest forest;
+    private final DiseaseProfiles profiles;
+    private final DifferentialIndex differentials;
+    private final QuestionStrategy questionStrategy;
+
+    /** An engine that asks questions in column order. */
+    public DiagnosisEngine(ModelSnapshot snapshot) throws Exception {
+        this(snapshot, null);
+    }
+
+    /**
+     * An engine whose questions are chosen by information gain over the disease
+     * profiles of {@code profileDataset}, or in column order when it is null.
+     * The dataset's patterns also back the differential diagnosis.
+     */
+    public DiagnosisEngine(ModelSnapshot snapshot, File profileDataset) throws Exception {
+        this.snapshot = snapshot;
+        this.vocabulary = new SymptomVocabulary(snapshot.header());
+        this.resolver = SymptomResolver.load(vocabulary);
+        this.forest = CompiledForest.compile(snapshot);
+        if (profileDataset != null) {
+            this.profiles = DiseaseProfiles.fromCsv(profileDataset, vocabulary);
+            this.differentials = DifferentialIndex.fromCsv(profileDataset, vocabulary);
+            this.questionStrategy = new InformationGainStrategy(profiles, forest,
+                    InformationGainStrategy.DEFAULT_CONFIDENCE);
+        } else {
+            this.profiles = null;
+            this.differentials = null;
+            this.questionStrategy = QuestionStrategy.SEQUENTIAL;
+        }
+    }
+
+    /** Loads the stored model (training it first if needed), compiles it and profiles the dataset. */
+    public static DiagnosisEngine load() throws Exception {
+        return new DiagnosisEngine(new ModelStore().loadOrTrain(), new File(ModelStore.DATASET_FILE));
+    }
+
+    public ModelSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Identifies the trained model: the time its snapshot was created, which
+     * survives restarts and grows with every retraining.
+     */
+    public long version() {
+        return snapshot.createdAt();
+    }
+
+    public SymptomVocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    /** Maps free-text symptom input to this model's columns. */
+    public SymptomResolver resolver() {
+        return resolver;
+    }
+
+    public CompiledForest forest() {
+        return forest;
+    }
+
+    /** Disease profiles of the dataset, or null for an engine without them. */
+    public DiseaseProfiles profiles() {
+        return profiles;
+    }
+
+    /** Index of the dataset's symptom patterns, or null for an engine without a profile dataset. */
+    public DifferentialIndex differentials() {
+        return differentials;
+    }
+
+    /**
+     * The {@code k} diseases most compatible with the answers so far, best
+     * first; empty for an engine without a profile dataset.
+     */
+    public List<DifferentialIndex.Candidate> differential(ConsultationBits consultation, int k) {
+        return (differentials == null) ? Collections.emptyList() : differentials.topK(consultation, k);
+    }
+
+    public QuestionStrategy questionStrategy() {
+        return questionStrategy;
+    }
+
+    public String diseaseName(int classIndex) {
+        return classAttribute().value(classIndex);
+    }
+
+    public int numDiseases() {
+        return classAttribute().numValues();
+    }
+
+    private Attribute classAttribute() {
+        return vocabulary.header().classAttribute();
+    }
+
+    /**
+     * Classifies the yes-answers of a consultation, or returns null when the
+     * forest gives no class any probability.
+     */
+    public Prediction predict(ConsultationBits consultation) {
+        long start = System.nanoTime();
+        double[] distribution = forest.distributionForBits(consultation.yesBits());
+        Metrics.Stage.CLASSIFY.recordSince(start);
+        int best = -1;
+        double max = 0;
+        for (int c = 0; c < distribution.length; c++) {
+            if (distribution[c] > max) {
+                max = distribution[c];
+                best = c;
+            }
+        }
+        return (best < 0) ? null : new Prediction(best, diseaseName(best), distribution, version());
+    }
+}
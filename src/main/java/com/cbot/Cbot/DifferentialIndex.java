@@ -0,0 +1,367 @@
+package com.cbot.Cbot;
+
+import weka.core.Attribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Ranks every disease against a partial consultation, for a differential
+ * diagnosis next to the forest's single answer.
+ *
+ * <p>The index keeps each distinct symptom pattern of the dataset as a bitset
+ * labelled with its disease, plus an inverted index: for every symptom, a
+ * bitset of the patterns that contain it. A query ORs the postings of its yes
+ * answers to find the only patterns that can score above zero, then scores
+ * each with popcounts as a Jaccard similarity restricted to what was asked,</p>
+ * <pre>
+ *   |yes &amp; pattern| / (|yes| + |no &amp; pattern|)
+ * </pre>
+ * <p>so a yes the pattern lacks and a pattern symptom the patient denied both
+ * count against it, while symptoms never asked about do not. A disease
+ * scores as its best pattern, ties going to the pattern more rows share.
+ * Disease indexes are the model's class indexes.</p>
+ */
+public final class DifferentialIndex {
+
+    public static final int DEFAULT_TOP_K = 5;
+
+    private final String[] diseases;
+    private final SymptomVocabulary vocabulary;
+    private final int words;
+    private final int numPatterns;
+    private final int patternWords;
+    private final long[] patterns;
+    private final int[] patternDisease;
+    private final int[] patternRows;
+    private final int[] diseaseRows;
+    private final long[] postings;
+
+    // Pooled rather than kept per thread: the chat API runs every request on a fresh virtual thread
+    private final Queue<Scratch> scratchPool = new ConcurrentLinkedQueue<>();
+
+    /** One ranked disease and the pattern it matched best. */
+    public static final class Candidate {
+        private final int disease;
+        private final String name;
+        private final double score;
+        private final double support;
+        private final List<String> matched;
+        private final List<String> unexplained;
+        private final List<String> denied;
+
+        Candidate(int disease, String name, double score, double support, List<String> matched,
+                  List<String> unexplained, List<String> denied) {
+            this.disease = disease;
+            this.name = name;
+            this.score = score;
+            this.support = support;
+            this.matched = matched;
+            this.unexplained = unexplained;
+            this.denied = denied;
+        }
+
+        /** Class index of the disease. */
+        public int disease() {
+            return disease;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /** Restricted Jaccard similarity of the best pattern, in (0, 1]. */
+        public double score() {
+            return score;
+        }
+
+        /** Share of the disease's rows that have the best pattern. */
+        public double support() {
+            return support;
+        }
+
+        /** Yes answers the pattern has. */
+        public List<String> matched() {
+            return matched;
+        }
+
+        /** Yes answers the pattern lacks. */
+        public List<String> unexplained() {
+            return unexplained;
+        }
+
+        /** Pattern symptoms the patient answered no to. */
+        public List<String> denied() {
+            return denied;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name.trim())
+                    .append(String.format(" - %.0f%% match: %s", 100 * score, String.join(", ", matched)));
+            if (!unexplained.isEmpty()) {
+                text.append("; not typical: ").append(String.join(", ", unexplained));
+            }
+            if (!denied.isEmpty()) {
+                text.append("; answered no: ").append(String.join(", ", denied));
+            }
+            return text.toString();
+        }
+    }
+
+    /** Query state of one lookup; {@code bestPattern} is all -1 between lookups. */
+    private static final class Scratch {
+        final long[] candidates;
+        final double[] best;
+        final int[] bestPattern;
+        final int[] touched;
+
+        Scratch(int patternWords, int numDiseases) {
+            this.candidates = new long[patternWords];
+            this.best = new double[numDiseases];
+            this.bestPattern = new int[numDiseases];
+            this.touched = new int[numDiseases];
+            Arrays.fill(bestPattern, -1);
+        }
+    }
+
+    private DifferentialIndex(SymptomVocabulary vocabulary, String[] diseases, List<long[]> patternList,
+                              List<Integer> diseaseList, List<Integer> rowList, int[] diseaseRows) {
+        this.vocabulary = vocabulary;
+        this.diseases = diseases;
+        this.words = vocabulary.words();
+        this.numPatterns = patternList.size();
+        this.patternWords = (numPatterns + 63) >>> 6;
+        this.patterns = new long[numPatterns * words];
+        this.patternDisease = new int[numPatterns];
+        this.patternRows = new int[numPatterns];
+        this.diseaseRows = diseaseRows;
+        this.postings = new long[vocabulary.size() * patternWords];
+        for (int p = 0; p < numPatterns; p++) {
+            long[] bits = patternList.get(p);
+            System.arraycopy(bits, 0, patterns, p * words, words);
+            patternDisease[p] = diseaseList.get(p);
+            patternRows[p] = rowList.get(p);
+            for (int w = 0; w < words; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    int symptom = (w << 6) + Long.numberOfTrailingZeros(word);
+                    postings[symptom * patternWords + (p >>> 6)] |= 1L << p;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams a 0/1 symptom CSV (last column the disease) and indexes its
+     * distinct patterns; diseases are the class values of the vocabulary's
+     * header, and rows with other labels are skipped.
+     */
+    public static DifferentialIndex fromCsv(File file, SymptomVocabulary vocabulary) throws IOException {
+        Attribute classAttribute = vocabulary.header().classAttribute();
+        String[] diseases = new String[classAttribute.numValues()];
+        Map<String, Integer> classIndex = new HashMap<>();
+        for (int c = 0; c < diseases.length; c++) {
+            diseases[c] = classAttribute.value(c);
+            classIndex.put(KnowledgeBase.diseaseKey(diseases[c]), c);
+        }
+        int[] diseaseRows = new int[diseases.length];
+        // Pattern, then disease, to its row count, in order of first appearance
+        Map<PatternKey, int[]> counts = new LinkedHashMap<>();
+        try (CsvReader reader = CsvReader.open(file)) {
+            String[] header = reader.next();
+            if (header != null) {
+                int classColumn = header.length - 1;
+                int[] columns = new int[classColumn];
+                for (int i = 0; i < classColumn; i++) {
+                    columns[i] = vocabulary.indexOf(header[i]);
+                }
+                String[] record;
+                while ((record = reader.next()) != null) {
+                    if (record.length != header.length) {
+                        continue;
+                    }
+                    Integer disease = classIndex.get(KnowledgeBase.diseaseKey(record[classColumn]));
+                    if (disease == null) {
+                        continue;
+                    }
+                    long[] bits = new long[vocabulary.words()];
+                    for (int i = 0; i < classColumn; i++) {
+                        if (columns[i] >= 0 && SymptomVocabulary.isPresentValue(record[i])) {
+                            bits[columns[i] >>> 6] |= 1L << columns[i];
+                        }
+                    }
+                    diseaseRows[disease]++;
+                    counts.computeIfAbsent(new PatternKey(bits, disease), k -> new int[1])[0]++;
+                }
+            }
+        }
+
+        List<long[]> patternList = new ArrayList<>(counts.size());
+        List<Integer> diseaseList = new ArrayList<>(counts.size());
+        List<Integer> rowList = new ArrayList<>(counts.size());
+        for (Map.Entry<PatternKey, int[]> entry : counts.entrySet()) {
+            patternList.add(entry.getKey().bits);
+            diseaseList.add(entry.getKey().label);
+            rowList.add(entry.getValue()[0]);
+        }
+        return new DifferentialIndex(vocabulary, diseases, patternList, diseaseList, rowList, diseaseRows);
+    }
+
+    public int numDiseases() {
+        return diseases.length;
+    }
+
+    /** Distinct (pattern, disease) pairs indexed. */
+    public int numPatterns() {
+        return numPatterns;
+    }
+
+    /** The {@code k} diseases most compatible with the consultation's answers, best first. */
+    public List<Candidate> topK(ConsultationBits consultation, int k) {
+        return topK(consultation.yesBits(), consultation.askedBits(), k);
+    }
+
+    /**
+     * The {@code k} diseases most compatible with the yes answers, penalising
+     * pattern symptoms among the asked ones that were not yes. Empty when
+     * there are no yes answers.
+     */
+    public List<Candidate> topK(long[] yesBits, long[] askedBits, int k) {
+        long start = System.nanoTime();
+        int yes = 0;
+        for (long word : yesBits) {
+            yes += Long.bitCount(word);
+        }
+        if (yes == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+
+        Scratch s = scratchPool.poll();
+        if (s == null) {
+            s = new Scratch(patternWords, diseases.length);
+        }
+        long[] candidates = s.candidates;
+        Arrays.fill(candidates, 0L);
+        for (int w = 0; w < words; w++) {
+            long word = yesBits[w];
+            while (word != 0) {
+                int base = ((w << 6) + Long.numberOfTrailingZeros(word)) * patternWords;
+                for (int i = 0; i < patternWords; i++) {
+                    candidates[i] |= postings[base + i];
+                }
+                word &= word - 1;
+            }
+        }
+
+        int touched = 0;
+        for (int i = 0; i < patternWords; i++) {
+            long word = candidates[i];
+            while (word != 0) {
+                int p = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int base = p * words;
+                int matched = 0;
+                int denied = 0;
+                for (int w = 0; w < words; w++) {
+                    long pattern = patterns[base + w];
+                    matched += Long.bitCount(yesBits[w] & pattern);
+                    denied += Long.bitCount(askedBits[w] & ~yesBits[w] & pattern);
+                }
+                double score = (double) matched / (yes + denied);
+                int disease = patternDisease[p];
+                int previous = s.bestPattern[disease];
+                if (previous < 0) {
+                    s.touched[touched++] = disease;
+                }
+                if (previous < 0 || score > s.best[disease]
+                        || (score == s.best[disease] && patternRows[p] > patternRows[previous])) {
+                    s.best[disease] = score;
+                    s.bestPattern[disease] = p;
+                }
+            }
+        }
+
+        // Partial selection: k is small next to the number of diseases
+        int[] top = new int[Math.min(k, touched)];
+        int size = 0;
+        for (int t = 0; t < touched; t++) {
+            int disease = s.touched[t];
+            int at = size;
+            while (at > 0 && better(s, disease, top[at - 1])) {
+                at--;
+            }
+            if (at < top.length) {
+                int end = Math.min(size, top.length - 1);
+                System.arraycopy(top, at, top, at + 1, end - at);
+                top[at] = disease;
+                size = Math.min(size + 1, top.length);
+            }
+        }
+
+        List<Candidate> ranked = new ArrayList<>(size);
+        for (int r = 0; r < size; r++) {
+            int disease = top[r];
+            ranked.add(candidate(disease, s.best[disease], s.bestPattern[disease], yesBits, askedBits));
+        }
+        for (int t = 0; t < touched; t++) {
+            s.bestPattern[s.touched[t]] = -1;
+        }
+        scratchPool.offer(s);
+        Metrics.Stage.DIFFERENTIAL.recordSince(start);
+        return ranked;
+    }
+
+    private boolean better(Scratch s, int disease, int than) {
+        if (s.best[disease] != s.best[than]) {
+            return s.best[disease] > s.best[than];
+        }
+        int rows = patternRows[s.bestPattern[disease]];
+        int thanRows = patternRows[s.bestPattern[than]];
+        return (rows != thanRows) ? rows > thanRows : disease < than;
+    }
+
+    private Candidate candidate(int disease, double score, int pattern, long[] yesBits, long[] askedBits) {
+        List<String> matched = new ArrayList<>();
+        List<String> unexplained = new ArrayList<>();
+        List<String> denied = new ArrayList<>();
+        int base = pattern * words;
+        for (int w = 0; w < words; w++) {
+            long profile = patterns[base + w];
+            names(yesBits[w] & profile, w, matched);
+            names(yesBits[w] & ~profile, w, unexplained);
+            names(askedBits[w] & ~yesBits[w] & profile, w, denied);
+        }
+        double support = (diseaseRows[disease] == 0) ? 0 : (double) patternRows[pattern] / diseaseRows[disease];
+        return new Candidate(disease, diseases[disease], score, support, matched, unexplained, denied);
+    }
+
+    private void names(long word, int w, List<String> out) {
+        while (word != 0) {
+            out.add(vocabulary.name((w << 6) + Long.numberOfTrailingZeros(word)));
+            word &= word - 1;
+        }
+    }
+
+    /** Numbered lines for a chat reply, or an empty string when there are no candidates. */
+    public static String text(List<Candidate> candidates) {
+        if (candidates.isEmpty()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("Differential diagnosis:\n");
+        for (int i = 0; i < candidates.size(); i++) {
+            text.append("  ").append(i + 1).append(") ").append(candidates.get(i)).append('\n');
+        }
+        return text.toString();
+    }
+}
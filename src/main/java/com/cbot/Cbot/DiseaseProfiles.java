@@ -0,0 +1,211 @@
+package com.cbot.Cbot;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-disease symptom statistics gathered from the labelled dataset: the
+ * union bitset of every symptom seen with the disease, how many rows carry
+ * each symptom, and the smoothed log-probabilities derived from those counts.
+ * Disease indexes are the model's class indexes.
+ */
+public final class DiseaseProfiles {
+
+    // Additive smoothing so an unseen symptom is unlikely but not impossible
+    private static final double SMOOTHING = 0.5;
+
+    private final int numDiseases;
+    private final int numSymptoms;
+    private final int words;
+    private final long[] unions;
+    private final int[] rows;
+    private final int[] counts;
+    private final int totalRows;
+
+    private final double[] logPrior;
+    private final double[] probability;
+    private final double[] logPresent;
+    private final double[] logAbsent;
+
+    private DiseaseProfiles(int numDiseases, int numSymptoms, long[] unions, int[] rows, int[] counts) {
+        this.numDiseases = numDiseases;
+        this.numSymptoms = numSymptoms;
+        this.words = (numSymptoms + 63) >>> 6;
+        this.unions = unions;
+        this.rows = rows;
+        this.counts = counts;
+
+        int total = 0;
+        for (int r : rows) {
+            total += r;
+        }
+        this.totalRows = total;
+
+        this.logPrior = new double[numDiseases];
+        this.probability = new double[numDiseases * numSymptoms];
+        this.logPresent = new double[numDiseases * numSymptoms];
+        this.logAbsent = new double[numDiseases * numSymptoms];
+        for (int d = 0; d < numDiseases; d++) {
+            logPrior[d] = Math.log((rows[d] + SMOOTHING) / (total + SMOOTHING * numDiseases));
+            for (int s = 0; s < numSymptoms; s++) {
+                int cell = d * numSymptoms + s;
+                double p = (counts[cell] + SMOOTHING) / (rows[d] + 2 * SMOOTHING);
+                probability[cell] = p;
+                logPresent[cell] = Math.log(p);
+                logAbsent[cell] = Math.log1p(-p);
+            }
+        }
+    }
+
+    /** Gathers profiles from a dataset whose symptom columns match the vocabulary by name. */
+    public static DiseaseProfiles fromInstances(Instances data, SymptomVocabulary vocabulary) {
+        Accumulator accumulator = new Accumulator(vocabulary);
+        int[] columns = vocabulary.columnsOf(data);
+        Attribute classAttribute = data.classAttribute();
+        for (Instance row : data) {
+            if (row.classIsMissing()) {
+                continue;
+            }
+            accumulator.add(vocabulary.encode(row, columns), classAttribute.value((int) row.classValue()));
+        }
+        return accumulator.build();
+    }
+
+    /** Streams a 0/1 symptom CSV (last column the disease) without building Weka instances. */
+    public static DiseaseProfiles fromCsv(File file, SymptomVocabulary vocabulary) throws IOException {
+        Accumulator accumulator = new Accumulator(vocabulary);
+        try (CsvReader reader = CsvReader.open(file)) {
+            String[] header = reader.next();
+            if (header == null) {
+                return accumulator.build();
+            }
+            int classColumn = header.length - 1;
+            int[] columns = new int[classColumn];
+            for (int i = 0; i < classColumn; i++) {
+                columns[i] = vocabulary.indexOf(header[i]);
+            }
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length != header.length) {
+                    continue;
+                }
+                long[] bits = new long[vocabulary.words()];
+                for (int i = 0; i < classColumn; i++) {
+                    if (columns[i] >= 0 && SymptomVocabulary.isPresentValue(record[i])) {
+                        bits[columns[i] >>> 6] |= 1L << columns[i];
+                    }
+                }
+                accumulator.add(bits, record[classColumn]);
+            }
+        }
+        return accumulator.build();
+    }
+
+    public int numDiseases() {
+        return numDiseases;
+    }
+
+    public int numSymptoms() {
+        return numSymptoms;
+    }
+
+    /** Rows labelled with the disease. */
+    public int rows(int disease) {
+        return rows[disease];
+    }
+
+    public int totalRows() {
+        return totalRows;
+    }
+
+    /** Rows of the disease that have the symptom. */
+    public int count(int disease, int symptom) {
+        return counts[disease * numSymptoms + symptom];
+    }
+
+    /** True when every set bit of {@code yesBits} occurs in the disease's symptom union. */
+    public boolean covers(int disease, long[] yesBits) {
+        int base = disease * words;
+        for (int w = 0; w < words; w++) {
+            if ((yesBits[w] & ~unions[base + w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Copies the disease's symptom union into {@code out}. */
+    public void union(int disease, long[] out) {
+        System.arraycopy(unions, disease * words, out, 0, words);
+    }
+
+    double logPrior(int disease) {
+        return logPrior[disease];
+    }
+
+    /** Smoothed P(symptom | disease). */
+    public double probability(int disease, int symptom) {
+        return probability[disease * numSymptoms + symptom];
+    }
+
+    double logPresent(int disease, int symptom) {
+        return logPresent[disease * numSymptoms + symptom];
+    }
+
+    double logAbsent(int disease, int symptom) {
+        return logAbsent[disease * numSymptoms + symptom];
+    }
+
+    /** Collects rows keyed by disease label and maps labels to class indexes. */
+    private static final class Accumulator {
+
+        private final int numDiseases;
+        private final int numSymptoms;
+        private final int words;
+        private final Map<String, Integer> classIndex = new HashMap<>();
+        private final long[] unions;
+        private final int[] rows;
+        private final int[] counts;
+
+        Accumulator(SymptomVocabulary vocabulary) {
+            Attribute classAttribute = vocabulary.header().classAttribute();
+            this.numDiseases = classAttribute.numValues();
+            this.numSymptoms = vocabulary.size();
+            this.words = vocabulary.words();
+            for (int c = 0; c < numDiseases; c++) {
+                classIndex.put(KnowledgeBase.diseaseKey(classAttribute.value(c)), c);
+            }
+            this.unions = new long[numDiseases * words];
+            this.rows = new int[numDiseases];
+            this.counts = new int[numDiseases * numSymptoms];
+        }
+
+        void add(long[] bits, String label) {
+            Integer disease = classIndex.get(KnowledgeBase.diseaseKey(label));
+            if (disease == null) {
+                // A label the model was never trained on
+                return;
+            }
+            rows[disease]++;
+            for (int w = 0; w < words; w++) {
+                long word = bits[w];
+                unions[disease * words + w] |= word;
+                while (word != 0) {
+                    int symptom = (w << 6) + Long.numberOfTrailingZeros(word);
+                    counts[disease * numSymptoms + symptom]++;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        DiseaseProfiles build() {
+            return new DiseaseProfiles(numDiseases, numSymptoms, unions, rows, counts);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Grid search over RandomForest hyperparameters with grouped k-fold
+ * cross-validation on the training side of the dataset.
+ *
+ * <p>Every (configuration, fold) pair is an independent task on a fork-join
+ * pool; each forest additionally gets {@code slotsPerForest} of Weka's own
+ * execution slots. Rows are deduplicated into weighted patterns first and folds
+ * never split a symptom vector, so accuracies are for patterns the forest has
+ * not seen. Latency is measured on the {@link CompiledForest} that serves
+ * predictions.</p>
+ *
+ * <p>The chosen configuration is the one with the lowest latency among those
+ * whose mean accuracy is within {@link #ACCURACY_TOLERANCE} points of the best.
+ * Its options are written to {@link ModelStore#OPTIONS_FILE}, the model is
+ * retrained through {@link ModelStore} and the report is written to
+ * {@link #REPORT_FILE}.</p>
+ *
+ * <p>Usage: {@code HyperparameterSweep [parallelism [slotsPerForest]]}.</p>
+ */
+public final class HyperparameterSweep {
+
+    public static final String REPORT_FILE = "Data/sweep-report.txt";
+    public static final int FOLDS = 5;
+    /** Accuracy, in percentage points, worth giving up for a faster forest. */
+    public static final double ACCURACY_TOLERANCE = 0.5;
+
+    private static final long FOLD_SEED = 7;
+    private static final int LATENCY_ROUNDS = 20;
+
+    private HyperparameterSweep() {
+    }
+
+    /** One point of the grid. */
+    static final class Config {
+        final int iterations;
+        final int features;
+        final int depth;
+        final int bagPercent;
+
+        Config(int iterations, int features, int depth, int bagPercent) {
+            this.iterations = iterations;
+            this.features = features;
+            this.depth = depth;
+            this.bagPercent = bagPercent;
+        }
+
+        String[] options() {
+            return new String[] {
+                "-I", String.valueOf(iterations),
+                "-K", String.valueOf(features),
+                "-depth", String.valueOf(depth),
+                "-P", String.valueOf(bagPercent)
+            };
+        }
+
+        @Override
+        public String toString() {
+            return Utils.joinOptions(options());
+        }
+    }
+
+    /** Cross-validated results of one configuration. */
+    static final class Score {
+        final Config config;
+        final double[] foldAccuracy;
+        double accuracy;
+        double nanosPerRow;
+        long buildNanos;
+        int nodes;
+
+        Score(Config config, int folds) {
+            this.config = config;
+            this.foldAccuracy = new double[folds];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s accuracy %6.2f%% (min fold %6.2f%%), %6.2f us/row, build %5.0f ms, %6d nodes",
+                    config, accuracy, Arrays.stream(foldAccuracy).min().orElse(0),
+                    nanosPerRow / 1000.0, buildNanos / 1e6, nodes);
+        }
+    }
+
+    /** Result of training and scoring one configuration on one fold. */
+    private static final class FoldResult {
+        final double correctWeight;
+        final double totalWeight;
+        final double nanosPerRow;
+        final long buildNanos;
+        final int nodes;
+
+        FoldResult(double correctWeight, double totalWeight, double nanosPerRow, long buildNanos, int nodes) {
+            this.correctWeight = correctWeight;
+            this.totalWeight = totalWeight;
+            this.nanosPerRow = nanosPerRow;
+            this.buildNanos = buildNanos;
+            this.nodes = nodes;
+        }
+    }
+
+    static List<Config> grid() {
+        List<Config> grid = new ArrayList<>();
+        for (int iterations : new int[] {25, 50, 100}) {
+            // 0 is Weka's default of log2(attributes) + 1
+            for (int features : new int[] {0, 16, 40}) {
+                for (int depth : new int[] {0, 10}) {
+                    for (int bagPercent : new int[] {50, 100}) {
+                        grid.add(new Config(iterations, features, depth, bagPercent));
+                    }
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Cross-validates every configuration on {@code data}, which should already
+     * be deduplicated, and returns the scores in grid order.
+     */
+    static Score[] sweep(Instances data, List<Config> grid, int folds, ForkJoinPool pool, int slotsPerForest)
+            throws Exception {
+        SymptomVocabulary vocabulary = new SymptomVocabulary(new Instances(data, 0));
+        int[] foldOf = DatasetPreprocessor.groupedFolds(data, folds, FOLD_SEED);
+        Instances[] trainFolds = new Instances[folds];
+        Instances[] testFolds = new Instances[folds];
+        for (int f = 0; f < folds; f++) {
+            trainFolds[f] = new Instances(data, data.numInstances());
+            testFolds[f] = new Instances(data, data.numInstances() / folds + 1);
+        }
+        for (int i = 0; i < data.numInstances(); i++) {
+            for (int f = 0; f < folds; f++) {
+                (foldOf[i] == f ? testFolds[f] : trainFolds[f]).add(data.instance(i));
+            }
+        }
+
+        List<Callable<FoldResult>> tasks = new ArrayList<>();
+        for (Config config : grid) {
+            for (int f = 0; f < folds; f++) {
+                Instances train = trainFolds[f];
+                Instances test = testFolds[f];
+                tasks.add(() -> evaluate(config, train, test, vocabulary, slotsPerForest));
+            }
+        }
+        List<Future<FoldResult>> results = pool.invokeAll(tasks);
+
+        Score[] scores = new Score[grid.size()];
+        for (int c = 0; c < grid.size(); c++) {
+            Score score = new Score(grid.get(c), folds);
+            double correct = 0;
+            double total = 0;
+            for (int f = 0; f < folds; f++) {
+                FoldResult result = results.get(c * folds + f).get();
+                score.foldAccuracy[f] = 100.0 * result.correctWeight / result.totalWeight;
+                correct += result.correctWeight;
+                total += result.totalWeight;
+                score.nanosPerRow += result.nanosPerRow / folds;
+                score.buildNanos += result.buildNanos / folds;
+                score.nodes += result.nodes / folds;
+            }
+            score.accuracy = 100.0 * correct / total;
+            scores[c] = score;
+        }
+        return scores;
+    }
+
+    private static FoldResult evaluate(Config config, Instances train, Instances test, SymptomVocabulary vocabulary,
+                                       int slotsPerForest) throws Exception {
+        RandomForest forest = ModelStore.newClassifier(config.options());
+        forest.setNumExecutionSlots(slotsPerForest);
+        long start = System.nanoTime();
+        forest.buildClassifier(train);
+        long buildNanos = System.nanoTime() - start;
+
+        CompiledForest compiled = CompiledForest.compile(forest, new Instances(train, 0));
+        int[] columns = vocabulary.columnsOf(test);
+        long[][] rows = new long[test.numInstances()][];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = vocabulary.encode(test.instance(r), columns);
+        }
+
+        double correct = 0;
+        double total = 0;
+        for (int r = 0; r < rows.length; r++) {
+            Instance row = test.instance(r);
+            if (compiled.classify(rows[r]) == (int) row.classValue()) {
+                correct += row.weight();
+            }
+            total += row.weight();
+        }
+
+        // Best of several rounds, as other tasks compete for the same cores
+        long best = Long.MAX_VALUE;
+        double[] scratch = new double[compiled.numClasses()];
+        for (int round = 0; round < LATENCY_ROUNDS; round++) {
+            start = System.nanoTime();
+            for (long[] bits : rows) {
+                compiled.classify(bits, scratch);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new FoldResult(correct, total, (double) best / Math.max(1, rows.length), buildNanos,
+                compiled.numNodes());
+    }
+
+    /** The fastest configuration within {@code tolerance} points of the most accurate one. */
+    static Score choose(Score[] scores, double tolerance) {
+        double bestAccuracy = Arrays.stream(scores).mapToDouble(s -> s.accuracy).max().orElse(0);
+        return Arrays.stream(scores)
+                .filter(s -> s.accuracy >= bestAccuracy - tolerance)
+                .min(Comparator.comparingDouble((Score s) -> s.nanosPerRow).thenComparing(s -> -s.accuracy))
+                .orElseThrow(() -> new IllegalArgumentException("No configurations"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        int slotsPerForest = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(ModelStore.DATASET_FILE));
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        // Only the training side is cross-validated; the held-out side stays untouched
+        Instances train = DatasetPreprocessor.deduplicate(
+                DatasetPreprocessor.hashedSplit(data, ModelStore.TRAIN_RATIO, ModelStore.SPLIT_SEED).train());
+
+        List<Config> grid = grid();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Score[] scores;
+        long start = System.nanoTime();
+        try {
+            scores = sweep(train, grid, FOLDS, pool, slotsPerForest);
+        } finally {
+            pool.shutdown();
+        }
+        long wallNanos = System.nanoTime() - start;
+        long buildNanos = 0;
+        for (Score score : scores) {
+            buildNanos += score.buildNanos * FOLDS;
+        }
+        Score chosen = choose(scores, ACCURACY_TOLERANCE);
+
+        // Retrain through the store so the served snapshot matches the chosen options
+        Files.write(new File(ModelStore.OPTIONS_FILE).toPath(),
+                (chosen.config + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        ModelStore store = new ModelStore();
+        ModelSnapshot snapshot = store.loadOrTrain();
+        double heldOut = heldOutAccuracy(snapshot);
+
+        StringWriter report = new StringWriter();
+        try (PrintWriter out = new PrintWriter(report)) {
+            out.printf("Grid of %d configurations x %d grouped folds on %d unique training rows%n",
+                    grid.size(), FOLDS, train.numInstances());
+            out.printf("Parallelism %d of %d cores, %d Weka slot(s) per forest%n", parallelism, cores, slotsPerForest);
+            out.printf("Wall time %.1f s, summed build time %.1f s%n", wallNanos / 1e9, buildNanos / 1e9);
+            out.println();
+            Score[] sorted = scores.clone();
+            Arrays.sort(sorted, Comparator.comparingDouble((Score s) -> -s.accuracy)
+                    .thenComparingDouble(s -> s.nanosPerRow));
+            for (Score score : sorted) {
+                out.println((score == chosen ? "* " : "  ") + score);
+            }
+            out.println();
+            out.println("Chosen: " + chosen.config + " (fastest within " + ACCURACY_TOLERANCE
+                    + " points of the best accuracy)");
+            out.printf("Held-out accuracy on %s: %.2f%%%n", ModelStore.TEST_FILE, heldOut);
+        }
+        write(report.toString());
+        System.out.print(report);
+    }
+
+    private static double heldOutAccuracy(ModelSnapshot snapshot) throws Exception {
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(ModelStore.TEST_FILE));
+        Instances test = loader.getDataSet();
+        test.setClassIndex(test.numAttributes() - 1);
+        SymptomVocabulary vocabulary = new SymptomVocabulary(snapshot.header());
+        CompiledForest compiled = CompiledForest.compile(snapshot);
+        int[] columns = vocabulary.columnsOf(test);
+        int correct = 0;
+        for (Instance row : test) {
+            int predicted = compiled.classify(vocabulary.encode(row, columns));
+            String label = test.classAttribute().value((int) row.classValue());
+            if (predicted >= 0 && KnowledgeBase.diseaseKey(label).equals(
+                    KnowledgeBase.diseaseKey(snapshot.header().classAttribute().value(predicted)))) {
+                correct++;
+            }
+        }
+        return 100.0 * correct / Math.max(1, test.numInstances());
+    }
+
+    private static void write(String report) throws IOException {
+        Files.write(new File(REPORT_FILE).toPath(), report.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,159 @@
+package com.cbot.Cbot;
+
+/**
+ * Asks about the symptom whose answer is expected to shrink the uncertainty
+ * about the disease the most.
+ *
+ * <p>The candidate diseases are those whose symptom union covers every yes
+ * answer so far. Each candidate is weighted by its prior times the smoothed
+ * likelihood of all answers given, and every unasked symptom that some
+ * candidate has is scored by the expected entropy of the candidate
+ * distribution after hearing its answer. All logarithms come precomputed from
+ * {@link DiseaseProfiles}, so a call is a few thousand multiply-adds.</p>
+ *
+ * <p>Once the forest is at least {@code confidence} sure and the minimum
+ * number of yes answers is reached, no further question is asked.</p>
+ */
+public final class InformationGainStrategy implements QuestionStrategy {
+
+    public static final double DEFAULT_CONFIDENCE = 0.8;
+
+    // Gains below this (in nats, scaled by the total weight) are treated as no information
+    private static final double MIN_GAIN = 1e-9;
+
+    private final DiseaseProfiles profiles;
+    private final CompiledForest forest;
+    private final double confidence;
+
+    /**
+     * @param forest the forest whose posterior stops the questioning early, or
+     *               null to always use the whole question budget
+     */
+    public InformationGainStrategy(DiseaseProfiles profiles, CompiledForest forest, double confidence) {
+        this.profiles = profiles;
+        this.forest = forest;
+        this.confidence = confidence;
+    }
+
+    @Override
+    public int nextQuestion(ConsultationBits consultation, int previousIndex) {
+        long[] yes = consultation.yesBits();
+        long[] asked = consultation.askedBits();
+        boolean enoughYes = consultation.yesCount() >= ConsultationSession.MIN_YES_ANSWERS;
+        if (enoughYes && isConfident(yes)) {
+            return -1;
+        }
+
+        int numDiseases = profiles.numDiseases();
+        int[] candidates = new int[numDiseases];
+        int numCandidates = 0;
+        for (int d = 0; d < numDiseases; d++) {
+            if (profiles.rows(d) > 0 && profiles.covers(d, yes)) {
+                candidates[numCandidates++] = d;
+            }
+        }
+        if (numCandidates == 0) {
+            // The answers contradict every profile; fall back to pure likelihood
+            for (int d = 0; d < numDiseases; d++) {
+                if (profiles.rows(d) > 0) {
+                    candidates[numCandidates++] = d;
+                }
+            }
+        }
+
+        // Log-weight of each candidate given every answer so far
+        double[] logWeight = new double[numCandidates];
+        double maxLogWeight = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numCandidates; i++) {
+            int d = candidates[i];
+            double lw = profiles.logPrior(d);
+            for (int w = 0; w < asked.length; w++) {
+                long word = asked[w];
+                while (word != 0) {
+                    int s = (w << 6) + Long.numberOfTrailingZeros(word);
+                    lw += ((yes[w] & (1L << s)) != 0) ? profiles.logPresent(d, s) : profiles.logAbsent(d, s);
+                    word &= word - 1;
+                }
+            }
+            logWeight[i] = lw;
+            maxLogWeight = Math.max(maxLogWeight, lw);
+        }
+        double[] weight = new double[numCandidates];
+        double total = 0;
+        double weightedLog = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            logWeight[i] -= maxLogWeight;
+            weight[i] = Math.exp(logWeight[i]);
+            total += weight[i];
+            weightedLog += weight[i] * logWeight[i];
+        }
+        // total * H(candidates), with H computed from unnormalized weights
+        double currentEntropy = total * Math.log(total) - weightedLog;
+
+        // Only symptoms some candidate has can carry information
+        long[] reachable = new long[asked.length];
+        long[] union = new long[asked.length];
+        for (int i = 0; i < numCandidates; i++) {
+            profiles.union(candidates[i], union);
+            for (int w = 0; w < union.length; w++) {
+                reachable[w] |= union[w];
+            }
+        }
+
+        int best = -1;
+        double bestExpected = Double.POSITIVE_INFINITY;
+        int likeliest = -1;
+        double likeliestYes = -1;
+        for (int w = 0; w < reachable.length; w++) {
+            long word = reachable[w] & ~asked[w];
+            while (word != 0) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+
+                double yesMass = 0;
+                double yesLog = 0;
+                double noLog = 0;
+                for (int i = 0; i < numCandidates; i++) {
+                    int d = candidates[i];
+                    double wy = weight[i] * profiles.probability(d, s);
+                    double wn = weight[i] - wy;
+                    yesMass += wy;
+                    yesLog += wy * (logWeight[i] + profiles.logPresent(d, s));
+                    noLog += wn * (logWeight[i] + profiles.logAbsent(d, s));
+                }
+                double noMass = total - yesMass;
+                // total * E[H(candidates | answer)]
+                double expected = ((yesMass > 0) ? yesMass * Math.log(yesMass) - yesLog : 0)
+                        + ((noMass > 0) ? noMass * Math.log(noMass) - noLog : 0);
+                if (expected < bestExpected) {
+                    bestExpected = expected;
+                    best = s;
+                }
+                if (yesMass > likeliestYes) {
+                    likeliestYes = yesMass;
+                    likeliest = s;
+                }
+            }
+        }
+
+        if (best >= 0 && currentEntropy - bestExpected > MIN_GAIN * total) {
+            return best;
+        }
+        // Nothing left to discriminate: confirm the likeliest symptom, which also
+        // gives the forest more evidence until it is confident
+        return likeliest;
+    }
+
+    private boolean isConfident(long[] yes) {
+        if (forest == null) {
+            return false;
+        }
+        double[] distribution = forest.distributionForBits(yes);
+        for (double p : distribution) {
+            if (p >= confidence) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,287 @@
+package com.cbot.Cbot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, preloaded view of the MasterData files: precautions, descriptions
+ * and symptom severity weights, indexed by normalized disease or symptom name.
+ * Disease severity is the rounded mean weight of the symptoms the dataset
+ * records for that disease, so lookups on the answer path do no file I/O.
+ */
+public final class KnowledgeBase {
+
+    public static final String PRECAUTIONS_FILE = "MasterData/symptom_precaution.csv";
+    public static final String SEVERITY_FILE = "MasterData/Symptom_severity.csv";
+    public static final String DESCRIPTION_FILE = "MasterData/symptom_Description.csv";
+
+    // Severity above this level means the user should see a doctor
+    public static final int HIGH_SEVERITY = 3;
+
+    // MasterData spells a few diseases differently from the dataset's class labels
+    private static final Map<String, String> DISEASE_ALIASES = Map.of(
+            "dimorphic hemorrhoids(piles)", "dimorphic hemmorhoids(piles)");
+
+    /**
+     * Everything shown with a prediction: the precautions, the severity and
+     * the description of one disease, with the text the front ends print
+     * rendered once.
+     */
+    public static final class Advice {
+
+        private final String disease;
+        private final List<String> precautions;
+        private final int severity;
+        private final String description;
+        private final String text;
+
+        Advice(String disease, List<String> precautions, int severity, String description) {
+            this.disease = disease;
+            this.precautions = precautions;
+            this.severity = severity;
+            this.description = description;
+
+            StringBuilder text = new StringBuilder(256);
+            text.append("Precautions:\n");
+            for (String precaution : precautions) {
+                text.append("- ").append(precaution).append("\n");
+            }
+            text.append("Severity:\n");
+            if (isHighSeverity()) {
+                text.append("- Severity level is high. You should take consultation from a doctor.\n");
+            } else {
+                text.append("- Severity level is moderate. It might not be that bad,")
+                        .append(" but you should take precautions.\n");
+            }
+            if (description != null) {
+                text.append("Description:\n- ").append(description).append("\n");
+            }
+            this.text = text.toString();
+        }
+
+        public String disease() {
+            return disease;
+        }
+
+        public List<String> precautions() {
+            return precautions;
+        }
+
+        /** The aggregate severity, or -1 when the disease is unknown. */
+        public int severity() {
+            return severity;
+        }
+
+        public boolean isHighSeverity() {
+            return severity > HIGH_SEVERITY;
+        }
+
+        /** The description, or null when the disease is unknown. */
+        public String description() {
+            return description;
+        }
+
+        /** Precautions, severity and description as lines of text, each ending in a newline. */
+        public String text() {
+            return text;
+        }
+    }
+
+    private final Map<String, List<String>> precautions;
+    private final Map<String, String> descriptions;
+    private final Map<String, Integer> symptomWeights;
+    private final Map<String, Set<String>> diseaseSymptoms;
+    private final Map<String, Integer> diseaseSeverity;
+
+    private KnowledgeBase(Map<String, List<String>> precautions, Map<String, String> descriptions,
+                          Map<String, Integer> symptomWeights, Map<String, Set<String>> diseaseSymptoms) {
+        this.precautions = precautions;
+        this.descriptions = descriptions;
+        this.symptomWeights = symptomWeights;
+        this.diseaseSymptoms = diseaseSymptoms;
+
+        Map<String, Integer> severity = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : diseaseSymptoms.entrySet()) {
+            int total = 0;
+            int counted = 0;
+            for (String symptom : entry.getValue()) {
+                Integer weight = symptomWeights.get(symptomKey(symptom));
+                if (weight != null) {
+                    total += weight;
+                    counted++;
+                }
+            }
+            if (counted > 0) {
+                severity.put(entry.getKey(), Math.round((float) total / counted));
+            }
+        }
+        this.diseaseSeverity = severity;
+    }
+
+    /** Shared instance built from the default MasterData and dataset files on first use. */
+    public static KnowledgeBase getDefault() throws IOException {
+        try {
+            return DefaultHolder.INSTANCE;
+        } catch (ExceptionInInitializerError e) {
+            throw new IOException("Unable to load the knowledge base", e.getCause());
+        }
+    }
+
+    private static final class DefaultHolder {
+        static final KnowledgeBase INSTANCE;
+
+        static {
+            try {
+                INSTANCE = load(new File(PRECAUTIONS_FILE), new File(DESCRIPTION_FILE),
+                        new File(SEVERITY_FILE), new File(ModelStore.DATASET_FILE));
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    public static KnowledgeBase load(File precautionsFile, File descriptionFile, File severityFile,
+                                     File datasetFile) throws IOException {
+        long start = System.nanoTime();
+        Map<String, List<String>> precautions = new HashMap<>();
+        try (CsvReader reader = CsvReader.open(precautionsFile)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length < 2) {
+                    continue;
+                }
+                List<String> items = new ArrayList<>();
+                for (int i = 1; i < record.length; i++) {
+                    String precaution = record[i].trim();
+                    if (!precaution.isEmpty()) {
+                        items.add(precaution);
+                    }
+                }
+                precautions.putIfAbsent(diseaseKey(record[0]), Collections.unmodifiableList(items));
+            }
+        }
+
+        Map<String, String> descriptions = new HashMap<>();
+        try (CsvReader reader = CsvReader.open(descriptionFile)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length >= 2) {
+                    descriptions.putIfAbsent(diseaseKey(record[0]), record[1].trim());
+                }
+            }
+        }
+
+        Map<String, Integer> symptomWeights = new HashMap<>();
+        try (CsvReader reader = CsvReader.open(severityFile)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length < 2) {
+                    continue;
+                }
+                try {
+                    symptomWeights.putIfAbsent(symptomKey(record[0]), Integer.parseInt(record[1].trim()));
+                } catch (NumberFormatException e) {
+                    // Header or malformed row
+                }
+            }
+        }
+
+        KnowledgeBase knowledgeBase = new KnowledgeBase(precautions, descriptions, symptomWeights,
+                readDiseaseSymptoms(datasetFile));
+        Metrics.Stage.KNOWLEDGE_BASE_LOAD.recordSince(start);
+        return knowledgeBase;
+    }
+
+    // Collects, for every class label, the symptoms marked 1 in any of its rows
+    private static Map<String, Set<String>> readDiseaseSymptoms(File datasetFile) throws IOException {
+        Map<String, Set<String>> diseaseSymptoms = new HashMap<>();
+        try (CsvReader reader = CsvReader.open(datasetFile)) {
+            String[] header = reader.next();
+            if (header == null) {
+                return diseaseSymptoms;
+            }
+            int classIndex = header.length - 1;
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length != header.length) {
+                    continue;
+                }
+                Set<String> symptoms = diseaseSymptoms.computeIfAbsent(diseaseKey(record[classIndex]),
+                        k -> new LinkedHashSet<>());
+                for (int i = 0; i < classIndex; i++) {
+                    if (SymptomVocabulary.isPresentValue(record[i])) {
+                        symptoms.add(header[i].trim());
+                    }
+                }
+            }
+        }
+        Map<String, Set<String>> frozen = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : diseaseSymptoms.entrySet()) {
+            frozen.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        }
+        return frozen;
+    }
+
+    public List<String> precautions(String disease) {
+        long start = System.nanoTime();
+        List<String> items = precautions.getOrDefault(diseaseKey(disease), Collections.emptyList());
+        Metrics.Stage.KNOWLEDGE_LOOKUP.recordSince(start);
+        return items;
+    }
+
+    /** Returns the description, or null when the disease is unknown. */
+    public String description(String disease) {
+        long start = System.nanoTime();
+        String description = descriptions.get(diseaseKey(disease));
+        Metrics.Stage.KNOWLEDGE_LOOKUP.recordSince(start);
+        return description;
+    }
+
+    /** Returns the aggregate severity of the disease, or -1 when it is unknown. */
+    public int severity(String disease) {
+        long start = System.nanoTime();
+        int severity = diseaseSeverity.getOrDefault(diseaseKey(disease), -1);
+        Metrics.Stage.KNOWLEDGE_LOOKUP.recordSince(start);
+        return severity;
+    }
+
+    public boolean isHighSeverity(String disease) {
+        return severity(disease) > HIGH_SEVERITY;
+    }
+
+    /** Precautions, severity and description of the disease in one lookup. */
+    public Advice advice(String disease) {
+        long start = System.nanoTime();
+        String key = diseaseKey(disease);
+        Advice advice = new Advice(disease, precautions.getOrDefault(key, Collections.emptyList()),
+                diseaseSeverity.getOrDefault(key, -1), descriptions.get(key));
+        Metrics.Stage.KNOWLEDGE_LOOKUP.recordSince(start);
+        return advice;
+    }
+
+    /** Returns the severity weight of a single symptom, or -1 when it is unknown. */
+    public int symptomWeight(String symptom) {
+        return symptomWeights.getOrDefault(symptomKey(symptom), -1);
+    }
+
+    public Set<String> symptomsOf(String disease) {
+        return diseaseSymptoms.getOrDefault(diseaseKey(disease), Collections.emptySet());
+    }
+
+    static String diseaseKey(String disease) {
+        String key = disease.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return DISEASE_ALIASES.getOrDefault(key, key);
+    }
+
+    static String symptomKey(String symptom) {
+        return symptom.replaceAll("[\\s'\"]", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,117 @@
+package com.cbot.Cbot;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, bucketed the way
+ * HdrHistogram does: exact below 128 ns, then 64 linear sub-buckets per
+ * power of two, so every recorded value is known to within 1.6% over the
+ * whole range of a long. Recording is one atomic increment of a bucket plus
+ * two striped adders and never allocates; readers see a consistent enough
+ * view without stopping writers. Counts are cumulative since start-up.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below this are their own bucket
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+    private static final int NUM_BUCKETS = EXACT_LIMIT + (64 - SUB_BUCKET_BITS - 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Records one duration; negative values count as zero. */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.getAndIncrement(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public double meanNanos() {
+        long n = count();
+        return (n == 0) ? 0 : (double) sumNanos() / n;
+    }
+
+    /**
+     * The value below which the fraction {@code quantile} of the recorded
+     * values fall, to within the bucket resolution; 0 when nothing was
+     * recorded.
+     */
+    public long percentileNanos(double quantile) {
+        return percentilesNanos(quantile)[0];
+    }
+
+    /**
+     * {@link #percentileNanos} for several ascending quantiles in one pass
+     * over the buckets, without copying them.
+     */
+    public long[] percentilesNanos(double... quantiles) {
+        long[] values = new long[quantiles.length];
+        long total = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            total += buckets.get(b);
+        }
+        if (total == 0) {
+            return values;
+        }
+        long maxNanos = maxNanos();
+        Arrays.fill(values, maxNanos);
+        int q = 0;
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS && q < quantiles.length; b++) {
+            seen += buckets.get(b);
+            // Writers may have added values since the total was taken; those only push ranks up
+            while (q < quantiles.length && seen >= rank(quantiles[q], total)) {
+                values[q++] = Math.min(highestEquivalent(b), maxNanos);
+            }
+        }
+        return values;
+    }
+
+    private static long rank(double quantile, long total) {
+        return Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * total));
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // value >>> shift lies in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestEquivalent(int bucket) {
+        if (bucket < EXACT_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket - EXACT_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (bucket - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
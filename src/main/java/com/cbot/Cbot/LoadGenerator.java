@@ -0,0 +1,560 @@
+package com.cbot.Cbot;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load test: replays scripted consultations derived from labelled
+ * rows at a fixed, open-loop arrival rate and reports how latency holds up.
+ * Each script names one of its row's symptoms first and then answers every
+ * question from the row, the way a patient with that row's symptoms would.
+ *
+ * <p>Arrivals follow the schedule whether or not earlier consultations have
+ * finished, each on its own client thread (virtual threads on JDK 21+), so
+ * a slow server shows up as growing latency rather than a lower request
+ * rate. A consultation's latency is measured from its scheduled arrival;
+ * its first turn is too, so time spent waiting for a client thread counts.
+ * GC pauses are collected from the collectors' notifications for the
+ * measured run.</p>
+ *
+ * <p>By default consultations run in process through the same calls as
+ * {@link Hcb}: the resolver, a {@link ConsultationSession} on the current
+ * model with a shared {@link PredictionCache}, and the rendered advice; the
+ * journal is left out so a load test leaves no consultations behind.
+ * {@code --url} drives a running {@link ChatServer} instead, and
+ * {@code --http} starts one on a free local port first. In process,
+ * {@code --reports} also queues a {@link ReportService} PDF for every
+ * finished consultation, rendered and discarded, to show what report
+ * rendering costs the answers.</p>
+ *
+ * <p>Usage: {@code LoadGenerator [--rate perSecond] [--duration seconds]
+ * [--warmup seconds] [--think ms] [--poisson] [--max-in-flight n]
+ * [--rows rows.csv] [--url http://host:port | --http] [--reports]}</p>
+ */
+public final class LoadGenerator {
+
+    static final double DEFAULT_RATE = 500;
+    static final int DEFAULT_DURATION_SECONDS = 30;
+    static final int DEFAULT_WARMUP_SECONDS = 5;
+    static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /** One scripted patient: the symptoms of a labelled row. */
+    static final class Script {
+        final String[] present;
+        final Set<String> presentKeys;
+
+        Script(String[] present) {
+            this.present = present;
+            this.presentKeys = new HashSet<>();
+            for (String symptom : present) {
+                presentKeys.add(SymptomVocabulary.normalize(symptom));
+            }
+        }
+
+        /** The symptom named first on the {@code pass}-th replay, as a user would type it. */
+        String firstSymptom(int pass) {
+            return present[pass % present.length].trim().replace('_', ' ');
+        }
+
+        boolean answer(String question) {
+            return presentKeys.contains(SymptomVocabulary.normalize(question));
+        }
+    }
+
+    /** One consultation as the client sees it; each call is one timed turn. */
+    interface Conversation {
+        /** Names the first symptom; returns the bot's question, or null when it has answered. */
+        String start(String symptom) throws IOException;
+
+        /** Answers the pending question; returns the next question, or null when it has answered. */
+        String answer(boolean present) throws IOException;
+
+        /** Releases the consultation; not timed. */
+        void end() throws IOException;
+    }
+
+    /** Opens conversations with one kind of server. */
+    interface Driver extends Closeable {
+        Conversation open();
+
+        String describe();
+    }
+
+    /** Everything measured over one run. */
+    static final class Stats {
+        final LatencyHistogram turns = new LatencyHistogram();
+        final LatencyHistogram consultations = new LatencyHistogram();
+        final LongAdder started = new LongAdder();
+        final LongAdder finished = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder shed = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+        volatile String firstError;
+    }
+
+    private final Driver driver;
+    private final List<Script> scripts;
+    private final long thinkNanos;
+    private final int maxInFlight;
+    private final ExecutorService clients = Threads.newPerTaskExecutor("load-client");
+
+    LoadGenerator(Driver driver, List<Script> scripts, long thinkMillis, int maxInFlight) {
+        if (scripts.isEmpty()) {
+            throw new IllegalArgumentException("No scripts: the rows have no symptoms");
+        }
+        this.driver = driver;
+        this.scripts = scripts;
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Schedules {@code rate} consultations per second for {@code seconds},
+     * evenly spaced or with exponential gaps when {@code poisson}, and waits
+     * for the last of them to finish.
+     */
+    Stats run(double rate, int seconds, boolean poisson, long seed) throws InterruptedException {
+        Stats stats = new Stats();
+        Random random = new Random(seed);
+        double meanGapNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        double offset = 0;
+        for (long arrival = 0; ; arrival++) {
+            long intended = start + (long) offset;
+            if (intended - end >= 0) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            offset += poisson ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+
+            if (stats.inFlight.get() >= maxInFlight) {
+                stats.shed.increment();
+                continue;
+            }
+            Script script = scripts.get((int) (arrival % scripts.size()));
+            int pass = (int) (arrival / scripts.size());
+            stats.started.increment();
+            stats.peakInFlight.accumulate(stats.inFlight.incrementAndGet());
+            clients.execute(() -> consult(script, pass, intended, stats));
+        }
+        while (stats.inFlight.get() > 0) {
+            Thread.sleep(10);
+        }
+        return stats;
+    }
+
+    private void consult(Script script, int pass, long intended, Stats stats) {
+        Conversation conversation = driver.open();
+        try {
+            // The first turn counts from the scheduled arrival, like the consultation as a whole
+            String question = conversation.start(script.firstSymptom(pass));
+            stats.turns.recordSince(intended);
+            long thought = 0;
+            while (question != null) {
+                if (thinkNanos > 0) {
+                    LockSupport.parkNanos(thinkNanos);
+                    thought += thinkNanos;
+                }
+                boolean present = script.answer(question);
+                long turn = System.nanoTime();
+                question = conversation.answer(present);
+                stats.turns.recordSince(turn);
+            }
+            stats.consultations.record(System.nanoTime() - intended - thought);
+            stats.finished.increment();
+        } catch (IOException | RuntimeException e) {
+            stats.failed.increment();
+            if (stats.firstError == null) {
+                stats.firstError = e.toString();
+            }
+        } finally {
+            try {
+                conversation.end();
+            } catch (IOException | RuntimeException e) {
+                // The server expires abandoned sessions
+            }
+            stats.inFlight.decrementAndGet();
+        }
+    }
+
+    /** Scripts from the rows of a dataset CSV whose last column is the disease. */
+    static List<Script> scripts(File rows) throws IOException {
+        List<Script> scripts = new ArrayList<>();
+        try (CsvReader reader = CsvReader.open(rows)) {
+            String[] header = reader.next();
+            if (header == null) {
+                throw new IOException("No header in " + rows);
+            }
+            String[] record;
+            List<String> present = new ArrayList<>();
+            while ((record = reader.next()) != null) {
+                present.clear();
+                for (int i = 0; i < Math.min(record.length, header.length) - 1; i++) {
+                    if (SymptomVocabulary.isPresentValue(record[i])) {
+                        present.add(header[i]);
+                    }
+                }
+                if (!present.isEmpty()) {
+                    scripts.add(new Script(present.toArray(new String[0])));
+                }
+            }
+        }
+        return scripts;
+    }
+
+    /** The same flow as {@link Hcb}, minus the console and the journal. */
+    static final class InProcessDriver implements Driver {
+        private final ModelHolder models;
+        private final PredictionCache predictions;
+        private final ReportService reports;
+
+        /** {@code reports} renders a report of each finished consultation, or is null. */
+        InProcessDriver(ModelHolder models, PredictionCache predictions, ReportService reports) {
+            this.models = models;
+            this.predictions = predictions;
+            this.reports = reports;
+        }
+
+        @Override
+        public Conversation open() {
+            return new Conversation() {
+                private ConsultationSession session;
+
+                @Override
+                public String start(String symptom) {
+                    DiagnosisEngine engine = models.current();
+                    String column = engine.resolver().resolve(symptom);
+                    if (column == null) {
+                        throw new IllegalStateException("Unknown symptom '" + symptom + "'");
+                    }
+                    session = new ConsultationSession(engine, predictions);
+                    session.start(column);
+                    return next();
+                }
+
+                @Override
+                public String answer(boolean present) {
+                    session.answer(present);
+                    return next();
+                }
+
+                private String next() {
+                    if (session.state() == ConsultationSession.State.AWAITING_ANSWER) {
+                        return session.currentQuestionName();
+                    }
+                    // What the console prints with a prediction
+                    KnowledgeBase.Advice advice = session.advice();
+                    if (advice != null && advice.text().isEmpty()) {
+                        throw new IllegalStateException("No advice for " + advice.disease());
+                    }
+                    if (reports != null) {
+                        try {
+                            reports.submit(ReportService.Report.of(session, ""), OutputStream.nullOutputStream());
+                        } catch (ReportService.QueueFullException e) {
+                            // Counted by the service, like Hcb the consultation goes on without its report
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public void end() {
+                    session = null;
+                }
+            };
+        }
+
+        @Override
+        public String describe() {
+            return (reports == null) ? "in process" : "in process with reports";
+        }
+
+        @Override
+        public void close() {
+            models.close();
+            if (reports != null) {
+                reports.close();
+                System.out.printf("Reports: %d rendered, %d failed, %d rejected%n", reports.rendered(),
+                        reports.failed(), reports.rejected());
+            }
+        }
+    }
+
+    /** The chat API: {@code POST /sessions}, {@code POST /sessions/{id}/answer}, then {@code DELETE}. */
+    static final class HttpDriver implements Driver {
+        private final URI base;
+        private final HttpClient client;
+        private final Closeable server;
+
+        HttpDriver(URI base, Closeable server) {
+            this.base = base;
+            this.server = server;
+            this.client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(Threads.newPerTaskExecutor("load-http"))
+                    .build();
+        }
+
+        @Override
+        public Conversation open() {
+            return new Conversation() {
+                private String id;
+
+                @Override
+                public String start(String symptom) throws IOException {
+                    Map<String, Object> view = send("POST", "/sessions", Map.of("symptom", symptom));
+                    id = (String) view.get("sessionId");
+                    return question(view);
+                }
+
+                @Override
+                public String answer(boolean present) throws IOException {
+                    return question(send("POST", "/sessions/" + id + "/answer",
+                            Map.of("answer", present ? "yes" : "no")));
+                }
+
+                @Override
+                public void end() throws IOException {
+                    if (id != null) {
+                        send("DELETE", "/sessions/" + id, null);
+                    }
+                }
+            };
+        }
+
+        private static String question(Map<String, Object> view) {
+            return "AWAITING_ANSWER".equals(view.get("state")) ? (String) view.get("question") : null;
+        }
+
+        private Map<String, Object> send(String method, String path, Map<String, Object> body) throws IOException {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(base.resolve(path));
+            if (body == null) {
+                builder.method(method, HttpRequest.BodyPublishers.noBody());
+            } else {
+                builder.header("Content-Type", "application/json")
+                        .method(method, HttpRequest.BodyPublishers.ofString(Json.write(body)));
+            }
+            HttpRequest request = builder.build();
+            HttpResponse<String> response;
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                throw new IOException(method + " " + path + ": " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException(method + " " + path + ": HTTP " + response.statusCode() + " " + response.body());
+            }
+            return response.body().isEmpty() ? Map.of() : Json.parseObject(response.body());
+        }
+
+        @Override
+        public String describe() {
+            return "over HTTP at " + base;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Stop-the-world pauses reported by the collectors while open. Concurrent
+     * cycles (G1's and ZGC's concurrent beans) run beside the application and
+     * are left out.
+     */
+    static final class GcPauses implements NotificationListener, Closeable {
+        final LatencyHistogram pauses = new LatencyHistogram();
+        private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+        GcPauses() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+                    emitters.add((NotificationEmitter) collector);
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            String name = info.getGcName();
+            if (name.contains("Concurrent") || name.contains("Cycles")) {
+                return;
+            }
+            pauses.record(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+        }
+
+        @Override
+        public void close() {
+            for (NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Already gone
+                }
+            }
+        }
+    }
+
+    static String report(Stats stats, GcPauses gc, int seconds) {
+        StringBuilder out = new StringBuilder();
+        long finished = stats.finished.sum();
+        out.append(String.format("Consultations: %d started, %d finished, %d failed, %d shed; %.1f finished/s,"
+                        + " peak %d in flight%n", stats.started.sum(), finished, stats.failed.sum(),
+                stats.shed.sum(), (double) finished / seconds, stats.peakInFlight.get()));
+        out.append(String.format("Turns: %d, %.1f/s%n", stats.turns.count(), (double) stats.turns.count() / seconds));
+        out.append("Turn latency:         ").append(percentiles(stats.turns)).append('\n');
+        out.append("Consultation latency: ").append(percentiles(stats.consultations)).append('\n');
+        out.append(String.format("GC pauses: %d, total %.1f ms, p99 %.1f ms, max %.1f ms%n", gc.pauses.count(),
+                gc.pauses.sumNanos() / 1e6, gc.pauses.percentileNanos(0.99) / 1e6, gc.pauses.maxNanos() / 1e6));
+        if (stats.firstError != null) {
+            out.append("First error: ").append(stats.firstError).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        long[] values = histogram.percentilesNanos(QUANTILES);
+        return String.format("p50 %s, p99 %s, p999 %s, max %s", duration(values[0]), duration(values[1]),
+                duration(values[2]), duration(histogram.maxNanos()));
+    }
+
+    private static String duration(long nanos) {
+        return (nanos >= 1_000_000) ? String.format("%.2f ms", nanos / 1e6) : String.format("%.1f us", nanos / 1e3);
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = DEFAULT_RATE;
+        int seconds = DEFAULT_DURATION_SECONDS;
+        int warmup = DEFAULT_WARMUP_SECONDS;
+        long think = 0;
+        boolean poisson = false;
+        int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        File rows = new File(ModelStore.TEST_FILE);
+        String url = null;
+        boolean http = false;
+        boolean withReports = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--duration":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--think":
+                    think = Long.parseLong(args[++i]);
+                    break;
+                case "--poisson":
+                    poisson = true;
+                    break;
+                case "--max-in-flight":
+                    maxInFlight = Integer.parseInt(args[++i]);
+                    break;
+                case "--rows":
+                    rows = new File(args[++i]);
+                    break;
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--http":
+                    http = true;
+                    break;
+                case "--reports":
+                    withReports = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (rate <= 0 || seconds <= 0) {
+            throw new IllegalArgumentException("--rate and --duration must be positive");
+        }
+
+        Driver driver;
+        if (url != null) {
+            driver = new HttpDriver(URI.create(url), null);
+        } else if (http) {
+            ChatServer server = new ChatServer(ModelHolder.load(), KnowledgeBase.getDefault(),
+                    new SessionStore(maxInFlight, 15, TimeUnit.MINUTES), null,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.start();
+            driver = new HttpDriver(URI.create("http://" + server.address().getHostString() + ":"
+                    + server.address().getPort()), server::close);
+        } else {
+            ReportService reports = null;
+            if (withReports) {
+                int cpus = Runtime.getRuntime().availableProcessors();
+                reports = new ReportService(null, Math.max(1, cpus / 2), ReportService.DEFAULT_QUEUE_CAPACITY);
+            }
+            driver = new InProcessDriver(ModelHolder.load(),
+                    PredictionCache.withDefaultCapacity(KnowledgeBase.getDefault()), reports);
+        }
+
+        try (driver) {
+            LoadGenerator generator = new LoadGenerator(driver, scripts(rows), think, maxInFlight);
+            System.out.printf("%d scripts from %s, %s, %.0f arrivals/s (%s), think time %d ms%s%n",
+                    generator.scripts.size(), rows, driver.describe(), rate, poisson ? "Poisson" : "uniform", think,
+                    Threads.virtualThreadsAvailable() ? ", virtual-thread clients" : ", platform-thread clients");
+            if (warmup > 0) {
+                Stats warm = generator.run(rate, warmup, poisson, 1);
+                System.out.printf("Warm-up: %d consultations in %d s%n", warm.finished.sum(), warmup);
+            }
+            Stats stats;
+            try (GcPauses gc = new GcPauses()) {
+                stats = generator.run(rate, seconds, poisson, 2);
+                System.out.print(report(stats, gc, seconds));
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.cbot.Cbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms per pipeline stage and consultation
+ * counters, cheap enough to stay on in production: recording a stage is two
+ * {@link System#nanoTime()} calls and a few uncontended atomic adds.
+ *
+ * <p>Everything is exported as the {@code com.cbot.Cbot:type=Metrics} MBean
+ * and as Prometheus text, either from {@link ChatServer}'s {@code /metrics} or
+ * from the small exporter {@link #exportDefault()} starts for the desktop
+ * front ends on {@code -Dhcb.metrics.port} (default {@value #DEFAULT_PORT},
+ * negative to disable).</p>
+ */
+public final class Metrics {
+
+    public static final int DEFAULT_PORT = 9464;
+    public static final String PORT_PROPERTY = "hcb.metrics.port";
+    public static final String OBJECT_NAME = "com.cbot.Cbot:type=Metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** The timed stages of loading, training and answering. */
+    public enum Stage {
+        /** Reading and splitting the dataset CSV. */
+        DATASET_LOAD,
+        /** Building the forest. */
+        TRAINING,
+        /** Deserializing a stored model snapshot. */
+        MODEL_LOAD,
+        /** Loading the MasterData files. */
+        KNOWLEDGE_BASE_LOAD,
+        /** Resolving typed text to symptom columns. */
+        SYMPTOM_RESOLVE,
+        /** Choosing the next follow-up question. */
+        QUESTION_SELECTION,
+        /** Building a Weka instance from a symptom bitset. */
+        VECTOR_BUILD,
+        /** Classifying a consultation. */
+        CLASSIFY,
+        /** Ranking the differential diagnosis. */
+        DIFFERENTIAL,
+        /** Precaution, description and severity lookups. */
+        KNOWLEDGE_LOOKUP,
+        /** Handling one chat API request. */
+        HTTP_REQUEST,
+        /** Rendering one consultation report PDF, off the interactive path. */
+        REPORT_RENDER;
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        /** Name used in exports, e.g. {@code dataset_load}. */
+        public String metricName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public LatencyHistogram histogram() {
+            return histogram;
+        }
+
+        /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+        public void recordSince(long startNanos) {
+            histogram.recordSince(startNanos);
+        }
+    }
+
+    private static final LongAdder SESSIONS = new LongAdder();
+    private static final LongAdder QUESTIONS = new LongAdder();
+    private static final LongAdder INSUFFICIENT = new LongAdder();
+    private static final Map<String, LongAdder> PREDICTIONS = new ConcurrentHashMap<>();
+    private static volatile PredictionCache cache;
+    private static volatile ReportService reports;
+
+    private Metrics() {
+    }
+
+    public static void sessionStarted() {
+        SESSIONS.increment();
+    }
+
+    public static void questionAsked() {
+        QUESTIONS.increment();
+    }
+
+    /** A consultation ended without enough symptoms for a prediction. */
+    public static void insufficientSymptoms() {
+        INSUFFICIENT.increment();
+    }
+
+    public static void predicted(String disease) {
+        PREDICTIONS.computeIfAbsent(disease.trim(), d -> new LongAdder()).increment();
+    }
+
+    /** Exports the hit ratio and size of the process's prediction cache; the last one registered wins. */
+    public static void registerCache(PredictionCache predictionCache) {
+        cache = predictionCache;
+    }
+
+    /** Exports the counters and queue depth of the process's report service; the last one registered wins. */
+    public static void registerReports(ReportService reportService) {
+        reports = reportService;
+    }
+
+    public static long sessions() {
+        return SESSIONS.sum();
+    }
+
+    public static long questionsAsked() {
+        return QUESTIONS.sum();
+    }
+
+    public static long insufficientOutcomes() {
+        return INSUFFICIENT.sum();
+    }
+
+    /** Predictions so far per disease, sorted by disease. */
+    public static Map<String, Long> predictions() {
+        Map<String, Long> counts = new TreeMap<>();
+        PREDICTIONS.forEach((disease, count) -> counts.put(disease, count.sum()));
+        return counts;
+    }
+
+    /** All metrics in the Prometheus text exposition format, version 0.0.4. */
+    public static String prometheusText() {
+        StringBuilder out = new StringBuilder(8192);
+        out.append("# HELP hcb_stage_seconds Latency of each pipeline stage.\n");
+        out.append("# TYPE hcb_stage_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage.histogram;
+            String label = "{stage=\"" + stage.metricName() + "\"";
+            long[] percentiles = histogram.percentilesNanos(QUANTILES);
+            for (int q = 0; q < QUANTILES.length; q++) {
+                out.append("hcb_stage_seconds").append(label).append(",quantile=\"").append(QUANTILES[q])
+                        .append("\"} ").append(seconds(percentiles[q])).append('\n');
+            }
+            out.append("hcb_stage_seconds_sum").append(label).append("} ")
+                    .append(seconds(histogram.sumNanos())).append('\n');
+            out.append("hcb_stage_seconds_count").append(label).append("} ").append(histogram.count()).append('\n');
+        }
+        counter(out, "hcb_sessions_total", "Consultations started.", sessions());
+        counter(out, "hcb_questions_total", "Follow-up questions asked.", questionsAsked());
+        counter(out, "hcb_insufficient_symptoms_total",
+                "Consultations that ended without enough symptoms for a prediction.", insufficientOutcomes());
+        PredictionCache current = cache;
+        if (current != null) {
+            counter(out, "hcb_prediction_cache_hits_total", "Predictions answered from the cache.", current.hits());
+            counter(out, "hcb_prediction_cache_misses_total", "Predictions the cache had to compute.",
+                    current.misses());
+            counter(out, "hcb_prediction_cache_evictions_total", "Cache entries evicted for space.",
+                    current.evictions());
+            counter(out, "hcb_prediction_cache_invalidations_total",
+                    "Times the cache was emptied for a new model version.", current.invalidations());
+            gauge(out, "hcb_prediction_cache_size", "Entries in the prediction cache.", current.size());
+            gauge(out, "hcb_prediction_cache_hit_ratio", "Share of predictions answered from the cache.",
+                    current.hitRatio());
+        }
+        ReportService currentReports = reports;
+        if (currentReports != null) {
+            counter(out, "hcb_reports_rendered_total", "Consultation reports rendered.", currentReports.rendered());
+            counter(out, "hcb_reports_failed_total", "Consultation reports that failed to render.",
+                    currentReports.failed());
+            counter(out, "hcb_reports_rejected_total", "Consultation reports refused because the queue was full.",
+                    currentReports.rejected());
+            gauge(out, "hcb_reports_queued", "Consultation reports waiting for a worker.", currentReports.queued());
+        }
+        out.append("# HELP hcb_predictions_total Predictions made per disease.\n");
+        out.append("# TYPE hcb_predictions_total counter\n");
+        for (Map.Entry<String, Long> entry : predictions().entrySet()) {
+            out.append("hcb_predictions_total{disease=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(double nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Answers a scrape with {@link #prometheusText()}. */
+    public static void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Registers the MBean with the platform MBean server unless it already is. */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Unable to register " + OBJECT_NAME + ": " + e);
+        }
+    }
+
+    /** Serves {@code GET /metrics} on {@code address} until closed. */
+    public static Closeable serve(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.setExecutor(null);
+        server.createContext("/metrics", Metrics::handleScrape);
+        server.start();
+        return () -> server.stop(0);
+    }
+
+    /**
+     * Registers the MBean and serves Prometheus text on localhost at the port
+     * of {@value #PORT_PROPERTY}. Metrics are optional, so a port that is
+     * taken only produces a warning; returns null when nothing is served.
+     */
+    public static Closeable exportDefault() {
+        registerMBean();
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        if (port < 0) {
+            return null;
+        }
+        try {
+            return serve(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            System.err.println("Metrics not served on port " + port + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Read-only attributes, e.g. {@code classify.p99Micros} per stage and
+     * statistic, the counters, {@code cache.hitRatio} and the other cache
+     * figures once a cache is registered, {@code reports.rendered} and the
+     * other report figures once a report service is, and {@code predictions.<disease>};
+     * the disease attributes appear as predictions are made.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        private static final String[] STATISTICS = {"count", "meanMicros", "p50Micros", "p99Micros",
+            "p999Micros", "maxMicros"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            switch (attribute) {
+                case "sessions":
+                    return sessions();
+                case "questionsAsked":
+                    return questionsAsked();
+                case "insufficientOutcomes":
+                    return insufficientOutcomes();
+                default:
+                    break;
+            }
+            PredictionCache current = cache;
+            if (current != null && attribute.startsWith("cache.")) {
+                switch (attribute) {
+                    case "cache.hits":
+                        return current.hits();
+                    case "cache.misses":
+                        return current.misses();
+                    case "cache.hitRatio":
+                        return current.hitRatio();
+                    case "cache.size":
+                        return current.size();
+                    case "cache.evictions":
+                        return current.evictions();
+                    case "cache.invalidations":
+                        return current.invalidations();
+                    default:
+                        throw new AttributeNotFoundException(attribute);
+                }
+            }
+            ReportService currentReports = reports;
+            if (currentReports != null && attribute.startsWith("reports.")) {
+                switch (attribute) {
+                    case "reports.rendered":
+                        return currentReports.rendered();
+                    case "reports.failed":
+                        return currentReports.failed();
+                    case "reports.rejected":
+                        return currentReports.rejected();
+                    case "reports.queued":
+                        return currentReports.queued();
+                    default:
+                        throw new AttributeNotFoundException(attribute);
+                }
+            }
+            if (attribute.startsWith("predictions.")) {
+                LongAdder count = PREDICTIONS.get(attribute.substring("predictions.".length()));
+                if (count != null) {
+                    return count.sum();
+                }
+                throw new AttributeNotFoundException(attribute);
+            }
+            int dot = attribute.indexOf('.');
+            if (dot > 0) {
+                for (Stage stage : Stage.values()) {
+                    if (stage.metricName().equals(attribute.substring(0, dot))) {
+                        return statistic(stage.histogram, attribute.substring(dot + 1), attribute);
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        private static Object statistic(LatencyHistogram histogram, String statistic, String attribute)
+                throws AttributeNotFoundException {
+            switch (statistic) {
+                case "count":
+                    return histogram.count();
+                case "meanMicros":
+                    return histogram.meanNanos() / 1000.0;
+                case "p50Micros":
+                    return histogram.percentileNanos(0.5) / 1000.0;
+                case "p99Micros":
+                    return histogram.percentileNanos(0.99) / 1000.0;
+                case "p999Micros":
+                    return histogram.percentileNanos(0.999) / 1000.0;
+                case "maxMicros":
+                    return histogram.maxNanos() / 1000.0;
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList values = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    values.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface specifies
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Stage stage : Stage.values()) {
+                for (String statistic : STATISTICS) {
+                    String type = statistic.equals("count") ? "long" : "double";
+                    attributes.add(new MBeanAttributeInfo(stage.metricName() + "." + statistic, type,
+                            statistic + " of the " + stage.metricName() + " stage", true, false, false));
+                }
+            }
+            attributes.add(new MBeanAttributeInfo("sessions", "long", "Consultations started",
+                    true, false, false));
+            attributes.add(new MBeanAttributeInfo("questionsAsked", "long", "Follow-up questions asked",
+                    true, false, false));
+            attributes.add(new MBeanAttributeInfo("insufficientOutcomes", "long",
+                    "Consultations without enough symptoms for a prediction", true, false, false));
+            if (cache != null) {
+                attributes.add(new MBeanAttributeInfo("cache.hits", "long", "Predictions answered from the cache",
+                        true, false, false));
+                attributes.add(new MBeanAttributeInfo("cache.misses", "long", "Predictions the cache computed",
+                        true, false, false));
+                attributes.add(new MBeanAttributeInfo("cache.hitRatio", "double",
+                        "Share of predictions answered from the cache", true, false, false));
+                attributes.add(new MBeanAttributeInfo("cache.size", "int", "Entries in the prediction cache",
+                        true, false, false));
+                attributes.add(new MBeanAttributeInfo("cache.evictions", "long", "Cache entries evicted for space",
+                        true, false, false));
+                attributes.add(new MBeanAttributeInfo("cache.invalidations", "long",
+                        "Times the cache was emptied for a new model version", true, false, false));
+            }
+            if (reports != null) {
+                attributes.add(new MBeanAttributeInfo("reports.rendered", "long", "Consultation reports rendered",
+                        true, false, false));
+                attributes.add(new MBeanAttributeInfo("reports.failed", "long",
+                        "Consultation reports that failed to render", true, false, false));
+                attributes.add(new MBeanAttributeInfo("reports.rejected", "long",
+                        "Consultation reports refused because the queue was full", true, false, false));
+                attributes.add(new MBeanAttributeInfo("reports.queued", "int",
+                        "Consultation reports waiting for a worker", true, false, false));
+            }
+            for (String disease : predictions().keySet()) {
+                attributes.add(new MBeanAttributeInfo("predictions." + disease, "long",
+                        "Predictions of " + disease, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Healthcare chatbot latency and consultation metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
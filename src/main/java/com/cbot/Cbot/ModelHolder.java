@@ -0,0 +1,298 @@
+package com.cbot.Cbot;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * The live {@link DiagnosisEngine}, replaced without a restart when the
+ * dataset changes.
+ *
+ * <p>A low-priority background thread notices changes to the dataset file,
+ * whether edited externally or through {@link #appendCase}, and trains a
+ * candidate model on the new hashed split. A row's side depends only on its
+ * symptom pattern, so rows the live model was trained on never move to the
+ * held-out side. The candidate replaces the live engine only if it is at
+ * least as accurate on the new held-out rows as the live one; the swap is a single atomic reference update. Consultations keep
+ * the engine they were created with, so a swap never changes the model under a
+ * running session, and every {@link Prediction} carries the version of the
+ * model that made it.</p>
+ */
+public final class ModelHolder implements Closeable {
+
+    public static final long DEFAULT_POLL_SECONDS = 30;
+
+    /** Outcome of one retraining attempt. */
+    public static final class RetrainResult {
+        private final boolean accepted;
+        private final double liveAccuracy;
+        private final double candidateAccuracy;
+        private final long version;
+        private final String message;
+
+        RetrainResult(boolean accepted, double liveAccuracy, double candidateAccuracy, long version,
+                      String message) {
+            this.accepted = accepted;
+            this.liveAccuracy = liveAccuracy;
+            this.candidateAccuracy = candidateAccuracy;
+            this.version = version;
+            this.message = message;
+        }
+
+        /** True when the candidate became the live model. */
+        public boolean accepted() {
+            return accepted;
+        }
+
+        /** False when nothing was trained because the dataset had not changed or training failed. */
+        public boolean trained() {
+            return !Double.isNaN(candidateAccuracy);
+        }
+
+        public double liveAccuracy() {
+            return liveAccuracy;
+        }
+
+        public double candidateAccuracy() {
+            return candidateAccuracy;
+        }
+
+        /** Version of the live model after the attempt. */
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+
+    private final ModelStore store;
+    private final File datasetFile;
+    private final AtomicReference<DiagnosisEngine> live;
+    private final List<Consumer<DiagnosisEngine>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService retrainer = Executors.newSingleThreadScheduledExecutor(
+            Threads.daemonFactory("model-retrain", Thread.MIN_PRIORITY));
+    private final AtomicBoolean retrainPending = new AtomicBoolean();
+
+    // Appends and the read of a dataset for retraining must not interleave
+    private final Object datasetLock = new Object();
+
+    // Only touched on the retrainer thread
+    private long seenModified;
+    private long seenLength;
+    private String rejectedHash;
+
+    public ModelHolder(ModelStore store, DiagnosisEngine initial) {
+        this.store = store;
+        this.datasetFile = store.datasetFile();
+        this.live = new AtomicReference<>(initial);
+        this.seenModified = datasetFile.lastModified();
+        this.seenLength = datasetFile.length();
+    }
+
+    /** Loads the stored model (training it first if needed) as the live engine. */
+    public static ModelHolder load() throws Exception {
+        ModelStore store = new ModelStore();
+        return new ModelHolder(store, new DiagnosisEngine(store.loadOrTrain(), store.datasetFile()));
+    }
+
+    /** The engine new consultations should use. */
+    public DiagnosisEngine current() {
+        return live.get();
+    }
+
+    /** Called on the retrainer thread with the new engine after every swap. */
+    public void addListener(Consumer<DiagnosisEngine> listener) {
+        listeners.add(listener);
+    }
+
+    /** Checks the dataset for changes every {@code period} and retrains when it changed. */
+    public void watch(long period, TimeUnit unit) {
+        retrainer.scheduleWithFixedDelay(this::pollDataset, period, period, unit);
+    }
+
+    private void pollDataset() {
+        long modified = datasetFile.lastModified();
+        long length = datasetFile.length();
+        if (modified == seenModified && length == seenLength) {
+            return;
+        }
+        seenModified = modified;
+        seenLength = length;
+        log(retrain());
+    }
+
+    private static void log(RetrainResult result) {
+        if (result.trained()) {
+            System.out.println(result);
+        }
+    }
+
+    /** Retrains on the background thread now; the future completes with the outcome. */
+    public Future<RetrainResult> retrainNow() {
+        return retrainer.submit(this::retrain);
+    }
+
+    /**
+     * Appends a labelled case to the dataset, one 0/1 column per symptom in the
+     * dataset's own column order, and schedules a retraining.
+     */
+    public void appendCase(long[] yesBits, String disease) throws IOException {
+        SymptomVocabulary vocabulary = current().vocabulary();
+        synchronized (datasetLock) {
+            String[] header;
+            try (CsvReader reader = CsvReader.open(datasetFile)) {
+                header = reader.next();
+            }
+            if (header == null) {
+                throw new IOException("Dataset " + datasetFile + " has no header");
+            }
+            StringBuilder line = new StringBuilder(header.length * 2 + disease.length() + 2);
+            if (!endsWithNewline()) {
+                line.append('\n');
+            }
+            for (int i = 0; i < header.length - 1; i++) {
+                int index = vocabulary.indexOf(header[i]);
+                boolean present = index >= 0 && (yesBits[index >>> 6] & (1L << index)) != 0;
+                line.append(present ? '1' : '0').append(',');
+            }
+            line.append(disease.contains(",") ? '"' + disease.replace("\"", "\"\"") + '"' : disease).append('\n');
+            try (Writer out = Files.newBufferedWriter(datasetFile.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND)) {
+                out.write(line.toString());
+            }
+        }
+        if (retrainPending.compareAndSet(false, true)) {
+            // Cases often come in bursts; one retraining covers all of them
+            retrainer.schedule(() -> {
+                retrainPending.set(false);
+                log(retrain());
+            }, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(datasetFile, "r")) {
+            if (file.length() == 0) {
+                return true;
+            }
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    // Runs on the retrainer thread
+    private RetrainResult retrain() {
+        DiagnosisEngine current = live.get();
+        try {
+            String hash;
+            DatasetPreprocessor.Split split = null;
+            StreamingForestTrainer.Sample sample = null;
+            synchronized (datasetLock) {
+                hash = ModelStore.hashFile(datasetFile);
+                if (hash.equals(current.snapshot().datasetHash()) || hash.equals(rejectedHash)) {
+                    return new RetrainResult(false, Double.NaN, Double.NaN, current.version(),
+                            "Dataset unchanged, keeping model " + current.version());
+                }
+                // Appends must wait for the pass over the file, not for the trees
+                if (store.streaming()) {
+                    sample = store.sampleStreaming();
+                } else {
+                    split = store.split();
+                }
+            }
+
+            ModelSnapshot snapshot = (sample != null) ? store.trainStreaming(sample, hash) : store.train(split, hash);
+            DiagnosisEngine candidate;
+            synchronized (datasetLock) {
+                candidate = new DiagnosisEngine(snapshot, datasetFile);
+            }
+            double liveAccuracy;
+            double candidateAccuracy;
+            long heldOutRows;
+            if (sample != null) {
+                liveAccuracy = StreamingForestTrainer.accuracy(current, sample.testFile());
+                candidateAccuracy = StreamingForestTrainer.accuracy(candidate, sample.testFile());
+                heldOutRows = sample.testRows();
+            } else {
+                liveAccuracy = accuracy(current, split.test());
+                candidateAccuracy = accuracy(candidate, split.test());
+                heldOutRows = split.test().numInstances();
+            }
+            String scores = String.format("held-out accuracy %.2f%% (live model %.2f%%) on %d rows",
+                    100 * candidateAccuracy, 100 * liveAccuracy, heldOutRows);
+            if (candidateAccuracy < liveAccuracy) {
+                rejectedHash = hash;
+                if (sample != null) {
+                    Files.deleteIfExists(sample.trainFile().toPath());
+                    Files.deleteIfExists(sample.testFile().toPath());
+                }
+                return new RetrainResult(false, liveAccuracy, candidateAccuracy, current.version(),
+                        "Rejected retrained model: " + scores);
+            }
+
+            if (sample != null) {
+                store.commit(snapshot, sample);
+            } else {
+                store.commit(snapshot, split);
+            }
+            live.set(candidate);
+            rejectedHash = null;
+            for (Consumer<DiagnosisEngine> listener : listeners) {
+                listener.accept(candidate);
+            }
+            return new RetrainResult(true, liveAccuracy, candidateAccuracy, candidate.version(),
+                    "Swapped in model " + candidate.version() + ": " + scores);
+        } catch (Exception e) {
+            // The live model keeps serving; the next change triggers another attempt
+            e.printStackTrace();
+            return new RetrainResult(false, Double.NaN, Double.NaN, current.version(),
+                    "Retraining failed: " + e);
+        }
+    }
+
+    /** Fraction of labelled rows the engine classifies correctly; 1 when there are none. */
+    static double accuracy(DiagnosisEngine engine, Instances rows) {
+        SymptomVocabulary vocabulary = engine.vocabulary();
+        int[] columns = vocabulary.columnsOf(rows);
+        int labelled = 0;
+        int correct = 0;
+        for (Instance row : rows) {
+            if (row.classIsMissing()) {
+                continue;
+            }
+            labelled++;
+            int predicted = engine.forest().classify(vocabulary.encode(row, columns));
+            String label = rows.classAttribute().value((int) row.classValue());
+            if (predicted >= 0 && KnowledgeBase.diseaseKey(label).equals(
+                    KnowledgeBase.diseaseKey(engine.diseaseName(predicted)))) {
+                correct++;
+            }
+        }
+        return (labelled == 0) ? 1.0 : (double) correct / labelled;
+    }
+
+    @Override
+    public void close() {
+        retrainer.shutdownNow();
+    }
+}
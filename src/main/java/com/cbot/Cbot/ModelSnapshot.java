@@ -0,0 +1,66 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.io.Serializable;
+
+/**
+ * A trained classifier together with the dataset header it was built on and
+ * the fingerprint (dataset hash + training options) used to decide whether it
+ * is still current.
+ */
+public final class ModelSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Bump whenever the serialized layout of this class changes
+    static final int FORMAT_VERSION = 1;
+
+    private final int formatVersion;
+    private final String datasetHash;
+    private final String trainingOptions;
+    private final Classifier classifier;
+    private final Instances header;
+    private final long createdAt;
+
+    public ModelSnapshot(String datasetHash, String trainingOptions, Classifier classifier, Instances header) {
+        this.formatVersion = FORMAT_VERSION;
+        this.datasetHash = datasetHash;
+        this.trainingOptions = trainingOptions;
+        this.classifier = classifier;
+        // Keep only the attribute definitions, not the training rows
+        this.header = new Instances(header, 0);
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public int formatVersion() {
+        return formatVersion;
+    }
+
+    public String datasetHash() {
+        return datasetHash;
+    }
+
+    public String trainingOptions() {
+        return trainingOptions;
+    }
+
+    public Classifier classifier() {
+        return classifier;
+    }
+
+    public Instances header() {
+        return header;
+    }
+
+    public long createdAt() {
+        return createdAt;
+    }
+
+    boolean matches(String datasetHash, String trainingOptions) {
+        return formatVersion == FORMAT_VERSION
+                && this.datasetHash.equals(datasetHash)
+                && this.trainingOptions.equals(trainingOptions);
+    }
+}
@@ -0,0 +1,292 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.CSVLoader;
+import weka.core.converters.CSVSaver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Saves and restores {@link ModelSnapshot}s so that the RandomForest is only
+ * retrained when the dataset or the training parameters change.
+ */
+public final class ModelStore {
+
+    public static final String DATASET_FILE = "Data/Dataset.csv";
+    public static final String TRAIN_FILE = "Data/trainingSet.csv";
+    public static final String TEST_FILE = "Data/testingSet.csv";
+    public static final String SNAPSHOT_FILE = "Data/randomForest.snapshot";
+    /** RandomForest options chosen by {@link HyperparameterSweep}, one line; defaults when absent. */
+    public static final String OPTIONS_FILE = "Data/forest.options";
+    /**
+     * {@code memory} to always load the dataset as Weka instances,
+     * {@code streaming} to always train with {@link StreamingForestTrainer};
+     * by default a dataset streams once larger than
+     * {@link #STREAMING_THRESHOLD_PROPERTY}.
+     */
+    public static final String TRAINING_MODE_PROPERTY = "hcb.training";
+    /**
+     * Dataset size in bytes above which training streams by default. A fixed
+     * number rather than a share of the heap, so a different {@code -Xmx}
+     * does not pick another trainer and retrain under a new fingerprint.
+     */
+    public static final String STREAMING_THRESHOLD_PROPERTY = "hcb.training.threshold";
+    public static final long DEFAULT_STREAMING_THRESHOLD = 64L << 20;
+
+    static final double TRAIN_RATIO = 0.8;
+    static final long SPLIT_SEED = 1;
+
+    private final File datasetFile;
+    private final File snapshotFile;
+    private final File trainFile;
+    private final File testFile;
+    private final String[] classifierOptions;
+    private final StreamingForestTrainer streamingTrainer;
+
+    public ModelStore() throws IOException {
+        this(new File(DATASET_FILE), new File(SNAPSHOT_FILE), new File(TRAIN_FILE), new File(TEST_FILE),
+                readOptions(new File(OPTIONS_FILE)));
+    }
+
+    public ModelStore(File datasetFile, File snapshotFile) {
+        this(datasetFile, snapshotFile, new String[0]);
+    }
+
+    /** A store that writes the split files next to the snapshot, under their usual names. */
+    public ModelStore(File datasetFile, File snapshotFile, String[] classifierOptions) {
+        this(datasetFile, snapshotFile, new File(snapshotFile.getAbsoluteFile().getParentFile(),
+                new File(TRAIN_FILE).getName()), new File(snapshotFile.getAbsoluteFile().getParentFile(),
+                new File(TEST_FILE).getName()), classifierOptions);
+    }
+
+    private ModelStore(File datasetFile, File snapshotFile, File trainFile, File testFile,
+                       String[] classifierOptions) {
+        this.datasetFile = datasetFile;
+        this.snapshotFile = snapshotFile;
+        this.trainFile = trainFile;
+        this.testFile = testFile;
+        this.classifierOptions = classifierOptions.clone();
+        this.streamingTrainer = StreamingForestTrainer.withDefaultSampleSize(classifierOptions);
+    }
+
+    /**
+     * Returns the stored snapshot when it was built from the current dataset
+     * with the current parameters, otherwise retrains, rewrites the split files
+     * and stores a fresh snapshot.
+     */
+    public ModelSnapshot loadOrTrain() throws Exception {
+        String datasetHash = hashFile(datasetFile);
+        boolean streaming = streaming();
+        String options = streaming ? streamingOptions() : trainingOptions(classifierOptions);
+
+        ModelSnapshot snapshot = load();
+        if (snapshot != null && snapshot.matches(datasetHash, options)) {
+            return snapshot;
+        }
+
+        if (streaming) {
+            StreamingForestTrainer.Sample sample = sampleStreaming();
+            snapshot = trainStreaming(sample, datasetHash);
+            commit(snapshot, sample);
+            return snapshot;
+        }
+        DatasetPreprocessor.Split split = split();
+        snapshot = train(split, datasetHash);
+        commit(snapshot, split);
+        return snapshot;
+    }
+
+    public File datasetFile() {
+        return datasetFile;
+    }
+
+    /**
+     * Whether training streams the dataset instead of loading it: as Weka
+     * instances every 0/1 cell of the CSV becomes an 8-byte double, and the
+     * split and deduplication copy the rows again, so loading needs several
+     * times the file size in heap.
+     */
+    public boolean streaming() {
+        String mode = System.getProperty(TRAINING_MODE_PROPERTY, "auto");
+        switch (mode) {
+            case "memory":
+                return false;
+            case "streaming":
+                return true;
+            default:
+                return datasetFile.length() > Long.getLong(STREAMING_THRESHOLD_PROPERTY, DEFAULT_STREAMING_THRESHOLD);
+        }
+    }
+
+    /** Loads the dataset and splits it by symptom pattern into training and held-out rows. */
+    public DatasetPreprocessor.Split split() throws IOException {
+        long start = System.nanoTime();
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(datasetFile);
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        DatasetPreprocessor.Split split = DatasetPreprocessor.hashedSplit(data, TRAIN_RATIO, SPLIT_SEED);
+        Metrics.Stage.DATASET_LOAD.recordSince(start);
+        return split;
+    }
+
+    /**
+     * Trains a snapshot on the training side of {@code split} without storing
+     * anything, so a caller can validate it before {@link #commit}.
+     */
+    public ModelSnapshot train(DatasetPreprocessor.Split split, String datasetHash) throws Exception {
+        // Duplicates become weights, which cuts training time; each tree's bag shrinks too, see deduplicate
+        Instances trainData = DatasetPreprocessor.deduplicate(split.train());
+        RandomForest classifier = newClassifier(classifierOptions);
+        // Not part of the fingerprint: the slot count changes speed, not the model
+        classifier.setNumExecutionSlots(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        classifier.buildClassifier(trainData);
+        Metrics.Stage.TRAINING.recordSince(start);
+        return new ModelSnapshot(datasetHash, trainingOptions(classifierOptions), classifier, trainData);
+    }
+
+    /**
+     * Streams the dataset once, drawing every tree's sample and writing the
+     * split to pending files that {@link #commit(ModelSnapshot, StreamingForestTrainer.Sample)}
+     * moves into place.
+     */
+    public StreamingForestTrainer.Sample sampleStreaming() throws Exception {
+        return streamingTrainer.sample(datasetFile, pending(trainFile), pending(testFile));
+    }
+
+    /** Builds the trees of a streamed sample into a snapshot without storing anything. */
+    public ModelSnapshot trainStreaming(StreamingForestTrainer.Sample sample, String datasetHash) throws Exception {
+        return streamingTrainer.train(sample, datasetHash, streamingOptions());
+    }
+
+    /** Moves the split files of a streamed sample into place, then stores the snapshot. */
+    public void commit(ModelSnapshot snapshot, StreamingForestTrainer.Sample sample) throws IOException {
+        Files.move(sample.trainFile().toPath(), trainFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(sample.testFile().toPath(), testFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        save(snapshot);
+    }
+
+    private static File pending(File file) {
+        return new File(file.getPath() + ".pending");
+    }
+
+    /** Writes the split files the snapshot was trained and validated on, then stores the snapshot. */
+    public void commit(ModelSnapshot snapshot, DatasetPreprocessor.Split split) throws IOException {
+        saveInstancesToCSV(split.train(), trainFile);
+        saveInstancesToCSV(split.test(), testFile);
+        save(snapshot);
+    }
+
+    /**
+     * Reads the snapshot file, or returns null when it is missing, unreadable
+     * or written by an incompatible version.
+     */
+    public ModelSnapshot load() {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshotFile.toPath()), 1 << 16);
+             ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            Object stored = objectIn.readObject();
+            Metrics.Stage.MODEL_LOAD.recordSince(start);
+            return (stored instanceof ModelSnapshot) ? (ModelSnapshot) stored : null;
+        } catch (IOException | ClassNotFoundException e) {
+            // A stale or corrupt snapshot is not fatal, we simply retrain
+            System.err.println("Ignoring unreadable model snapshot " + snapshotFile + ": " + e);
+            return null;
+        }
+    }
+
+    public void save(ModelSnapshot snapshot) throws IOException {
+        Path target = snapshotFile.toPath();
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, snapshotFile.getName(), ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+             ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(snapshot);
+        }
+        // Readers either see the old snapshot or the complete new one
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static RandomForest newClassifier() {
+        return new RandomForest();
+    }
+
+    static RandomForest newClassifier(String[] options) throws Exception {
+        RandomForest classifier = newClassifier();
+        if (options.length > 0) {
+            // setOptions consumes the array it is given
+            classifier.setOptions(options.clone());
+        }
+        return classifier;
+    }
+
+    static String trainingOptions(String[] classifierOptions) throws Exception {
+        return Utils.joinOptions(newClassifier(classifierOptions).getOptions()) + " -split " + TRAIN_RATIO
+                + " -hashed " + SPLIT_SEED + " -dedup";
+    }
+
+    private String streamingOptions() throws Exception {
+        return Utils.joinOptions(newClassifier(classifierOptions).getOptions()) + " -split " + TRAIN_RATIO
+                + " -hashed " + SPLIT_SEED + " -streamed " + streamingTrainer.sampleSize();
+    }
+
+    /** Reads a one-line options file, or returns no options when the file does not exist. */
+    static String[] readOptions(File file) throws IOException {
+        if (!file.isFile()) {
+            return new String[0];
+        }
+        try {
+            return Utils.splitOptions(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (Exception e) {
+            throw new IOException("Malformed options in " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void saveInstancesToCSV(Instances data, File file) throws IOException {
+        CSVSaver saver = new CSVSaver();
+        saver.setInstances(data);
+        saver.setFile(file);
+        saver.writeBatch();
+    }
+
+    static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,480 @@
+package com.cbot.Cbot;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A symptom dataset packed one bit per symptom and memory-mapped for reading.
+ *
+ * <p>File layout, little-endian:</p>
+ * <pre>
+ *   0  long  magic "HCBPACK1"
+ *   8  int   format version
+ *  12  int   symptoms
+ *  16  int   words per row (symptoms / 64, rounded up)
+ *  20  int   classes
+ *  24  long  rows
+ *  32  long  offset of the name table
+ *  40  ...   reserved up to 64
+ *  64  rows, each {@code words} longs of symptom bits followed by the int class
+ *      id (-1 when missing) and 4 bytes of padding
+ *  name table: every symptom name, the class attribute name, then every class
+ *      label, each an int byte length followed by UTF-8 bytes
+ * </pre>
+ *
+ * <p>Rows are fixed-size records, so row {@code r} is found by arithmetic and
+ * the file is mapped in segments of whole rows; row and symptom counts are
+ * limited only by the file system. Weka instances are built on demand.</p>
+ */
+public final class PackedDataset implements Closeable {
+
+    public static final String EXTENSION = ".packed";
+
+    static final long MAGIC = 0x314b434150424348L; // "HCBPACK1" read little-endian
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 64;
+
+    // Segments stay well below the 2 GB limit of a single mapping
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final int numSymptoms;
+    private final int words;
+    private final long numRows;
+    private final int stride;
+    private final String[] symptomNames;
+    private final String className;
+    private final String[] classLabels;
+    private final long rowsPerSegment;
+    private final ByteBuffer[] segments;
+
+    private Instances header;
+
+    private PackedDataset(FileChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, fixed, 0);
+        fixed.flip();
+        if (fixed.getLong(0) != MAGIC) {
+            throw new IOException("Not a packed dataset");
+        }
+        int version = fixed.getInt(8);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported packed dataset version " + version);
+        }
+        numSymptoms = fixed.getInt(12);
+        words = fixed.getInt(16);
+        int numClasses = fixed.getInt(20);
+        numRows = fixed.getLong(24);
+        long namesOffset = fixed.getLong(32);
+        stride = (words + 1) * Long.BYTES;
+        if (words != wordsFor(numSymptoms) || namesOffset != HEADER_BYTES + numRows * stride) {
+            throw new IOException("Corrupt packed dataset header");
+        }
+
+        ByteBuffer names = ByteBuffer.allocate((int) (channel.size() - namesOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, names, namesOffset);
+        names.flip();
+        symptomNames = readStrings(names, numSymptoms);
+        className = readStrings(names, 1)[0];
+        classLabels = readStrings(names, numClasses);
+
+        rowsPerSegment = Math.max(1, SEGMENT_BYTES / stride);
+        int numSegments = (int) ((numRows + rowsPerSegment - 1) / rowsPerSegment);
+        segments = new ByteBuffer[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            long firstRow = s * rowsPerSegment;
+            long rows = Math.min(rowsPerSegment, numRows - firstRow);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + firstRow * stride, rows * stride);
+            segments[s] = segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /** Maps a packed dataset file. The mapping stays valid after the file is closed. */
+    public static PackedDataset open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new PackedDataset(channel);
+        }
+    }
+
+    static int wordsFor(int numSymptoms) {
+        return (numSymptoms + 63) >>> 6;
+    }
+
+    public long numRows() {
+        return numRows;
+    }
+
+    public int numSymptoms() {
+        return numSymptoms;
+    }
+
+    public int words() {
+        return words;
+    }
+
+    public int numClasses() {
+        return classLabels.length;
+    }
+
+    public String symptomName(int symptom) {
+        return symptomNames[symptom];
+    }
+
+    public String classLabel(int classId) {
+        return classLabels[classId];
+    }
+
+    /** Copies the symptom bits of a row into {@code out}, which must hold {@link #words()} longs. */
+    public void bits(long row, long[] out) {
+        ByteBuffer segment = segments[(int) (row / rowsPerSegment)];
+        int offset = (int) (row % rowsPerSegment) * stride;
+        for (int w = 0; w < words; w++) {
+            out[w] = segment.getLong(offset + w * Long.BYTES);
+        }
+    }
+
+    public long[] bits(long row) {
+        long[] out = new long[words];
+        bits(row, out);
+        return out;
+    }
+
+    /** Class id of a row, or -1 when its label is missing. */
+    public int classId(long row) {
+        ByteBuffer segment = segments[(int) (row / rowsPerSegment)];
+        return segment.getInt((int) (row % rowsPerSegment) * stride + words * Long.BYTES);
+    }
+
+    /**
+     * The Weka header these rows correspond to: numeric 0/1 symptom attributes,
+     * as {@link CSVLoader} infers them, and a nominal class attribute last.
+     */
+    public synchronized Instances header() {
+        if (header == null) {
+            ArrayList<Attribute> attributes = new ArrayList<>(numSymptoms + 1);
+            for (String name : symptomNames) {
+                attributes.add(new Attribute(name));
+            }
+            attributes.add(new Attribute(className, Arrays.asList(classLabels)));
+            Instances built = new Instances("packed", attributes, 0);
+            built.setClassIndex(numSymptoms);
+            header = built;
+        }
+        return new Instances(header, 0);
+    }
+
+    /** Builds the given rows as sparse Weka instances, which hold only the set symptoms. */
+    public Instances toInstances(long fromRow, int count) {
+        Instances data = header();
+        long[] bits = new long[words];
+        int numAttributes = numSymptoms + 1;
+        for (long row = fromRow; row < fromRow + count; row++) {
+            bits(row, bits);
+            int set = 0;
+            for (long word : bits) {
+                set += Long.bitCount(word);
+            }
+            int classId = classId(row);
+            int[] indices = new int[set + 1];
+            double[] values = new double[set + 1];
+            int n = 0;
+            for (int w = 0; w < words; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    indices[n] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    values[n] = 1.0;
+                    n++;
+                    word &= word - 1;
+                }
+            }
+            indices[n] = numSymptoms;
+            values[n] = (classId < 0) ? Utils.missingValue() : classId;
+            data.add(new SparseInstance(1.0, values, indices, numAttributes));
+        }
+        return data;
+    }
+
+    /** All rows as sparse Weka instances. */
+    public Instances toInstances() {
+        if (numRows > Integer.MAX_VALUE) {
+            throw new IllegalStateException(numRows + " rows do not fit in one Instances object");
+        }
+        return toInstances(0, (int) numRows);
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released by the garbage collector; nothing is held open
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated packed dataset");
+            }
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Streams rows into a packed file. Class labels get ids in order of first
+     * appearance unless they are declared up front; the header is completed
+     * on {@link #close()}.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final String[] symptomNames;
+        private final String className;
+        private final int words;
+        private final List<String> classLabels = new ArrayList<>();
+        private final Map<String, Integer> classIds = new HashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = HEADER_BYTES;
+        private long rows;
+
+        public Writer(File file, String[] symptomNames, String className, List<String> declaredClassLabels)
+                throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.symptomNames = symptomNames.clone();
+            this.className = className;
+            this.words = wordsFor(symptomNames.length);
+            for (String label : declaredClassLabels) {
+                classId(label);
+            }
+        }
+
+        private int classId(String label) {
+            Integer id = classIds.get(label);
+            if (id == null) {
+                id = classLabels.size();
+                classLabels.add(label);
+                classIds.put(label, id);
+            }
+            return id;
+        }
+
+        /** Appends a row; {@code label} is null when missing. */
+        public void add(long[] bits, String label) throws IOException {
+            int stride = (words + 1) * Long.BYTES;
+            if (buffer.remaining() < stride) {
+                flush();
+            }
+            for (int w = 0; w < words; w++) {
+                buffer.putLong(bits[w]);
+            }
+            buffer.putInt((label == null) ? -1 : classId(label));
+            buffer.putInt(0);
+            rows++;
+        }
+
+        public long rows() {
+            return rows;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        private void writeStrings(Iterable<String> strings) throws IOException {
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                    flush();
+                }
+                if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                    throw new IOException("Name too long: " + string.length() + " characters");
+                }
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                long namesOffset = position;
+                writeStrings(Arrays.asList(symptomNames));
+                writeStrings(Arrays.asList(className));
+                writeStrings(classLabels);
+                flush();
+
+                ByteBuffer fixed = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                fixed.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(symptomNames.length).putInt(words)
+                        .putInt(classLabels.size()).putLong(rows).putLong(namesOffset);
+                fixed.clear();
+                while (fixed.hasRemaining()) {
+                    channel.write(fixed, fixed.position());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts a CSV or ARFF symptom file, whose last column is the disease,
+     * to the packed format, streaming row by row. Returns the number of rows.
+     */
+    public static long convert(File input, File output) throws IOException {
+        if (input.getName().toLowerCase(Locale.ROOT).endsWith(".arff")) {
+            return convertArff(input, output);
+        }
+        try (CsvReader reader = CsvReader.open(input)) {
+            String[] header = reader.next();
+            if (header == null || header.length < 2) {
+                throw new IOException("No symptom columns in " + input);
+            }
+            int classColumn = header.length - 1;
+            String[] names = Arrays.copyOf(header, classColumn);
+            try (Writer writer = new Writer(output, names, header[classColumn], new ArrayList<>())) {
+                long[] bits = new long[wordsFor(classColumn)];
+                String[] record;
+                while ((record = reader.next()) != null) {
+                    Arrays.fill(bits, 0);
+                    int n = Math.min(record.length, classColumn);
+                    for (int i = 0; i < n; i++) {
+                        if (SymptomVocabulary.isPresentValue(record[i])) {
+                            bits[i >>> 6] |= 1L << i;
+                        }
+                    }
+                    String label = (classColumn < record.length) ? record[classColumn] : "";
+                    writer.add(bits, (label.isEmpty() || label.equals("?")) ? null : label);
+                }
+                return writer.rows();
+            }
+        }
+    }
+
+    private static long convertArff(File input, File output) throws IOException {
+        ArffLoader loader = new ArffLoader();
+        loader.setFile(input);
+        Instances structure = loader.getStructure();
+        int classColumn = structure.numAttributes() - 1;
+        structure.setClassIndex(classColumn);
+        String[] names = new String[classColumn];
+        for (int i = 0; i < classColumn; i++) {
+            names[i] = structure.attribute(i).name();
+        }
+        List<String> labels = new ArrayList<>();
+        Attribute classAttribute = structure.classAttribute();
+        if (classAttribute.isNominal()) {
+            for (int v = 0; v < classAttribute.numValues(); v++) {
+                labels.add(classAttribute.value(v));
+            }
+        }
+        try (Writer writer = new Writer(output, names, classAttribute.name(), labels)) {
+            long[] bits = new long[wordsFor(classColumn)];
+            Instance row;
+            while ((row = loader.getNextInstance(structure)) != null) {
+                Arrays.fill(bits, 0);
+                for (int i = 0; i < classColumn; i++) {
+                    Attribute attribute = structure.attribute(i);
+                    if (row.isMissing(i)) {
+                        continue;
+                    }
+                    boolean present = attribute.isNominal()
+                            ? "1".equals(attribute.value((int) row.value(i)))
+                            : row.value(i) == 1.0;
+                    if (present) {
+                        bits[i >>> 6] |= 1L << i;
+                    }
+                }
+                writer.add(bits, row.classIsMissing() ? null : row.stringValue(classColumn));
+            }
+            return writer.rows();
+        }
+    }
+
+    /**
+     * Usage: {@code PackedDataset <input.csv|input.arff> [output.packed]}.
+     * Converts the file, then compares loading it with CSVLoader and with the
+     * packed reader.
+     */
+    public static void main(String[] args) throws Exception {
+        File input = new File(args.length > 0 ? args[0] : ModelStore.DATASET_FILE);
+        File output = new File(args.length > 1 ? args[1]
+                : input.getPath().replaceFirst("\\.(csv|arff)$", "") + EXTENSION);
+        long rows = convert(input, output);
+        System.out.printf("Packed %d rows: %,d bytes of text -> %,d bytes%n", rows, input.length(), output.length());
+
+        for (int round = 0; round < 3; round++) {
+            long heap = usedHeap();
+            long start = System.nanoTime();
+            CSVLoader loader = new CSVLoader();
+            loader.setSource(input);
+            Instances csv = loader.getDataSet();
+            long csvNanos = System.nanoTime() - start;
+            long csvHeap = usedHeap() - heap;
+
+            heap = usedHeap();
+            start = System.nanoTime();
+            PackedDataset packed = open(output);
+            long[] bits = new long[packed.words()];
+            long checksum = 0;
+            for (long r = 0; r < packed.numRows(); r++) {
+                packed.bits(r, bits);
+                checksum += bits[0] + packed.classId(r);
+            }
+            long packedNanos = System.nanoTime() - start;
+            long packedHeap = usedHeap() - heap;
+
+            start = System.nanoTime();
+            Instances sparse = packed.toInstances();
+            long sparseNanos = System.nanoTime() - start;
+            long sparseHeap = usedHeap() - heap;
+
+            System.out.printf("Round %d: CSVLoader %.1f ms, %,d bytes heap (%d rows) | packed scan %.1f ms,"
+                            + " %,d bytes heap (checksum %d) | as sparse Instances %.1f ms, %,d bytes heap%n",
+                    round, csvNanos / 1e6, csvHeap, csv.numInstances(), packedNanos / 1e6, packedHeap, checksum,
+                    sparseNanos / 1e6, sparseHeap);
+            if (sparse.numInstances() != csv.numInstances()) {
+                throw new IllegalStateException("Row count mismatch");
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
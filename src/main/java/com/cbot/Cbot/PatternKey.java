@@ -0,0 +1,41 @@
+package com.cbot.Cbot;
+
+import java.util.Arrays;
+
+/**
+ * A row's pattern and label as a hash key compared by content: symptom bits
+ * and a class index, or any row's values as raw double bits. The array is
+ * kept, not copied, and must not change while the key is in use.
+ */
+final class PatternKey {
+
+    final long[] bits;
+    final int label;
+    private final int hash;
+
+    PatternKey(long[] bits, int label) {
+        this.bits = bits;
+        this.label = label;
+        this.hash = 31 * Arrays.hashCode(bits) + label;
+    }
+
+    /** Compares values the way {@link Arrays#equals(double[], double[])} does. */
+    static PatternKey of(double[] values) {
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToLongBits(values[i]);
+        }
+        return new PatternKey(bits, 0);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PatternKey && label == ((PatternKey) other).label
+                && Arrays.equals(bits, ((PatternKey) other).bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,43 @@
+package com.cbot.Cbot;
+
+/**
+ * The forest's answer for one consultation: the predicted disease and the
+ * class distribution it was chosen from.
+ */
+public final class Prediction {
+
+    private final int classIndex;
+    private final String disease;
+    private final double[] distribution;
+    private final long modelVersion;
+
+    Prediction(int classIndex, String disease, double[] distribution, long modelVersion) {
+        this.classIndex = classIndex;
+        this.disease = disease;
+        this.distribution = distribution;
+        this.modelVersion = modelVersion;
+    }
+
+    public int classIndex() {
+        return classIndex;
+    }
+
+    public String disease() {
+        return disease;
+    }
+
+    /** Probability the forest assigns to the predicted disease. */
+    public double probability() {
+        return distribution[classIndex];
+    }
+
+    /** {@link DiagnosisEngine#version()} of the model that made the prediction. */
+    public long modelVersion() {
+        return modelVersion;
+    }
+
+    /** Probability of every class, indexed like the model's class attribute. */
+    public double[] distribution() {
+        return distribution.clone();
+    }
+}
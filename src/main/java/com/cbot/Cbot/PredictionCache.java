@@ -0,0 +1,216 @@
+package com.cbot.Cbot;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of finished consultations keyed by their yes-set: the forest
+ * only ever sees the yes answers, and with a few dozen symptoms per disease
+ * and at most {@link ConsultationSession#MAX_QUESTIONS} answers real traffic
+ * repeats the same sets. A hit skips classification and the knowledge base
+ * lookups and returns the shared prediction and rendered advice.
+ *
+ * <p>Entries live in striped, access-ordered maps, each evicting its least
+ * recently used entry past its share of the capacity, so sessions on
+ * different stripes never contend. The cache holds the answers of one model
+ * version at a time: the first lookup with a newer engine drops everything,
+ * and lookups with an older engine, from sessions that started before a
+ * hot swap, bypass it.</p>
+ */
+public final class PredictionCache {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final String CAPACITY_PROPERTY = "hcb.cache.capacity";
+
+    private static final int MAX_STRIPES = 16;
+
+    /** A cached answer: the prediction and the advice for its disease. */
+    public static final class Entry {
+
+        private final Prediction prediction;
+        private final KnowledgeBase.Advice advice;
+
+        Entry(Prediction prediction, KnowledgeBase.Advice advice) {
+            this.prediction = prediction;
+            this.advice = advice;
+        }
+
+        public Prediction prediction() {
+            return prediction;
+        }
+
+        public KnowledgeBase.Advice advice() {
+            return advice;
+        }
+    }
+
+    // The yes-bitset, copied so later answers cannot change a stored key
+    private static final class Key {
+        final long[] bits;
+        final int hash;
+
+        Key(long[] bits) {
+            this.bits = bits.clone();
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(bits, ((Key) other).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<Key, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+        final LongAdder evictions;
+
+        Stripe(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final KnowledgeBase knowledgeBase;
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile long version = Long.MIN_VALUE;
+
+    /**
+     * @param capacity most entries kept, split evenly over the stripes;
+     *                 zero turns caching off and every lookup is computed
+     */
+    public PredictionCache(KnowledgeBase knowledgeBase, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity " + capacity);
+        }
+        this.knowledgeBase = knowledgeBase;
+        this.capacity = capacity;
+        int count = Math.max(1, Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, capacity / 64))));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so the stripes add up to exactly the capacity
+            stripes[i] = new Stripe(capacity / count + ((i < capacity % count) ? 1 : 0), evictions);
+        }
+    }
+
+    /** A cache of {@value #CAPACITY_PROPERTY} entries, {@value #DEFAULT_CAPACITY} by default. */
+    public static PredictionCache withDefaultCapacity(KnowledgeBase knowledgeBase) {
+        return new PredictionCache(knowledgeBase, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * The engine's answer for the consultation's yes answers, from the cache
+     * when an earlier consultation had the same yes-set; null when the
+     * forest gives no class any probability.
+     */
+    public Entry get(DiagnosisEngine engine, ConsultationBits consultation) {
+        long engineVersion = engine.version();
+        if (engineVersion != version) {
+            if (engineVersion < version) {
+                misses.increment();
+                return compute(engine, consultation);
+            }
+            invalidate(engineVersion);
+        }
+        Key key = new Key(consultation.yesBits());
+        Stripe stripe = stripes[(key.hash ^ (key.hash >>> 16)) & (stripes.length - 1)];
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+        }
+        if (entry != null && entry.prediction.modelVersion() == engineVersion) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        // Classify outside the lock; two sessions missing on the same set both compute the same answer
+        entry = compute(engine, consultation);
+        if (entry != null && capacity > 0 && engineVersion == version) {
+            synchronized (stripe) {
+                stripe.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    private Entry compute(DiagnosisEngine engine, ConsultationBits consultation) {
+        Prediction prediction = engine.predict(consultation);
+        return (prediction == null) ? null : new Entry(prediction, knowledgeBase.advice(prediction.disease()));
+    }
+
+    private synchronized void invalidate(long engineVersion) {
+        if (engineVersion <= version) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        if (version != Long.MIN_VALUE) {
+            invalidations.increment();
+        }
+        version = engineVersion;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Share of lookups answered from the cache, 0 before the first lookup. */
+    public double hitRatio() {
+        long hit = hits();
+        long total = hit + misses();
+        return (total == 0) ? 0 : (double) hit / total;
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Times the cache was emptied because a newer model version came in. */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+}
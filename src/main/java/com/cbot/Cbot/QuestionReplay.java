@@ -0,0 +1,107 @@
+package com.cbot.Cbot;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+
+/**
+ * Offline replay of labelled rows as consultations: the simulated patient
+ * names the first symptom of the row and answers every question from the row.
+ * Reports, per question strategy, how many questions were needed and how often
+ * the consultation ended with a (correct) prediction.
+ *
+ * <p>Usage: {@code QuestionReplay [rows.csv]} (default {@code Data/testingSet.csv}).
+ * The disease profiles are built from the training split, so the replayed
+ * held-out rows are unseen by the strategy as well as by the model.</p>
+ */
+public final class QuestionReplay {
+
+    private QuestionReplay() {
+    }
+
+    /** Totals for one strategy over a replay. */
+    static final class Result {
+        int consultations;
+        long questions;
+        int predicted;
+        int correct;
+        long selectionNanos;
+        long selections;
+
+        @Override
+        public String toString() {
+            return String.format("avg questions %.2f, predicted %.1f%%, correct %.1f%% of all, %.2f us per question",
+                    (double) questions / consultations,
+                    100.0 * predicted / consultations,
+                    100.0 * correct / consultations,
+                    selectionNanos / 1000.0 / Math.max(1, selections));
+        }
+    }
+
+    static Result replay(DiagnosisEngine engine, QuestionStrategy strategy, Instances rows) {
+        SymptomVocabulary vocabulary = engine.vocabulary();
+        int[] columns = vocabulary.columnsOf(rows);
+        Result result = new Result();
+        QuestionStrategy timed = (consultation, previousIndex) -> {
+            long start = System.nanoTime();
+            int next = strategy.nextQuestion(consultation, previousIndex);
+            result.selectionNanos += System.nanoTime() - start;
+            result.selections++;
+            return next;
+        };
+
+        for (Instance row : rows) {
+            long[] truth = vocabulary.encode(row, columns);
+            int first = firstSetBit(truth);
+            if (first < 0) {
+                continue;
+            }
+            ConsultationSession session = new ConsultationSession(engine, timed);
+            session.start(vocabulary.name(first));
+            while (session.state() == ConsultationSession.State.AWAITING_ANSWER) {
+                int question = session.currentQuestion();
+                session.answer((truth[question >>> 6] & (1L << question)) != 0);
+            }
+
+            result.consultations++;
+            result.questions += session.answers().askedCount();
+            Prediction prediction = session.prediction();
+            if (prediction != null) {
+                result.predicted++;
+                String label = rows.classAttribute().value((int) row.classValue());
+                if (KnowledgeBase.diseaseKey(label).equals(KnowledgeBase.diseaseKey(prediction.disease()))) {
+                    result.correct++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int firstSetBit(long[] bits) {
+        for (int w = 0; w < bits.length; w++) {
+            if (bits[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+            }
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Profiles from the training split only: Dataset.csv holds the held-out rows too, which would leak them
+        DiagnosisEngine engine = new DiagnosisEngine(new ModelStore().loadOrTrain(), new File(ModelStore.TRAIN_FILE));
+
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(args.length > 0 ? args[0] : ModelStore.TEST_FILE));
+        Instances rows = loader.getDataSet();
+        rows.setClassIndex(rows.numAttributes() - 1);
+
+        // Warm up the JIT before timing
+        replay(engine, engine.questionStrategy(), rows);
+
+        System.out.println("Replayed " + rows.numInstances() + " rows");
+        System.out.println("Sequential:       " + replay(engine, QuestionStrategy.SEQUENTIAL, rows));
+        System.out.println("Information gain: " + replay(engine, engine.questionStrategy(), rows));
+    }
+}
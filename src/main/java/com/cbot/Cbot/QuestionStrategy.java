@@ -0,0 +1,22 @@
+package com.cbot.Cbot;
+
+/**
+ * Chooses the symptom a consultation asks about next.
+ */
+public interface QuestionStrategy {
+
+    /**
+     * Returns the index of the next symptom to ask about, or -1 when there is
+     * nothing useful left to ask.
+     *
+     * @param consultation the answers so far
+     * @param previousIndex the symptom answered last
+     */
+    int nextQuestion(ConsultationBits consultation, int previousIndex);
+
+    /** The original behaviour: ask about the column that follows the previous answer. */
+    QuestionStrategy SEQUENTIAL = (consultation, previousIndex) -> {
+        int nextIndex = previousIndex + 1;
+        return (nextIndex < consultation.numSymptoms()) ? nextIndex : -1;
+    };
+}
@@ -0,0 +1,536 @@
+package com.cbot.Cbot;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Chunk;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.ListItem;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.ColumnText;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfPageEventHelper;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Renders printable PDF summaries of finished consultations with iText, off
+ * the interactive path.
+ *
+ * <p>{@link Report#of} snapshots a session on the caller's thread, which
+ * costs a few microseconds; the PDF is rendered on a fixed pool of
+ * low-priority daemon workers fed by a bounded queue. When the queue is full
+ * {@link #submit} fails at once with {@link QueueFullException} instead of
+ * blocking, so a burst of reports can never slow an answer down. Fonts are
+ * created once per process, and the letterhead is rendered once into a
+ * one-page PDF that every report stamps under its pages, each worker keeping
+ * its own reader of it. Files are written to a temporary name and moved into
+ * place, so a reader never sees half a report.</p>
+ */
+public final class ReportService implements Closeable {
+
+    public static final String DEFAULT_DIRECTORY = "Data/reports";
+    /** Where {@link #openDefault} writes reports; an empty value turns reports off. */
+    public static final String DIRECTORY_PROPERTY = "hcb.reports.dir";
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static final int DIFFERENTIAL_ROWS = 5;
+
+    private static final BaseFont HELVETICA = baseFont(BaseFont.HELVETICA);
+    private static final BaseFont HELVETICA_BOLD = baseFont(BaseFont.HELVETICA_BOLD);
+    private static final Font TITLE = new Font(HELVETICA_BOLD, 16, Font.NORMAL, BaseColor.WHITE);
+    private static final Font HEADING = new Font(HELVETICA_BOLD, 12, Font.NORMAL, new BaseColor(0x1f, 0x4e, 0x79));
+    private static final Font BODY = new Font(HELVETICA, 10);
+    private static final Font BOLD = new Font(HELVETICA_BOLD, 10);
+    private static final Font SMALL = new Font(HELVETICA, 8, Font.NORMAL, BaseColor.DARK_GRAY);
+    private static final Font WARNING = new Font(HELVETICA_BOLD, 10, Font.NORMAL, new BaseColor(0xb0, 0x1c, 0x1c));
+
+    // The letterhead, rendered once; PdfReader is not thread-safe, so each worker parses its own copy
+    private static final byte[] LETTERHEAD = letterhead();
+    private static final ThreadLocal<PdfReader> LETTERHEAD_READER = ThreadLocal.withInitial(() -> {
+        try {
+            return new PdfReader(LETTERHEAD);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    });
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    // Several processes may report into one directory, and each counts from one
+    private static final long PROCESS = ProcessHandle.current().pid();
+
+    /** Thrown by {@link #submit} when every worker is busy and the queue is full. */
+    public static final class QueueFullException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        QueueFullException(int capacity) {
+            super("Report queue is full (" + capacity + " reports)");
+        }
+    }
+
+    /** What a report shows, copied from a finished consultation. */
+    public static final class Report {
+        private final long createdAt;
+        private final long sequence;
+        private final String patient;
+        private final long modelVersion;
+        private final List<String> reported;
+        private final List<String> denied;
+        private final String disease;
+        private final double probability;
+        private final KnowledgeBase.Advice advice;
+        private final List<DifferentialIndex.Candidate> differential;
+
+        private Report(long createdAt, String patient, long modelVersion, List<String> reported, List<String> denied,
+                       String disease, double probability, KnowledgeBase.Advice advice,
+                       List<DifferentialIndex.Candidate> differential) {
+            this.createdAt = createdAt;
+            this.sequence = SEQUENCE.incrementAndGet();
+            this.patient = patient;
+            this.modelVersion = modelVersion;
+            this.reported = reported;
+            this.denied = denied;
+            this.disease = disease;
+            this.probability = probability;
+            this.advice = advice;
+            this.differential = differential;
+        }
+
+        /**
+         * Snapshots a consultation, finished or not; {@code patient} may be
+         * null. Symptoms are listed in the order they were answered.
+         */
+        public static Report of(ConsultationSession session, String patient) {
+            DiagnosisEngine engine = session.engine();
+            ConsultationBits answers = session.answers();
+            List<String> reported = new ArrayList<>();
+            List<String> denied = new ArrayList<>();
+            for (int symptom : session.askedOrder()) {
+                String symptomName = engine.vocabulary().name(symptom).trim().replace('_', ' ');
+                (answers.isYes(symptom) ? reported : denied).add(symptomName);
+            }
+            Prediction prediction = session.prediction();
+            String name = (patient == null || patient.isBlank()) ? null : patient.trim();
+            return new Report(System.currentTimeMillis(), name, engine.version(), reported, denied,
+                    (prediction == null) ? null : prediction.disease().trim(),
+                    (prediction == null) ? 0 : prediction.probability(), session.advice(),
+                    engine.differential(answers, DIFFERENTIAL_ROWS));
+        }
+
+        /** The predicted disease, or null when there was no prediction. */
+        public String disease() {
+            return disease;
+        }
+
+        public List<String> reported() {
+            return Collections.unmodifiableList(reported);
+        }
+
+        /** A file name unique across running processes, e.g. {@code report-20240131-142501-4711-7.pdf}. */
+        public String fileName() {
+            return String.format("report-%tY%<tm%<td-%<tH%<tM%<tS-%d-%d.pdf", createdAt, PROCESS, sequence);
+        }
+    }
+
+    private final File directory;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor workers;
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param directory     where {@link #submit(Report)} writes, created on demand; may be null when
+     *                      reports only go to explicit files and streams
+     * @param workerCount   threads rendering at once
+     * @param queueCapacity reports waiting for a worker before submissions are refused
+     */
+    public ReportService(File directory, int workerCount, int queueCapacity) {
+        this.directory = directory;
+        this.queueCapacity = queueCapacity;
+        // Rendering is throughput work; interactive threads keep the normal priority
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Threads.daemonFactory("report-renderer", Thread.MIN_PRIORITY),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Reports into {@value #DIRECTORY_PROPERTY}, {@value #DEFAULT_DIRECTORY}
+     * by default, with a worker per two processors; null when the property
+     * is set to an empty value.
+     */
+    public static ReportService openDefault() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY).trim();
+        if (directory.isEmpty()) {
+            return null;
+        }
+        int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new ReportService(new File(directory), workerCount, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Queues the report for the service's directory; the future completes
+     * with the written file, or fails rather than replace an existing one.
+     */
+    public Future<File> submit(Report report) {
+        if (directory == null) {
+            throw new IllegalStateException("This report service has no directory");
+        }
+        return write(report, new File(directory, report.fileName()), false);
+    }
+
+    /** Queues the report for {@code file}; the future completes with the file once it is in place. */
+    public Future<File> submit(Report report, File file) {
+        return write(report, file, true);
+    }
+
+    private Future<File> write(Report report, File file, boolean replace) {
+        return execute(() -> {
+            Path target = file.toPath().toAbsolutePath();
+            Files.createDirectories(target.getParent());
+            Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                    render(report, out);
+                }
+                if (replace) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    // An atomic rename may silently replace the target, so a generated name moves plainly
+                    Files.move(tmp, target);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return file;
+        });
+    }
+
+    /**
+     * Queues the report to be streamed into {@code out}, which the worker
+     * flushes but does not close; the future completes once it is written.
+     */
+    public Future<Void> submit(Report report, OutputStream out) {
+        return execute(() -> {
+            render(report, out);
+            out.flush();
+            return null;
+        });
+    }
+
+    private <T> Future<T> execute(Callable<T> task) {
+        try {
+            return workers.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    T result = task.call();
+                    rendered.increment();
+                    return result;
+                } catch (Exception | Error e) {
+                    failed.increment();
+                    throw e;
+                } finally {
+                    Metrics.Stage.REPORT_RENDER.recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (workers.isShutdown()) {
+                throw new IllegalStateException("Report service is closed");
+            }
+            throw new QueueFullException(queueCapacity);
+        }
+    }
+
+    /** Renders the report as PDF into {@code out} on the calling thread; {@code out} is left open. */
+    public static void render(Report report, OutputStream out) throws DocumentException {
+        Document document = new Document(PageSize.A4, 50, 50, 100, 60);
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        writer.setCloseStream(false);
+        writer.setPageEvent(new PdfPageEventHelper() {
+            @Override
+            public void onEndPage(PdfWriter pageWriter, Document pageDocument) {
+                PdfImportedPage letterhead = pageWriter.getImportedPage(LETTERHEAD_READER.get(), 1);
+                pageWriter.getDirectContentUnder().addTemplate(letterhead, 0, 0);
+            }
+        });
+        document.addTitle("Consultation report");
+        document.addCreator("Healthcare Chatbot");
+        document.open();
+
+        PdfPTable details = new PdfPTable(2);
+        details.setWidthPercentage(100);
+        details.setWidths(new float[] {1, 3});
+        row(details, "Date", String.format("%tF %<tR", report.createdAt));
+        if (report.patient != null) {
+            row(details, "Patient", report.patient);
+        }
+        row(details, "Model version", Long.toString(report.modelVersion));
+        document.add(details);
+
+        section(document, "Symptoms reported");
+        document.add(list(report.reported, "None"));
+        if (!report.denied.isEmpty()) {
+            section(document, "Symptoms denied");
+            document.add(list(report.denied, "None"));
+        }
+
+        section(document, "Predicted disease");
+        if (report.disease == null) {
+            document.add(new Paragraph("Not enough symptoms were reported to predict a disease.", BODY));
+        } else {
+            Paragraph prediction = new Paragraph();
+            prediction.add(new Chunk(report.disease, BOLD));
+            prediction.add(new Chunk(String.format(" (model confidence %.0f%%)", 100 * report.probability), BODY));
+            document.add(prediction);
+            KnowledgeBase.Advice advice = report.advice;
+            if (advice != null && advice.severity() >= 0) {
+                document.add(advice.isHighSeverity()
+                        ? new Paragraph("Severity: high. Please consult a doctor.", WARNING)
+                        : new Paragraph("Severity: moderate. Take the precautions below.", BODY));
+            }
+            if (advice != null && advice.description() != null) {
+                section(document, "Description");
+                document.add(new Paragraph(advice.description(), BODY));
+            }
+            if (advice != null && !advice.precautions().isEmpty()) {
+                section(document, "Precautions");
+                document.add(list(advice.precautions(), "None"));
+            }
+        }
+
+        if (!report.differential.isEmpty()) {
+            section(document, "Differential diagnosis");
+            PdfPTable table = new PdfPTable(3);
+            table.setWidthPercentage(100);
+            table.setWidths(new float[] {3, 1, 5});
+            table.setHeaderRows(1);
+            header(table, "Disease");
+            header(table, "Match");
+            header(table, "Matching symptoms");
+            for (DifferentialIndex.Candidate candidate : report.differential) {
+                table.addCell(cell(candidate.name().trim(), BODY));
+                table.addCell(cell(String.format("%.0f%%", 100 * candidate.score()), BODY));
+                table.addCell(cell(String.join(", ", candidate.matched()).replace('_', ' '), BODY));
+            }
+            document.add(table);
+        }
+        document.close();
+    }
+
+    private static void section(Document document, String title) throws DocumentException {
+        Paragraph heading = new Paragraph(title, HEADING);
+        heading.setSpacingBefore(12);
+        heading.setSpacingAfter(4);
+        document.add(heading);
+    }
+
+    private static com.itextpdf.text.List list(List<String> items, String empty) {
+        com.itextpdf.text.List list = new com.itextpdf.text.List(com.itextpdf.text.List.UNORDERED, 12);
+        list.setListSymbol(new Chunk("\u2022", BODY));
+        for (String item : items.isEmpty() ? Collections.singletonList(empty) : items) {
+            list.add(new ListItem(item, BODY));
+        }
+        return list;
+    }
+
+    private static void row(PdfPTable table, String label, String value) {
+        PdfPCell name = cell(label, BOLD);
+        PdfPCell content = cell(value, BODY);
+        name.setBorder(Rectangle.NO_BORDER);
+        content.setBorder(Rectangle.NO_BORDER);
+        table.addCell(name);
+        table.addCell(content);
+    }
+
+    private static void header(PdfPTable table, String title) {
+        PdfPCell cell = cell(title, BOLD);
+        cell.setBackgroundColor(new BaseColor(0xdd, 0xe6, 0xf0));
+        table.addCell(cell);
+    }
+
+    private static PdfPCell cell(String text, Font font) {
+        PdfPCell cell = new PdfPCell(new Phrase(text, font));
+        cell.setPadding(4);
+        return cell;
+    }
+
+    // One A4 page with the title band and the footer, stamped under every report page
+    private static byte[] letterhead() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Document document = new Document(PageSize.A4);
+            PdfWriter writer = PdfWriter.getInstance(document, bytes);
+            document.open();
+            PdfContentByte canvas = writer.getDirectContent();
+            Rectangle page = document.getPageSize();
+            canvas.setColorFill(new BaseColor(0x1f, 0x4e, 0x79));
+            canvas.rectangle(0, page.getHeight() - 70, page.getWidth(), 70);
+            canvas.fill();
+            ColumnText.showTextAligned(canvas, Element.ALIGN_LEFT,
+                    new Phrase("Healthcare Chatbot - Consultation report", TITLE), 50, page.getHeight() - 45, 0);
+            ColumnText.showTextAligned(canvas, Element.ALIGN_CENTER,
+                    new Phrase("This summary was generated automatically and is not a medical diagnosis."
+                            + " Please consult a doctor.", SMALL), page.getWidth() / 2, 30, 0);
+            // Only direct content on the page; without this iText would refuse an "empty" document
+            writer.setPageEmpty(false);
+            document.close();
+            return bytes.toByteArray();
+        } catch (DocumentException e) {
+            throw new IllegalStateException("Unable to render the report letterhead", e);
+        }
+    }
+
+    private static BaseFont baseFont(String name) {
+        try {
+            return BaseFont.createFont(name, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+        } catch (DocumentException | IOException e) {
+            throw new IllegalStateException("Built-in font " + name + " is unavailable", e);
+        }
+    }
+
+    /** Where {@link #submit(Report)} writes, or null. */
+    public File directory() {
+        return directory;
+    }
+
+    /** Reports written, to a file or a stream. */
+    public long rendered() {
+        return rendered.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    /** Submissions refused because the queue was full. */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** Reports waiting for a worker. */
+    public int queued() {
+        return workers.getQueue().size();
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    /** Stops taking reports and waits up to five seconds for the queued ones. */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Measures report throughput: replays scripted consultations from
+     * {@code rows.csv} (default the testing set) and renders a report of each
+     * into a temporary directory. Usage: {@code ReportService [--reports n]
+     * [--workers n] [rows.csv]}
+     */
+    public static void main(String[] args) throws Exception {
+        File rows = new File(ModelStore.TEST_FILE);
+        int count = 2_000;
+        int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--reports":
+                    count = Integer.parseInt(args[++i]);
+                    break;
+                case "--workers":
+                    workerCount = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    rows = new File(args[i]);
+            }
+        }
+        List<LoadGenerator.Script> scripts = LoadGenerator.scripts(rows);
+        List<Report> reports = new ArrayList<>();
+        try (ModelHolder models = ModelHolder.load()) {
+            PredictionCache predictions = PredictionCache.withDefaultCapacity(KnowledgeBase.getDefault());
+            for (int i = 0; i < count; i++) {
+                LoadGenerator.Script script = scripts.get(i % scripts.size());
+                DiagnosisEngine engine = models.current();
+                ConsultationSession session = new ConsultationSession(engine, predictions);
+                ConsultationSession.State state = session.start(engine.resolver().resolve(script.firstSymptom(i)));
+                while (state == ConsultationSession.State.AWAITING_ANSWER) {
+                    state = session.answer(script.answer(session.currentQuestionName()));
+                }
+                reports.add(Report.of(session, "Patient " + i));
+            }
+        }
+
+        Path directory = Files.createTempDirectory("hcb-reports");
+        // A warm-up pass so class loading and the JIT are not timed
+        for (int i = 0; i < Math.min(200, reports.size()); i++) {
+            render(reports.get(i), OutputStream.nullOutputStream());
+        }
+        long bytes = 0;
+        long start = System.nanoTime();
+        try (ReportService service = new ReportService(directory.toFile(), workerCount, DEFAULT_QUEUE_CAPACITY)) {
+            ArrayDeque<Future<File>> pending = new ArrayDeque<>();
+            for (Report report : reports) {
+                while (true) {
+                    try {
+                        pending.add(service.submit(report));
+                        break;
+                    } catch (QueueFullException e) {
+                        // Backpressure: wait for the oldest report instead of spinning
+                        bytes += pending.remove().get().length();
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                bytes += pending.remove().get().length();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%,d reports on %d worker(s) in %.2f s: %.0f reports/s, %,d bytes each on average,"
+                            + " %d rejected and retried%n", reports.size(), workerCount, nanos / 1e9,
+                    reports.size() / (nanos / 1e9), bytes / reports.size(), service.rejected());
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+}
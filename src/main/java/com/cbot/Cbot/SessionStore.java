@@ -0,0 +1,152 @@
+package com.cbot.Cbot;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live consultations keyed by an unguessable id. The store holds at most
+ * {@code capacity} sessions and drops any session that has not been touched
+ * for the idle timeout; a background sweeper enforces the timeout.
+ */
+public final class SessionStore implements Closeable {
+
+    /** Thrown when a new session does not fit even after evicting idle ones. */
+    public static final class StoreFullException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StoreFullException(int capacity) {
+            super("Session store is full (" + capacity + " sessions)");
+        }
+    }
+
+    private static final class Entry {
+        final ConsultationSession session;
+        volatile long lastAccess;
+
+        Entry(ConsultationSession session, long now) {
+            this.session = session;
+            this.lastAccess = now;
+        }
+    }
+
+    private final int capacity;
+    private final long idleTimeoutNanos;
+    private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService sweeper;
+
+    public SessionStore(int capacity, long idleTimeout, TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("session-sweeper"));
+        long period = Math.max(1, unit.toMillis(idleTimeout) / 4);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stores a session and returns its id.
+     *
+     * @throws StoreFullException if the store is at capacity
+     */
+    public String add(ConsultationSession session) {
+        if (!reserveSlot()) {
+            evictIdle();
+            if (!reserveSlot()) {
+                throw new StoreFullException(capacity);
+            }
+        }
+        Entry entry = new Entry(session, System.nanoTime());
+        while (true) {
+            String id = newId();
+            if (sessions.putIfAbsent(id, entry) == null) {
+                return id;
+            }
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Returns the session and marks it active, or null when it is unknown or expired. */
+    public ConsultationSession get(String id) {
+        Entry entry = sessions.get(id);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - entry.lastAccess > idleTimeoutNanos) {
+            if (sessions.remove(id, entry)) {
+                size.decrementAndGet();
+            }
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry.session;
+    }
+
+    public boolean remove(String id) {
+        if (sessions.remove(id) != null) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Drops every session idle for longer than the timeout and returns how many went. */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Iterator<Map.Entry<String, Entry>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> mapping = it.next();
+            if (now - mapping.getValue().lastAccess > idleTimeoutNanos
+                    && sessions.remove(mapping.getKey(), mapping.getValue())) {
+                size.decrementAndGet();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        sessions.clear();
+        size.set(0);
+    }
+}
@@ -0,0 +1,629 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Randomizable;
+import weka.core.SparseInstance;
+import weka.core.converters.CSVLoader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a RandomForest on a symptom CSV too large to load as Weka instances,
+ * in one streaming pass and bounded memory.
+ *
+ * <p>While the file is read row by row, every tree draws a Poisson(1) number
+ * of copies of each training row, which is how many times a bootstrap would
+ * pick it, and keeps the copies in a reservoir of at most {@code sampleSize}
+ * rows (Algorithm R). Up to that size a tree sees a bootstrap of the data,
+ * beyond it a uniform subsample of one; either way a reservoir is a few bytes
+ * of packed symptom bits per row. After the pass each reservoir is collapsed
+ * into weighted unique rows and the trees are built in parallel with the
+ * options {@link ModelStore} uses, then installed in a plain
+ * {@link RandomForest}, so snapshots, {@link CompiledForest} and Weka itself
+ * treat the result like any other forest.</p>
+ *
+ * <p>Rows are held out by hashing their symptom pattern, exactly as
+ * {@link DatasetPreprocessor#hashedSplit} does, so no pattern lands on both
+ * sides and both trainers hold out the same rows.</p>
+ */
+public final class StreamingForestTrainer {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 50_000;
+    public static final String SAMPLE_SIZE_PROPERTY = "hcb.training.sample";
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    // Cumulative Poisson(1) probabilities; the last entry is 1 so every draw ends
+    private static final double[] POISSON_CDF = poissonCdf(12);
+
+    private final String[] classifierOptions;
+    private final int sampleSize;
+    private final double trainRatio;
+    private final long splitSeed;
+
+    public StreamingForestTrainer(String[] classifierOptions, int sampleSize, double trainRatio, long splitSeed) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Sample size must be positive, got " + sampleSize);
+        }
+        this.classifierOptions = classifierOptions.clone();
+        this.sampleSize = sampleSize;
+        this.trainRatio = trainRatio;
+        this.splitSeed = splitSeed;
+    }
+
+    /** A trainer with {@value #SAMPLE_SIZE_PROPERTY} rows per tree, {@value #DEFAULT_SAMPLE_SIZE} by default. */
+    public static StreamingForestTrainer withDefaultSampleSize(String[] classifierOptions) {
+        return new StreamingForestTrainer(classifierOptions,
+                Integer.getInteger(SAMPLE_SIZE_PROPERTY, DEFAULT_SAMPLE_SIZE),
+                ModelStore.TRAIN_RATIO, ModelStore.SPLIT_SEED);
+    }
+
+    public int sampleSize() {
+        return sampleSize;
+    }
+
+    /** The per-tree samples drawn in one pass, waiting to be built into trees. */
+    public static final class Sample {
+        private final String[] symptoms;
+        private final String className;
+        private final List<String> labels;
+        private final Reservoir[] reservoirs;
+        private final long trainRows;
+        private final long testRows;
+        private final long skippedRows;
+        private final File trainFile;
+        private final File testFile;
+
+        Sample(String[] symptoms, String className, List<String> labels, Reservoir[] reservoirs, long trainRows,
+               long testRows, long skippedRows, File trainFile, File testFile) {
+            this.symptoms = symptoms;
+            this.className = className;
+            this.labels = labels;
+            this.reservoirs = reservoirs;
+            this.trainRows = trainRows;
+            this.testRows = testRows;
+            this.skippedRows = skippedRows;
+            this.trainFile = trainFile;
+            this.testFile = testFile;
+        }
+
+        /**
+         * Numeric 0/1 symptom attributes and a nominal class whose values are
+         * in order of first appearance, as {@link CSVLoader} would build them.
+         */
+        public Instances header() {
+            ArrayList<Attribute> attributes = new ArrayList<>(symptoms.length + 1);
+            for (String name : symptoms) {
+                attributes.add(new Attribute(name));
+            }
+            attributes.add(new Attribute(className, new ArrayList<>(labels)));
+            Instances header = new Instances("streamed", attributes, 0);
+            header.setClassIndex(symptoms.length);
+            return header;
+        }
+
+        public long trainRows() {
+            return trainRows;
+        }
+
+        public long testRows() {
+            return testRows;
+        }
+
+        /** Rows without a disease, which neither side of the split keeps. */
+        public long skippedRows() {
+            return skippedRows;
+        }
+
+        /** Rows each tree will be built from, before duplicates are merged. */
+        public int[] sampledRows() {
+            int[] sizes = new int[reservoirs.length];
+            for (int t = 0; t < reservoirs.length; t++) {
+                sizes[t] = (reservoirs[t] == null) ? 0 : reservoirs[t].size;
+            }
+            return sizes;
+        }
+
+        /** Where the training rows were copied, or null when they were not. */
+        public File trainFile() {
+            return trainFile;
+        }
+
+        /** Where the held-out rows were copied, or null when they were not. */
+        public File testFile() {
+            return testFile;
+        }
+    }
+
+    // One tree's bootstrap: up to capacity rows of packed bits and class ids
+    private static final class Reservoir {
+        final SplittableRandom random;
+        final int words;
+        final int capacity;
+        long[] bits;
+        short[] classes;
+        int size;
+        long seen;
+
+        Reservoir(long seed, int words, int capacity) {
+            this.random = new SplittableRandom(seed);
+            this.words = words;
+            this.capacity = capacity;
+            int slots = Math.min(capacity, INITIAL_SLOTS);
+            this.bits = new long[slots * words];
+            this.classes = new short[slots];
+        }
+
+        void offer(long[] row, int classId) {
+            int copies = poisson(random);
+            for (int c = 0; c < copies; c++) {
+                seen++;
+                int slot;
+                if (size < capacity) {
+                    if (size == classes.length) {
+                        int slots = (int) Math.min(capacity, 2L * classes.length);
+                        bits = Arrays.copyOf(bits, slots * words);
+                        classes = Arrays.copyOf(classes, slots);
+                    }
+                    slot = size++;
+                } else {
+                    long pick = random.nextLong(seen);
+                    if (pick >= capacity) {
+                        continue;
+                    }
+                    slot = (int) pick;
+                }
+                System.arraycopy(row, 0, bits, slot * words, words);
+                classes[slot] = (short) classId;
+            }
+        }
+    }
+
+    /** Draws the per-tree samples from {@code dataset} in one pass; see {@link #sample(File, int, File, File)}. */
+    public Sample sample(File dataset, File trainFile, File testFile) throws Exception {
+        return sample(dataset, 1, trainFile, testFile);
+    }
+
+    /**
+     * Reads {@code dataset} {@code passes} times over, the extra passes
+     * standing in for a larger export, and draws every tree's sample from its
+     * training rows. Training and held-out rows are copied to the given files
+     * as 0/1 CSV when they are not null.
+     */
+    Sample sample(File dataset, int passes, File trainFile, File testFile) throws Exception {
+        long start = System.nanoTime();
+        RandomForest template = ModelStore.newClassifier(classifierOptions);
+        int numTrees = template.getNumIterations();
+
+        String[] header;
+        try (CsvReader reader = CsvReader.open(dataset)) {
+            header = reader.next();
+        }
+        if (header == null || header.length < 2) {
+            throw new IOException("No symptom columns in " + dataset);
+        }
+        int classColumn = header.length - 1;
+        String[] symptoms = Arrays.copyOf(header, classColumn);
+        int words = PackedDataset.wordsFor(classColumn);
+
+        Reservoir[] reservoirs = new Reservoir[numTrees];
+        SplittableRandom seeds = new SplittableRandom(template.getSeed());
+        for (int t = 0; t < numTrees; t++) {
+            reservoirs[t] = new Reservoir(seeds.nextLong(), words, sampleSize);
+        }
+        Map<String, Integer> labelIds = new HashMap<>();
+        List<String> labels = new ArrayList<>();
+        long trainRows = 0;
+        long testRows = 0;
+        long skippedRows = 0;
+
+        try (Writer trainOut = open(trainFile, header); Writer testOut = open(testFile, header)) {
+            long[] bits = new long[words];
+            for (int pass = 0; pass < passes; pass++) {
+                try (CsvReader reader = CsvReader.open(dataset)) {
+                    reader.next();
+                    String[] record;
+                    while ((record = reader.next()) != null) {
+                        Arrays.fill(bits, 0);
+                        int n = Math.min(record.length, classColumn);
+                        for (int i = 0; i < n; i++) {
+                            if (SymptomVocabulary.isPresentValue(record[i])) {
+                                bits[i >>> 6] |= 1L << i;
+                            }
+                        }
+                        String label = (classColumn < record.length) ? record[classColumn].trim() : "";
+                        if (label.isEmpty() || label.equals("?")) {
+                            skippedRows++;
+                            continue;
+                        }
+                        if (heldOut(bits)) {
+                            testRows++;
+                            write(testOut, bits, classColumn, label);
+                            continue;
+                        }
+                        trainRows++;
+                        write(trainOut, bits, classColumn, label);
+                        Integer classId = labelIds.get(label);
+                        if (classId == null) {
+                            if (labels.size() > Short.MAX_VALUE) {
+                                throw new IOException("More than " + Short.MAX_VALUE + " diseases in " + dataset);
+                            }
+                            classId = labels.size();
+                            labelIds.put(label, classId);
+                            labels.add(label);
+                        }
+                        for (Reservoir reservoir : reservoirs) {
+                            reservoir.offer(bits, classId);
+                        }
+                    }
+                }
+            }
+        }
+        Metrics.Stage.DATASET_LOAD.recordSince(start);
+        if (trainRows == 0) {
+            throw new IOException("No labelled training rows in " + dataset);
+        }
+        return new Sample(symptoms, header[classColumn], labels, reservoirs, trainRows, testRows, skippedRows,
+                trainFile, testFile);
+    }
+
+    /**
+     * Whether rows with this symptom pattern belong to the held-out side: a
+     * seeded hash of the pattern, so the choice needs no state across rows.
+     */
+    boolean heldOut(long[] bits) {
+        return DatasetPreprocessor.heldOut(bits, trainRatio, splitSeed);
+    }
+
+    /**
+     * Builds one tree per reservoir on {@code threads} threads and returns
+     * them as a RandomForest. Each reservoir is released as soon as its tree
+     * has its rows, so the sample can only be built once.
+     */
+    public RandomForest build(Sample sample, int threads) throws Exception {
+        long start = System.nanoTime();
+        RandomForest forest = ModelStore.newClassifier(classifierOptions);
+        Classifier[] trees = AbstractClassifier.makeCopies(forest.getClassifier(), sample.reservoirs.length);
+        // Seeded the way Bagging seeds its members
+        Random random = new Random(forest.getSeed());
+        for (Classifier tree : trees) {
+            ((Randomizable) tree).setSeed(random.nextInt());
+        }
+
+        Instances header = sample.header();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, trees.length)),
+                Threads.daemonFactory("forest-builder"));
+        try {
+            List<Future<?>> builds = new ArrayList<>(trees.length);
+            for (int t = 0; t < trees.length; t++) {
+                int index = t;
+                builds.add(pool.submit(() -> {
+                    Instances rows = toInstances(sample, index, header);
+                    trees[index].buildClassifier(rows);
+                    return null;
+                }));
+            }
+            for (Future<?> build : builds) {
+                try {
+                    build.get();
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Bagging has no setter for its members; these two fields are all it classifies with
+        writeField(forest, "m_Classifiers", trees);
+        writeField(forest, "m_NumIterations", trees.length);
+        Metrics.Stage.TRAINING.recordSince(start);
+        return forest;
+    }
+
+    /** Builds the forest with one thread per processor and wraps it in a snapshot. */
+    public ModelSnapshot train(Sample sample, String datasetHash, String trainingOptions) throws Exception {
+        RandomForest forest = build(sample, Runtime.getRuntime().availableProcessors());
+        return new ModelSnapshot(datasetHash, trainingOptions, forest, sample.header());
+    }
+
+    // Merges a reservoir's repeated rows into weighted sparse instances and drops the reservoir
+    private static Instances toInstances(Sample sample, int tree, Instances header) {
+        Reservoir reservoir;
+        synchronized (sample.reservoirs) {
+            reservoir = sample.reservoirs[tree];
+            sample.reservoirs[tree] = null;
+        }
+        if (reservoir == null) {
+            throw new IllegalStateException("The sample for tree " + tree + " was already built");
+        }
+        int words = reservoir.words;
+        Map<PatternKey, Integer> unique = new HashMap<>();
+        List<PatternKey> rows = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (int slot = 0; slot < reservoir.size; slot++) {
+            PatternKey row = new PatternKey(Arrays.copyOfRange(reservoir.bits, slot * words, (slot + 1) * words),
+                    reservoir.classes[slot]);
+            Integer index = unique.get(row);
+            if (index == null) {
+                unique.put(row, rows.size());
+                rows.add(row);
+                weights.add(1.0);
+            } else {
+                weights.set(index, weights.get(index) + 1);
+            }
+        }
+
+        int numSymptoms = header.numAttributes() - 1;
+        Instances data = new Instances(header, rows.size());
+        for (int r = 0; r < rows.size(); r++) {
+            PatternKey row = rows.get(r);
+            int set = 0;
+            for (long word : row.bits) {
+                set += Long.bitCount(word);
+            }
+            int[] indices = new int[set + 1];
+            double[] values = new double[set + 1];
+            int n = 0;
+            for (int w = 0; w < words; w++) {
+                long word = row.bits[w];
+                while (word != 0) {
+                    indices[n] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    values[n] = 1.0;
+                    n++;
+                    word &= word - 1;
+                }
+            }
+            indices[n] = numSymptoms;
+            values[n] = row.label;
+            data.add(new SparseInstance(weights.get(r), values, indices, numSymptoms + 1));
+        }
+        return data;
+    }
+
+    /** Fraction of labelled rows of a 0/1 symptom CSV the engine classifies correctly; 1 when there are none. */
+    public static double accuracy(DiagnosisEngine engine, File labelledCsv) throws IOException {
+        return score(engine, labelledCsv, null);
+    }
+
+    /** {@link #accuracy} over the rows of {@code dataset} this trainer holds out. */
+    public double heldOutAccuracy(DiagnosisEngine engine, File dataset) throws IOException {
+        return score(engine, dataset, this);
+    }
+
+    private static double score(DiagnosisEngine engine, File file, StreamingForestTrainer split)
+            throws IOException {
+        SymptomVocabulary vocabulary = engine.vocabulary();
+        long labelled = 0;
+        long correct = 0;
+        try (CsvReader reader = CsvReader.open(file)) {
+            String[] header = reader.next();
+            if (header == null) {
+                return 1.0;
+            }
+            int classColumn = header.length - 1;
+            int[] columns = new int[classColumn];
+            for (int i = 0; i < classColumn; i++) {
+                columns[i] = vocabulary.indexOf(header[i]);
+            }
+            long[] rowBits = new long[PackedDataset.wordsFor(classColumn)];
+            String[] record;
+            while ((record = reader.next()) != null) {
+                String label = (classColumn < record.length) ? record[classColumn].trim() : "";
+                if (label.isEmpty() || label.equals("?")) {
+                    continue;
+                }
+                Arrays.fill(rowBits, 0);
+                long[] bits = new long[vocabulary.words()];
+                int n = Math.min(record.length, classColumn);
+                for (int i = 0; i < n; i++) {
+                    if (SymptomVocabulary.isPresentValue(record[i])) {
+                        rowBits[i >>> 6] |= 1L << i;
+                        if (columns[i] >= 0) {
+                            bits[columns[i] >>> 6] |= 1L << columns[i];
+                        }
+                    }
+                }
+                if (split != null && !split.heldOut(rowBits)) {
+                    continue;
+                }
+                labelled++;
+                int predicted = engine.forest().classify(bits);
+                if (predicted >= 0 && KnowledgeBase.diseaseKey(label).equals(
+                        KnowledgeBase.diseaseKey(engine.diseaseName(predicted)))) {
+                    correct++;
+                }
+            }
+        }
+        return (labelled == 0) ? 1.0 : (double) correct / labelled;
+    }
+
+    private static Writer open(File file, String[] header) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        Writer out = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), 1 << 16);
+        for (int i = 0; i < header.length; i++) {
+            out.write(i == 0 ? "" : ",");
+            out.write(quote(header[i]));
+        }
+        out.write('\n');
+        return out;
+    }
+
+    private static void write(Writer out, long[] bits, int numSymptoms, String label) throws IOException {
+        if (out == null) {
+            return;
+        }
+        for (int i = 0; i < numSymptoms; i++) {
+            out.write((bits[i >>> 6] & (1L << i)) != 0 ? '1' : '0');
+            out.write(',');
+        }
+        out.write(quote(label));
+        out.write('\n');
+    }
+
+    private static String quote(String value) {
+        return value.contains(",") || value.contains("\"") ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+
+    private static int poisson(SplittableRandom random) {
+        double u = random.nextDouble();
+        int k = 0;
+        while (u >= POISSON_CDF[k]) {
+            k++;
+        }
+        return k;
+    }
+
+    private static double[] poissonCdf(int max) {
+        double[] cdf = new double[max + 1];
+        double p = Math.exp(-1);
+        double sum = 0;
+        for (int k = 0; k < max; k++) {
+            sum += p;
+            cdf[k] = sum;
+            p /= k + 1;
+        }
+        cdf[max] = 1.0;
+        return cdf;
+    }
+
+    private static void writeField(Object target, String name, Object value) throws ReflectiveOperationException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // Keep walking up the hierarchy
+            }
+        }
+        throw new NoSuchFieldException(target.getClass().getName() + "." + name);
+    }
+
+    /**
+     * Usage: {@code StreamingForestTrainer [dataset.csv] [--sample N] [--passes N] [--threads N]}.
+     * Trains by streaming, then in memory on the same split, and compares
+     * held-out accuracy, time and peak heap. {@code --passes} reads the file
+     * that many times over to stand in for a larger export; run with a small
+     * {@code -Xmx} to see the streaming peak stay flat.
+     */
+    public static void main(String[] args) throws Exception {
+        File dataset = new File(ModelStore.DATASET_FILE);
+        int sampleSize = Integer.getInteger(SAMPLE_SIZE_PROPERTY, DEFAULT_SAMPLE_SIZE);
+        int passes = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sample":
+                    sampleSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--passes":
+                    passes = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    dataset = new File(args[i]);
+            }
+        }
+        String[] options = ModelStore.readOptions(new File(ModelStore.OPTIONS_FILE));
+        StreamingForestTrainer trainer = new StreamingForestTrainer(options, sampleSize, ModelStore.TRAIN_RATIO,
+                ModelStore.SPLIT_SEED);
+
+        resetPeakHeap();
+        long start = System.nanoTime();
+        Sample sample = trainer.sample(dataset, passes, null, null);
+        long sampleNanos = System.nanoTime() - start;
+        int[] sampled = sample.sampledRows();
+        RandomForest streamed = trainer.build(sample, threads);
+        long streamedNanos = System.nanoTime() - start;
+        long streamedPeak = peakHeap();
+        DiagnosisEngine streamedEngine = new DiagnosisEngine(
+                new ModelSnapshot("streamed", "streamed", streamed, sample.header()));
+        System.out.printf("Streamed %,d training and %,d held-out rows (%d skipped) in %.1f s, %,d rows per tree"
+                        + " (%,d-%,d), trees built after %.1f s; peak heap %,d KB%n",
+                sample.trainRows(), sample.testRows(), sample.skippedRows(), sampleNanos / 1e9, sampleSize,
+                Arrays.stream(sampled).min().orElse(0), Arrays.stream(sampled).max().orElse(0),
+                streamedNanos / 1e9, streamedPeak / 1024);
+
+        resetPeakHeap();
+        start = System.nanoTime();
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(dataset);
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        Instances train = new Instances(data, data.numInstances());
+        long[] bits = new long[PackedDataset.wordsFor(data.numAttributes() - 1)];
+        for (int r = 0; r < data.numInstances(); r++) {
+            Arrays.fill(bits, 0);
+            for (int i = 0; i < data.numAttributes() - 1; i++) {
+                if (data.instance(r).value(i) == 1.0) {
+                    bits[i >>> 6] |= 1L << i;
+                }
+            }
+            if (!data.instance(r).classIsMissing() && !trainer.heldOut(bits)) {
+                train.add(data.instance(r));
+            }
+        }
+        RandomForest inMemory = ModelStore.newClassifier(options);
+        inMemory.setNumExecutionSlots(threads);
+        inMemory.buildClassifier(DatasetPreprocessor.deduplicate(train));
+        long inMemoryNanos = System.nanoTime() - start;
+        long inMemoryPeak = peakHeap();
+        DiagnosisEngine inMemoryEngine = new DiagnosisEngine(
+                new ModelSnapshot("in-memory", "in-memory", inMemory, data));
+        System.out.printf("In memory: %,d training rows (one pass) in %.1f s; peak heap %,d KB%n",
+                train.numInstances(), inMemoryNanos / 1e9, inMemoryPeak / 1024);
+
+        System.out.printf("Held-out accuracy: streamed %.2f%%, in memory %.2f%%%n",
+                100 * trainer.heldOutAccuracy(streamedEngine, dataset),
+                100 * trainer.heldOutAccuracy(inMemoryEngine, dataset));
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
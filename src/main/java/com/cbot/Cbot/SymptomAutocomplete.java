@@ -0,0 +1,136 @@
+package com.cbot.Cbot;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Per-keystroke symptom suggestions below a text field. Up and Down move
+ * through the suggestions, Enter or a click takes the highlighted one and
+ * Escape hides them. Lookups are cheap enough to run on the EDT.
+ */
+final class SymptomAutocomplete {
+
+    private final JTextField field;
+    private final Supplier<SymptomResolver> resolver;
+    private final BooleanSupplier active;
+    private final JPopupMenu popup = new JPopupMenu();
+    private List<SymptomResolver.Match> matches = List.of();
+    private int highlighted = -1;
+    private boolean adjusting;
+
+    /**
+     * @param resolver the resolver to query, or a supplier of null while none is loaded
+     * @param active   whether the field currently expects a symptom
+     */
+    SymptomAutocomplete(JTextField field, Supplier<SymptomResolver> resolver, BooleanSupplier active) {
+        this.field = field;
+        this.resolver = resolver;
+        this.active = active;
+        popup.setFocusable(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                refresh();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                refresh();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                refresh();
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!popup.isVisible()) {
+                    return;
+                }
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        highlight(Math.min(highlighted + 1, matches.size() - 1));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        highlight(Math.max(highlighted - 1, 0));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ENTER:
+                        if (highlighted >= 0) {
+                            choose(matches.get(highlighted));
+                            e.consume();
+                        } else {
+                            popup.setVisible(false);
+                        }
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        popup.setVisible(false);
+                        e.consume();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+    }
+
+    private void refresh() {
+        if (adjusting) {
+            return;
+        }
+        // The document is mid-update; look at it once the edit is complete
+        SwingUtilities.invokeLater(this::show);
+    }
+
+    private void show() {
+        SymptomResolver current = resolver.get();
+        String text = field.getText();
+        matches = (current != null && active.getAsBoolean() && !text.isBlank())
+                ? current.complete(text, SymptomResolver.DEFAULT_LIMIT) : List.of();
+        highlighted = -1;
+        popup.setVisible(false);
+        popup.removeAll();
+        if (matches.isEmpty() || !field.isShowing()
+                || (matches.size() == 1 && matches.get(0).kind() == SymptomResolver.Match.Kind.EXACT)) {
+            return;
+        }
+        for (SymptomResolver.Match match : matches) {
+            JMenuItem item = new JMenuItem(match.toString());
+            item.addActionListener(e -> choose(match));
+            popup.add(item);
+        }
+        popup.show(field, 0, field.getHeight());
+        field.requestFocusInWindow();
+    }
+
+    private void highlight(int index) {
+        if (index < 0) {
+            return;
+        }
+        highlighted = index;
+        // Arming only paints the highlight; selecting would hand the keyboard to the menu
+        for (int i = 0; i < popup.getComponentCount(); i++) {
+            ((JMenuItem) popup.getComponent(i)).setArmed(i == index);
+        }
+    }
+
+    private void choose(SymptomResolver.Match match) {
+        popup.setVisible(false);
+        adjusting = true;
+        try {
+            field.setText(match.symptom());
+        } finally {
+            adjusting = false;
+        }
+        field.requestFocusInWindow();
+    }
+}
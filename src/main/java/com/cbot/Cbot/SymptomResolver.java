@@ -0,0 +1,560 @@
+package com.cbot.Cbot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Resolves what a user types to symptom columns, tolerating partial words,
+ * synonyms and misspellings, fast enough to run on every keystroke.
+ *
+ * <p>The terms are the column names of a {@link SymptomVocabulary}, the
+ * synonyms of {@link #SYNONYMS_FILE} and the spellings used by
+ * {@link KnowledgeBase#SEVERITY_FILE}, all reduced by {@link #key} to lower
+ * case words joined by underscores. Two immutable indexes are built once:</p>
+ * <ul>
+ * <li>a prefix index holding every word suffix of every term, so both
+ * {@code continuous_sneezing} and {@code sneezing} lead to the column, in
+ * sorted order. The keys starting with the input form one contiguous range,
+ * found by binary search like a walk down a prefix trie; a min-tree over the
+ * keys' ranks yields the best completions of that range in O(k log n) no
+ * matter how many terms share a short prefix.</li>
+ * <li>a trigram index over the words of every term, for input that is not a
+ * prefix of anything. Each input trigram visits only the terms containing
+ * it, and terms are scored mostly by the share of the input's trigrams they
+ * contain, so a half-typed word is not penalized for being short.</li>
+ * </ul>
+ *
+ * <p>Instances are immutable and safe to share between threads.</p>
+ */
+public final class SymptomResolver {
+
+    public static final String SYNONYMS_FILE = "MasterData/symptom_synonyms.csv";
+    public static final int DEFAULT_LIMIT = 8;
+
+    // Least share of the input's trigrams a misspelled term must contain
+    private static final double MIN_CONTAINMENT = 0.5;
+    // Least similarity for a severity-file spelling to alias a column
+    private static final double MIN_ALIAS_SIMILARITY = 0.7;
+    // Keys starting mid-term rank after every key starting at a term's first word
+    private static final int MID_TERM_PENALTY = 1 << 20;
+    private static final char WORD_START = '$';
+
+    /** One candidate symptom for the input. */
+    public static final class Match {
+
+        public enum Kind {
+            /** The input is the column name or one of its synonyms. */
+            EXACT,
+            /** The input starts a word of the term. */
+            PREFIX,
+            /** The input resembles the term. */
+            FUZZY
+        }
+
+        private final String symptom;
+        private final String term;
+        private final Kind kind;
+        private final double score;
+
+        Match(String symptom, String term, Kind kind, double score) {
+            this.symptom = symptom;
+            this.term = term;
+            this.kind = kind;
+            this.score = score;
+        }
+
+        /** The column name, as {@link SymptomVocabulary#name} spells it. */
+        public String symptom() {
+            return symptom;
+        }
+
+        /** The normalized term that matched: the column name or a synonym. */
+        public String term() {
+            return term;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        /** 1 for an exact match, otherwise the share of the term typed or the trigram similarity. */
+        public double score() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return symptom + (term.equals(key(symptom)) ? "" : " (" + term + ")");
+        }
+    }
+
+    private final String[] symptoms;
+    private final String[] terms;
+    private final int[] termSymptom;
+    private final Map<String, Integer> exact;
+
+    // Prefix index: word suffixes of the terms in sorted order, and a min-tree over their ranks
+    private final int[] keyTerm;
+    private final int[] keyOffset;
+    private final int[] keyRank;
+    private final int[] rankTree;
+    private final int leaves;
+
+    // Trigram index: the terms containing each trigram, ascending
+    private final Map<Long, int[]> postings;
+    private final int[] termTrigrams;
+
+    // Trigram counters are as large as the vocabulary, so they are pooled rather than
+    // kept per thread: the chat API runs every request on a fresh virtual thread
+    private final Queue<Scratch> scratchPool = new ConcurrentLinkedQueue<>();
+
+    /** Trigram counters of one call, all zero between calls. */
+    private static final class Scratch {
+        final int[] counts;
+        final int[] touched;
+
+        Scratch(int terms) {
+            this.counts = new int[terms];
+            this.touched = new int[terms];
+        }
+    }
+
+    /**
+     * Builds the indexes over the symptom columns and the given extra terms,
+     * which map a synonym or alternative spelling to a column name.
+     * Extra terms naming an unknown column are ignored.
+     */
+    public SymptomResolver(String[] symptoms, Map<String, String> synonyms) {
+        this.symptoms = symptoms.clone();
+        Map<String, Integer> termIndex = new LinkedHashMap<>();
+        for (int s = 0; s < symptoms.length; s++) {
+            termIndex.putIfAbsent(key(symptoms[s]), s);
+        }
+        for (Map.Entry<String, String> synonym : synonyms.entrySet()) {
+            Integer symptom = termIndex.get(key(synonym.getValue()));
+            String term = key(synonym.getKey());
+            if (symptom != null && !term.isEmpty()) {
+                termIndex.putIfAbsent(term, symptom);
+            }
+        }
+        termIndex.remove("");
+        this.exact = termIndex;
+        this.terms = termIndex.keySet().toArray(new String[0]);
+        this.termSymptom = new int[terms.length];
+        int t = 0;
+        for (int symptom : termIndex.values()) {
+            termSymptom[t++] = symptom;
+        }
+
+        // One key per word start of every term
+        int numKeys = 0;
+        for (String term : terms) {
+            numKeys += wordStarts(term);
+        }
+        Integer[] order = new Integer[numKeys];
+        int[] unsortedTerm = new int[numKeys];
+        int[] unsortedOffset = new int[numKeys];
+        int k = 0;
+        for (t = 0; t < terms.length; t++) {
+            String term = terms[t];
+            for (int i = 0; i < term.length(); i++) {
+                if (i == 0 || term.charAt(i - 1) == '_') {
+                    unsortedTerm[k] = t;
+                    unsortedOffset[k] = i;
+                    order[k] = k;
+                    k++;
+                }
+            }
+        }
+        Arrays.sort(order, (a, b) -> compareKeys(unsortedTerm[a], unsortedOffset[a],
+                unsortedTerm[b], unsortedOffset[b]));
+        this.keyTerm = new int[numKeys];
+        this.keyOffset = new int[numKeys];
+        this.keyRank = new int[numKeys];
+        for (k = 0; k < numKeys; k++) {
+            keyTerm[k] = unsortedTerm[order[k]];
+            keyOffset[k] = unsortedOffset[order[k]];
+            // Shorter terms first, and whole terms before their later words
+            keyRank[k] = terms[keyTerm[k]].length() + (keyOffset[k] > 0 ? MID_TERM_PENALTY : 0);
+        }
+        int size = 1;
+        while (size < Math.max(1, numKeys)) {
+            size <<= 1;
+        }
+        this.leaves = size;
+        this.rankTree = new int[2 * size];
+        Arrays.fill(rankTree, -1);
+        for (k = 0; k < numKeys; k++) {
+            rankTree[size + k] = k;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            rankTree[node] = better(rankTree[2 * node], rankTree[2 * node + 1]);
+        }
+
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        this.termTrigrams = new int[terms.length];
+        for (t = 0; t < terms.length; t++) {
+            long[] trigrams = trigrams(terms[t]);
+            termTrigrams[t] = trigrams.length;
+            for (long trigram : trigrams) {
+                lists.computeIfAbsent(trigram, g -> new ArrayList<>()).add(t);
+            }
+        }
+        this.postings = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<Long, List<Integer>> list : lists.entrySet()) {
+            postings.put(list.getKey(), list.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Builds a resolver for the symptom columns with the synonyms of
+     * {@code synonymsFile} and the spellings of {@code severityFile}; either
+     * file may be null. A severity-file spelling that is not a column name
+     * aliases the most similar column, if any is similar enough.
+     */
+    public static SymptomResolver load(String[] symptoms, File synonymsFile, File severityFile)
+            throws IOException {
+        Map<String, String> synonyms = new LinkedHashMap<>();
+        if (synonymsFile != null) {
+            try (CsvReader reader = CsvReader.open(synonymsFile)) {
+                reader.next(); // header
+                String[] record;
+                while ((record = reader.next()) != null) {
+                    if (record.length >= 2) {
+                        synonyms.putIfAbsent(record[0], record[1]);
+                    }
+                }
+            }
+        }
+        if (severityFile != null) {
+            SymptomResolver columns = new SymptomResolver(symptoms, Collections.emptyMap());
+            try (CsvReader reader = CsvReader.open(severityFile)) {
+                String[] record;
+                while ((record = reader.next()) != null) {
+                    if (record.length == 0 || columns.resolve(record[0]) != null) {
+                        continue;
+                    }
+                    List<Match> matches = columns.complete(record[0], 1);
+                    if (!matches.isEmpty() && matches.get(0).score() >= MIN_ALIAS_SIMILARITY) {
+                        synonyms.putIfAbsent(record[0], matches.get(0).symptom());
+                    }
+                }
+            }
+        }
+        return new SymptomResolver(symptoms, synonyms);
+    }
+
+    /** A resolver for the vocabulary's columns using the default MasterData files. */
+    public static SymptomResolver load(SymptomVocabulary vocabulary) throws IOException {
+        String[] symptoms = new String[vocabulary.size()];
+        for (int i = 0; i < symptoms.length; i++) {
+            symptoms[i] = vocabulary.name(i);
+        }
+        File synonyms = new File(SYNONYMS_FILE);
+        File severity = new File(KnowledgeBase.SEVERITY_FILE);
+        return load(symptoms, synonyms.isFile() ? synonyms : null, severity.isFile() ? severity : null);
+    }
+
+    /**
+     * Canonical form of user input or a term: lower case letters and digits,
+     * quotes dropped and every other run of characters folded into one
+     * underscore, so {@code "Skin rash"}, {@code skin_rash} and
+     * {@code toxic look (typhos)} compare equal to the column spellings.
+     */
+    public static String key(String text) {
+        StringBuilder key = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            } else if (c != '\'' && c != '"' && key.length() > 0 && key.charAt(key.length() - 1) != '_') {
+                key.append('_');
+            }
+        }
+        int end = key.length();
+        if (end > 0 && key.charAt(end - 1) == '_') {
+            key.setLength(end - 1);
+        }
+        return key.toString();
+    }
+
+    public int numTerms() {
+        return terms.length;
+    }
+
+    /**
+     * The column the input names exactly, directly or through a synonym, or
+     * null when it does not.
+     */
+    public String resolve(String input) {
+        Integer symptom = exact.get(key(input));
+        return (symptom != null) ? symptoms[symptom] : null;
+    }
+
+    /**
+     * Up to {@code limit} distinct candidate columns for the input, best
+     * first: the exact match, then completions of the input, then terms
+     * resembling it.
+     */
+    public List<Match> complete(String input, int limit) {
+        long start = System.nanoTime();
+        List<Match> matches = completeUntimed(input, limit);
+        Metrics.Stage.SYMPTOM_RESOLVE.recordSince(start);
+        return matches;
+    }
+
+    private List<Match> completeUntimed(String input, int limit) {
+        String query = key(input);
+        List<Match> matches = new ArrayList<>(Math.min(limit, DEFAULT_LIMIT));
+        if (query.isEmpty() || limit <= 0) {
+            return matches;
+        }
+        BitSet seen = new BitSet(symptoms.length);
+        Integer exactSymptom = exact.get(query);
+        if (exactSymptom != null) {
+            seen.set(exactSymptom);
+            matches.add(new Match(symptoms[exactSymptom], query, Match.Kind.EXACT, 1.0));
+        }
+        addCompletions(query, limit, matches, seen);
+        if (matches.size() < limit) {
+            addSimilar(query, limit, matches, seen);
+        }
+        return matches;
+    }
+
+    private void addCompletions(String query, int limit, List<Match> matches, BitSet seen) {
+        int lo = lowerBound(query);
+        int hi = upperBound(query, lo);
+        if (lo >= hi) {
+            return;
+        }
+        // Best-first walk over the range: pop its best key, then split the range around it
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (a, b) -> Integer.compare(keyRank[a[2]], keyRank[b[2]]) != 0
+                        ? Integer.compare(keyRank[a[2]], keyRank[b[2]]) : Integer.compare(a[2], b[2]));
+        ranges.add(new int[] {lo, hi, best(lo, hi)});
+        while (!ranges.isEmpty() && matches.size() < limit) {
+            int[] range = ranges.poll();
+            int k = range[2];
+            int symptom = termSymptom[keyTerm[k]];
+            if (!seen.get(symptom)) {
+                seen.set(symptom);
+                String term = terms[keyTerm[k]];
+                double typed = (double) query.length() / (term.length() - keyOffset[k]);
+                matches.add(new Match(symptoms[symptom], term, Match.Kind.PREFIX, typed));
+            }
+            if (range[0] < k) {
+                ranges.add(new int[] {range[0], k, best(range[0], k)});
+            }
+            if (k + 1 < range[1]) {
+                ranges.add(new int[] {k + 1, range[1], best(k + 1, range[1])});
+            }
+        }
+    }
+
+    private void addSimilar(String query, int limit, List<Match> matches, BitSet seen) {
+        long[] trigrams = trigrams(query);
+        int wanted = limit - matches.size();
+        if (trigrams.length == 0 || wanted <= 0) {
+            return;
+        }
+        Scratch scratch = scratchPool.poll();
+        if (scratch == null) {
+            scratch = new Scratch(terms.length);
+        }
+        int[] counts = scratch.counts;
+        int[] touched = scratch.touched;
+        int numTouched = 0;
+        for (long trigram : trigrams) {
+            int[] list = postings.get(trigram);
+            if (list == null) {
+                continue;
+            }
+            for (int t : list) {
+                if (counts[t]++ == 0) {
+                    touched[numTouched++] = t;
+                }
+            }
+        }
+
+        // The best few terms of distinct symptoms, in no particular order
+        int minCommon = (int) Math.ceil(MIN_CONTAINMENT * trigrams.length);
+        int[] bestTerm = new int[wanted];
+        double[] bestScore = new double[wanted];
+        int numBest = 0;
+        for (int i = 0; i < numTouched; i++) {
+            int t = touched[i];
+            int common = counts[t];
+            counts[t] = 0;
+            int symptom = termSymptom[t];
+            if (common < minCommon || seen.get(symptom)) {
+                continue;
+            }
+            double containment = (double) common / trigrams.length;
+            double dice = 2.0 * common / (trigrams.length + termTrigrams[t]);
+            double score = 0.7 * containment + 0.3 * dice;
+            int slot = -1;
+            for (int b = 0; b < numBest; b++) {
+                if (termSymptom[bestTerm[b]] == symptom) {
+                    slot = b;
+                    break;
+                }
+            }
+            if (slot < 0 && numBest < wanted) {
+                slot = numBest++;
+            } else if (slot < 0) {
+                slot = 0;
+                for (int b = 1; b < numBest; b++) {
+                    if (ranksBefore(bestTerm[slot], bestScore[slot], bestTerm[b], bestScore[b])) {
+                        slot = b;
+                    }
+                }
+                if (!ranksBefore(t, score, bestTerm[slot], bestScore[slot])) {
+                    continue;
+                }
+            } else if (!ranksBefore(t, score, bestTerm[slot], bestScore[slot])) {
+                continue;
+            }
+            bestTerm[slot] = t;
+            bestScore[slot] = score;
+        }
+        scratchPool.offer(scratch);
+
+        int first = matches.size();
+        for (int b = 0; b < numBest; b++) {
+            int t = bestTerm[b];
+            matches.add(new Match(symptoms[termSymptom[t]], terms[t], Match.Kind.FUZZY, bestScore[b]));
+        }
+        matches.subList(first, matches.size()).sort((a, b) -> a.score() != b.score()
+                ? Double.compare(b.score(), a.score()) : Integer.compare(a.term().length(), b.term().length()));
+    }
+
+    // Higher score first, then the shorter term
+    private boolean ranksBefore(int termA, double scoreA, int termB, double scoreB) {
+        return scoreA != scoreB ? scoreA > scoreB : terms[termA].length() < terms[termB].length();
+    }
+
+    // Index of the best-ranked key in [lo, hi)
+    private int best(int lo, int hi) {
+        int result = -1;
+        for (lo += leaves, hi += leaves; lo < hi; lo >>>= 1, hi >>>= 1) {
+            if ((lo & 1) == 1) {
+                result = better(result, rankTree[lo++]);
+            }
+            if ((hi & 1) == 1) {
+                result = better(result, rankTree[--hi]);
+            }
+        }
+        return result;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return (keyRank[b] < keyRank[a] || (keyRank[b] == keyRank[a] && b < a)) ? b : a;
+    }
+
+    // First key not sorting before the query
+    private int lowerBound(String query) {
+        int lo = 0;
+        int hi = keyTerm.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToQuery(mid, query, false) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First key from lo on that does not start with the query
+    private int upperBound(String query, int lo) {
+        int hi = keyTerm.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToQuery(mid, query, true) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Compares key k with the query, treating a key the query is a prefix of as equal when asked to
+    private int compareToQuery(int k, String query, boolean prefixEqual) {
+        String term = terms[keyTerm[k]];
+        int offset = keyOffset[k];
+        int length = term.length() - offset;
+        int n = Math.min(length, query.length());
+        for (int i = 0; i < n; i++) {
+            int diff = term.charAt(offset + i) - query.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        if (length >= query.length() && prefixEqual) {
+            return 0;
+        }
+        return length - query.length();
+    }
+
+    private int compareKeys(int termA, int offsetA, int termB, int offsetB) {
+        String a = terms[termA];
+        String b = terms[termB];
+        int lengthA = a.length() - offsetA;
+        int lengthB = b.length() - offsetB;
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int diff = a.charAt(offsetA + i) - b.charAt(offsetB + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static int wordStarts(String term) {
+        int count = 0;
+        for (int i = 0; i < term.length(); i++) {
+            if (i == 0 || term.charAt(i - 1) == '_') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Distinct trigrams of a normalized term, with every word prefixed by a
+     * start marker so that word beginnings weigh in; no end marker, so a
+     * half-typed last word still matches.
+     */
+    private static long[] trigrams(String key) {
+        String marked = WORD_START + key.replace('_', WORD_START);
+        if (marked.length() < 3) {
+            return new long[0];
+        }
+        long[] trigrams = new long[marked.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) marked.charAt(i) << 32) | ((long) marked.charAt(i + 1) << 16) | marked.charAt(i + 2);
+        }
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+}
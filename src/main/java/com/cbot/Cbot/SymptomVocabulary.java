@@ -0,0 +1,179 @@
+package com.cbot.Cbot;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The symptom attributes of a dataset header, in column order, with an O(1)
+ * lookup from a normalized symptom name to its attribute index. Symptom
+ * indexes are attribute indexes, so bitsets built against this vocabulary
+ * can be turned into Weka instances without any name lookups.
+ */
+public final class SymptomVocabulary {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s_]+");
+    private static final Pattern QUOTES = Pattern.compile("['\"]");
+
+    private final Instances header;
+    private final String[] names;
+    private final double[] yesValues;
+    private final Map<String, Integer> indexByName;
+
+    public SymptomVocabulary(Instances header) {
+        if (header.classIndex() != header.numAttributes() - 1) {
+            throw new IllegalArgumentException("The class attribute must be the last attribute");
+        }
+        this.header = new Instances(header, 0);
+        int size = header.numAttributes() - 1;
+        this.names = new String[size];
+        this.yesValues = new double[size];
+        this.indexByName = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            Attribute attribute = header.attribute(i);
+            names[i] = attribute.name();
+            // Nominal 0/1 columns store the index of the "1" label
+            yesValues[i] = attribute.isNominal() ? attribute.indexOfValue("1") : 1.0;
+            indexByName.putIfAbsent(normalize(attribute.name()), i);
+        }
+    }
+
+    /**
+     * Canonical form of a symptom name: lower case, quotes removed and runs of
+     * blanks or underscores folded into one underscore, so that
+     * {@code 'spotting_ urination'}, {@code spotting_urination} and
+     * {@code Spotting Urination} all map to the same key.
+     */
+    public static String normalize(String name) {
+        String folded = SEPARATORS.matcher(QUOTES.matcher(name.trim()).replaceAll("")).replaceAll("_");
+        return folded.toLowerCase(Locale.ROOT);
+    }
+
+    /** True for a CSV cell that marks a symptom as present: 1, in any numeric spelling. */
+    public static boolean isPresentValue(String value) {
+        String v = value.trim();
+        if (v.equals("1")) {
+            return true;
+        }
+        if (v.isEmpty() || v.equals("0") || v.equals("?")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(v) == 1.0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /** Number of 64-bit words needed for a bitset over this vocabulary. */
+    public int words() {
+        return (names.length + 63) >>> 6;
+    }
+
+    /** Returns the attribute index of the symptom, or -1 when it is unknown. */
+    public int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer index = indexByName.get(normalize(name));
+        return (index != null) ? index : -1;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    public Instances header() {
+        return header;
+    }
+
+    public ConsultationBits newConsultation() {
+        return new ConsultationBits(names.length);
+    }
+
+    /**
+     * Builds a sparse instance holding a 1 for every set bit and 0 elsewhere,
+     * with the class value missing.
+     */
+    public Instance toInstance(long[] yesBits) {
+        long start = System.nanoTime();
+        int count = 0;
+        for (long word : yesBits) {
+            count += Long.bitCount(word);
+        }
+        int[] indices = new int[count];
+        double[] values = new double[count];
+        int n = 0;
+        for (int w = 0; w < yesBits.length; w++) {
+            long word = yesBits[w];
+            while (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                indices[n] = index;
+                values[n] = yesValues[index];
+                n++;
+                word &= word - 1;
+            }
+        }
+        SparseInstance instance = new SparseInstance(1.0, values, indices, header.numAttributes());
+        instance.setDataset(header);
+        instance.setClassMissing();
+        Metrics.Stage.VECTOR_BUILD.recordSince(start);
+        return instance;
+    }
+
+    /** Encodes the symptom columns of a row that uses this vocabulary's header. */
+    public long[] encode(Instance instance) {
+        long[] bits = new long[words()];
+        for (int i = 0; i < names.length; i++) {
+            if (!instance.isMissing(i) && instance.value(i) == yesValues[i]) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Maps every attribute of another dataset to the symptom index with the
+     * same normalized name, or -1 for the class and unknown columns.
+     */
+    public int[] columnsOf(Instances data) {
+        int[] columns = new int[data.numAttributes()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = (i == data.classIndex()) ? -1 : indexOf(data.attribute(i).name());
+        }
+        return columns;
+    }
+
+    /**
+     * Encodes a row of another dataset using a mapping from {@link #columnsOf}.
+     * A column counts as present when it holds 1, or the label "1" for
+     * nominal columns.
+     */
+    public long[] encode(Instance instance, int[] columns) {
+        long[] bits = new long[words()];
+        for (int i = 0; i < columns.length; i++) {
+            int index = columns[i];
+            if (index < 0 || instance.isMissing(i)) {
+                continue;
+            }
+            Attribute attribute = instance.attribute(i);
+            boolean present = attribute.isNominal()
+                    ? "1".equals(attribute.value((int) instance.value(i)))
+                    : instance.value(i) == 1.0;
+            if (present) {
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+        return bits;
+    }
+}
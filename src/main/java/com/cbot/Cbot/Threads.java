@@ -0,0 +1,54 @@
+package com.cbot.Cbot;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread and executor factories shared by the services.
+ */
+final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * An executor that runs every task on its own virtual thread when the
+     * runtime supports them (JDK 21+), and on a cached pool of daemon platform
+     * threads otherwise. The project still targets Java 17, hence the lookup.
+     */
+    static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonFactory(name));
+        }
+    }
+
+    static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /** Daemon threads named {@code name-1}, {@code name-2}, ... */
+    static ThreadFactory daemonFactory(String name) {
+        return daemonFactory(name, Thread.NORM_PRIORITY);
+    }
+
+    static ThreadFactory daemonFactory(String name, int priority) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,584 @@
+package com.cbot.Cbot;
+
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single decision tree over the symptom bitset, read from the J48 DOT
+ * export in {@link #TREE_FILE} or from an in-memory {@link J48}. It needs no
+ * trained forest, so it answers in microseconds from the moment the program
+ * starts and serves as a fallback and first triage while the forest loads.
+ *
+ * <p>The tree is flattened into arrays and walked by a small interpreter.
+ * {@link #generated()} turns it into Java source with one nested branch per
+ * node, compiles it in memory with the JDK compiler and loads the class, so
+ * that the JIT sees straight-line bit tests; without a JDK compiler the
+ * interpreter stays in place. Neither path allocates.</p>
+ */
+public final class TriageTree {
+
+    public static final String TREE_FILE = "MasterData/decisionTree.dot";
+
+    // javac recurses once per nesting level; deeper trees stay interpreted
+    static final int MAX_GENERATED_DEPTH = 500;
+    // Generated methods above this many nodes risk the 64 KB bytecode limit
+    static final int MAX_GENERATED_NODES = 4000;
+
+    private static final String GENERATED_PACKAGE = "com.cbot.Cbot.generated";
+    private static final Pattern NODE = Pattern.compile("^(\\w+)\\s*\\[label=\"((?:[^\"\\\\]|\\\\.)*)\"(.*)]\\s*$");
+    private static final Pattern EDGE =
+            Pattern.compile("^(\\w+)\\s*->\\s*(\\w+)\\s*\\[label=\"((?:[^\"\\\\]|\\\\.)*)\".*]\\s*$");
+    private static final Pattern CONDITION = Pattern.compile("^\\s*(<=|>=|!=|=|<|>)\\s*(\\S+)\\s*$");
+    // "Disease (covered/misclassified)", where the counts are training weights
+    private static final Pattern LEAF = Pattern.compile("^(.*?)\\s*\\(([\\d.]+)(?:/([\\d.]+))?\\)\\s*$");
+
+    private final Map<String, Integer> columns;
+    private final int words;
+    private final String[] labels;
+    private final double[] leafWeights;
+    private final double[] leafErrors;
+    // Internal nodes; a negative child is ~leaf, as is a negative root
+    private final int[] word;
+    private final long[] mask;
+    private final int[] ifAbsent;
+    private final int[] ifPresent;
+    private final int[] leafLabel;
+    private final int root;
+    private final int depth;
+    private final ToIntFunction<long[]> function;
+    private final boolean generated;
+
+    private TriageTree(Map<String, Integer> columns, int words, String[] labels, double[] leafWeights,
+                       double[] leafErrors, int[] word, long[] mask, int[] ifAbsent, int[] ifPresent,
+                       int[] leafLabel, int root, int depth, ToIntFunction<long[]> function, boolean generated) {
+        this.columns = columns;
+        this.words = words;
+        this.labels = labels;
+        this.leafWeights = leafWeights;
+        this.leafErrors = leafErrors;
+        this.word = word;
+        this.mask = mask;
+        this.ifAbsent = ifAbsent;
+        this.ifPresent = ifPresent;
+        this.leafLabel = leafLabel;
+        this.root = root;
+        this.depth = depth;
+        this.function = (function != null) ? function : this::interpret;
+        this.generated = generated;
+    }
+
+    /** Reads {@link #TREE_FILE}, with symptom columns in the order of the dataset's header. */
+    public static TriageTree loadDefault() throws IOException {
+        return load(new File(TREE_FILE), datasetSymptoms(new File(ModelStore.DATASET_FILE)));
+    }
+
+    /** Reads a DOT file; {@code symptoms} names the bits, in bit order. */
+    public static TriageTree load(File dotFile, String[] symptoms) throws IOException {
+        return parse(new String(Files.readAllBytes(dotFile.toPath()), StandardCharsets.UTF_8), symptoms);
+    }
+
+    /** Uses a trained J48, which exports the same DOT as {@link #TREE_FILE}. */
+    public static TriageTree fromJ48(J48 tree, String[] symptoms) throws Exception {
+        return parse(tree.graph(), symptoms);
+    }
+
+    /**
+     * Parses J48 DOT output. Splits may be numeric ({@code <= 0}, {@code > 0})
+     * or nominal ({@code = 0}, {@code = 1}); a split on a column missing from
+     * {@code symptoms} always takes the absent branch.
+     */
+    public static TriageTree parse(String dot, String[] symptoms) {
+        Map<String, Integer> columns = new HashMap<>(symptoms.length * 2);
+        for (int i = 0; i < symptoms.length; i++) {
+            columns.putIfAbsent(SymptomVocabulary.normalize(symptoms[i]), i);
+        }
+
+        Map<String, String> nodeLabels = new LinkedHashMap<>();
+        Map<String, Boolean> isLeaf = new HashMap<>();
+        Map<String, String[]> children = new HashMap<>();
+        for (String line : dot.split("\\R")) {
+            String trimmed = line.trim();
+            Matcher edge = EDGE.matcher(trimmed);
+            if (edge.matches()) {
+                boolean[] holds = holds(unescape(edge.group(3)), trimmed);
+                String[] pair = children.computeIfAbsent(edge.group(1), n -> new String[2]);
+                for (int value = 0; value < 2; value++) {
+                    if (holds[value] && pair[value] == null) {
+                        pair[value] = edge.group(2);
+                    }
+                }
+                continue;
+            }
+            Matcher node = NODE.matcher(trimmed);
+            if (node.matches()) {
+                nodeLabels.put(node.group(1), unescape(node.group(2)));
+                isLeaf.put(node.group(1), node.group(3).contains("shape=box"));
+            }
+        }
+        if (nodeLabels.isEmpty()) {
+            throw new IllegalArgumentException("No tree nodes in the DOT input");
+        }
+
+        Builder builder = new Builder();
+        String rootName = nodeLabels.keySet().iterator().next();
+        int rootIndex = builder.add(rootName, nodeLabels, isLeaf, children, columns, 1);
+        return new TriageTree(columns, (symptoms.length + 63) >>> 6, builder.labels.toArray(new String[0]),
+                builder.weights(), builder.errors(), builder.ints(builder.word), builder.longs(),
+                builder.ints(builder.ifAbsent), builder.ints(builder.ifPresent), builder.ints(builder.leafLabel),
+                rootIndex, builder.depth, null, false);
+    }
+
+    /** Which of the values 0 and 1 satisfy an edge condition such as {@code <= 0}. */
+    private static boolean[] holds(String condition, String line) {
+        Matcher matcher = CONDITION.matcher(condition);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported split: " + line);
+        }
+        double threshold;
+        try {
+            threshold = Double.parseDouble(matcher.group(2));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unsupported split: " + line, e);
+        }
+        boolean[] holds = new boolean[2];
+        for (int value = 0; value < 2; value++) {
+            switch (matcher.group(1)) {
+                case "<=":
+                    holds[value] = value <= threshold;
+                    break;
+                case "<":
+                    holds[value] = value < threshold;
+                    break;
+                case ">=":
+                    holds[value] = value >= threshold;
+                    break;
+                case ">":
+                    holds[value] = value > threshold;
+                    break;
+                case "=":
+                    holds[value] = value == threshold;
+                    break;
+                default:
+                    holds[value] = value != threshold;
+                    break;
+            }
+        }
+        return holds;
+    }
+
+    private static String unescape(String label) {
+        return label.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    private static String[] datasetSymptoms(File dataset) throws IOException {
+        try (CsvReader reader = CsvReader.open(dataset)) {
+            String[] header = reader.next();
+            if (header == null || header.length < 2) {
+                throw new IOException("No header in " + dataset);
+            }
+            // The last column is the disease
+            String[] symptoms = new String[header.length - 1];
+            System.arraycopy(header, 0, symptoms, 0, symptoms.length);
+            return symptoms;
+        }
+    }
+
+    /** Flattens the parsed graph, depth first, into the arrays the interpreter walks. */
+    private static final class Builder {
+        final List<String> labels = new ArrayList<>();
+        final Map<String, Integer> labelIndex = new HashMap<>();
+        final List<Double> weights = new ArrayList<>();
+        final List<Double> errors = new ArrayList<>();
+        final List<Integer> leafLabel = new ArrayList<>();
+        final List<Integer> word = new ArrayList<>();
+        final List<Long> mask = new ArrayList<>();
+        final List<Integer> ifAbsent = new ArrayList<>();
+        final List<Integer> ifPresent = new ArrayList<>();
+        int depth;
+
+        int add(String name, Map<String, String> nodeLabels, Map<String, Boolean> isLeaf,
+                Map<String, String[]> children, Map<String, Integer> columns, int level) {
+            String label = nodeLabels.get(name);
+            if (label == null) {
+                throw new IllegalArgumentException("Edge to undeclared node " + name);
+            }
+            depth = Math.max(depth, level);
+            if (isLeaf.get(name)) {
+                Matcher leaf = LEAF.matcher(label);
+                String disease = leaf.matches() ? leaf.group(1) : label.trim();
+                Integer index = labelIndex.get(disease);
+                if (index == null) {
+                    index = labels.size();
+                    labelIndex.put(disease, index);
+                    labels.add(disease);
+                }
+                leafLabel.add(index);
+                weights.add(leaf.matches() ? Double.parseDouble(leaf.group(2)) : 0.0);
+                errors.add(leaf.matches() && leaf.group(3) != null ? Double.parseDouble(leaf.group(3)) : 0.0);
+                return ~(leafLabel.size() - 1);
+            }
+            String[] pair = children.get(name);
+            if (pair == null || pair[0] == null || pair[1] == null) {
+                throw new IllegalArgumentException("Split " + name + " does not cover both symptom values");
+            }
+            Integer column = columns.get(SymptomVocabulary.normalize(label));
+            if (column == null) {
+                // Unknown symptoms are never reported present
+                return add(pair[0], nodeLabels, isLeaf, children, columns, level + 1);
+            }
+            int node = word.size();
+            word.add(column >>> 6);
+            mask.add(1L << column);
+            ifAbsent.add(0);
+            ifPresent.add(0);
+            ifAbsent.set(node, add(pair[0], nodeLabels, isLeaf, children, columns, level + 1));
+            ifPresent.set(node, add(pair[1], nodeLabels, isLeaf, children, columns, level + 1));
+            return node;
+        }
+
+        int[] ints(List<Integer> values) {
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            return array;
+        }
+
+        long[] longs() {
+            long[] array = new long[mask.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = mask.get(i);
+            }
+            return array;
+        }
+
+        double[] weights() {
+            return doubles(weights);
+        }
+
+        double[] errors() {
+            return doubles(errors);
+        }
+
+        private static double[] doubles(List<Double> values) {
+            double[] array = new double[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            return array;
+        }
+    }
+
+    /** The label index for a symptom bitset over the columns the tree was built with; see {@link #label}. */
+    public int classify(long[] bits) {
+        return function.applyAsInt(bits);
+    }
+
+    private int interpret(long[] bits) {
+        int node = root;
+        while (node >= 0) {
+            node = ((bits[word[node]] & mask[node]) == 0) ? ifAbsent[node] : ifPresent[node];
+        }
+        return leafLabel[~node];
+    }
+
+    /** The bit of a symptom column, matched the way {@link SymptomVocabulary#indexOf} matches, or -1. */
+    public int columnOf(String symptom) {
+        Integer column = columns.get(SymptomVocabulary.normalize(symptom));
+        return (column != null) ? column : -1;
+    }
+
+    /** Number of 64-bit words in a bitset over the tree's symptom columns. */
+    public int words() {
+        return words;
+    }
+
+    public String label(int index) {
+        return labels[index];
+    }
+
+    public int numLabels() {
+        return labels.length;
+    }
+
+    public int numNodes() {
+        return word.length;
+    }
+
+    public int numLeaves() {
+        return leafLabel.length;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /** True when {@link #classify} runs compiled branches rather than the interpreter. */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    /**
+     * Share of the training weight reaching the leaf this bitset ends in that
+     * J48 classified correctly, or NaN when the DOT carried no counts.
+     */
+    public double leafPurity(long[] bits) {
+        int leaf = leafOf(bits);
+        double weight = leafWeights[leaf];
+        return (weight > 0) ? (weight - leafErrors[leaf]) / weight : Double.NaN;
+    }
+
+    /** Training weight reaching the leaf this bitset ends in, or 0 when the DOT carried no counts. */
+    public double leafSupport(long[] bits) {
+        return leafWeights[leafOf(bits)];
+    }
+
+    private int leafOf(long[] bits) {
+        int node = root;
+        while (node >= 0) {
+            node = ((bits[word[node]] & mask[node]) == 0) ? ifAbsent[node] : ifPresent[node];
+        }
+        return ~node;
+    }
+
+    /**
+     * For every label, the index of the same disease among {@code diseases}
+     * (the forest's classes), compared the way the knowledge base compares
+     * names, or -1 when there is none.
+     */
+    public int[] classIndices(String[] diseases) {
+        Map<String, Integer> byKey = new HashMap<>(diseases.length * 2);
+        for (int c = 0; c < diseases.length; c++) {
+            byKey.putIfAbsent(KnowledgeBase.diseaseKey(diseases[c]), c);
+        }
+        int[] indices = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            indices[i] = byKey.getOrDefault(KnowledgeBase.diseaseKey(labels[i]), -1);
+        }
+        return indices;
+    }
+
+    /**
+     * This tree with compiled branches, or this tree itself when there is no
+     * JDK compiler at run time or the tree is too large to generate.
+     */
+    public TriageTree generated() {
+        if (generated || depth > MAX_GENERATED_DEPTH || numNodes() > MAX_GENERATED_NODES) {
+            return this;
+        }
+        ToIntFunction<long[]> compiled = compile(source("Triage"), "Triage");
+        if (compiled == null) {
+            return this;
+        }
+        return new TriageTree(columns, words, labels, leafWeights, leafErrors, word, mask, ifAbsent, ifPresent,
+                leafLabel, root, depth, compiled, true);
+    }
+
+    /** Java source for a class that branches on the bits the way this tree does. */
+    String source(String simpleName) {
+        StringBuilder source = new StringBuilder(64 * (numNodes() + numLeaves()));
+        source.append("package ").append(GENERATED_PACKAGE).append(";\n\n")
+                .append("public final class ").append(simpleName)
+                .append(" implements java.util.function.ToIntFunction<long[]> {\n")
+                .append("    @Override\n")
+                .append("    public int applyAsInt(long[] bits) {\n");
+        appendNode(source, root, 2);
+        source.append("    }\n}\n");
+        return source.toString();
+    }
+
+    private void appendNode(StringBuilder source, int node, int indent) {
+        String pad = "    ".repeat(indent);
+        if (node < 0) {
+            source.append(pad).append("return ").append(leafLabel[~node]).append(";\n");
+            return;
+        }
+        source.append(pad).append("if ((bits[").append(word[node]).append("] & 0x")
+                .append(Long.toHexString(mask[node])).append("L) == 0L) {\n");
+        appendNode(source, ifAbsent[node], indent + 1);
+        source.append(pad).append("} else {\n");
+        appendNode(source, ifPresent[node], indent + 1);
+        source.append(pad).append("}\n");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ToIntFunction<long[]> compile(String source, String simpleName) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+        String className = GENERATED_PACKAGE + "." + simpleName;
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                        kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classes.computeIfAbsent(name, n -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        };
+        JavaFileObject input = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StringWriter diagnostics = new StringWriter();
+        try {
+            boolean ok = compiler.getTask(diagnostics, files, null, List.of("-g:none", "-proc:none"), null,
+                    List.of(input)).call();
+            files.close();
+            if (!ok || !classes.containsKey(className)) {
+                System.err.println("Could not compile the triage tree, interpreting it instead: " + diagnostics);
+                return null;
+            }
+            byte[] bytes = classes.get(className).toByteArray();
+            ClassLoader loader = new ClassLoader(TriageTree.class.getClassLoader()) {
+                @Override
+                protected Class<?> findClass(String name) throws ClassNotFoundException {
+                    if (name.equals(className)) {
+                        return defineClass(name, bytes, 0, bytes.length);
+                    }
+                    throw new ClassNotFoundException(name);
+                }
+            };
+            return (ToIntFunction<long[]>) loader.loadClass(className).getDeclaredConstructor().newInstance();
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Could not compile the triage tree, interpreting it instead: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Measures the tree against the stored forest on the testing rows:
+     * agreement, accuracy and time per row for the interpreted tree, the
+     * generated tree and the compiled forest.
+     */
+    public static void main(String[] args) throws Exception {
+        DiagnosisEngine engine = new DiagnosisEngine(new ModelStore().loadOrTrain());
+        SymptomVocabulary vocabulary = engine.vocabulary();
+        String[] symptoms = new String[vocabulary.size()];
+        for (int i = 0; i < symptoms.length; i++) {
+            symptoms[i] = vocabulary.name(i);
+        }
+        String[] diseases = new String[engine.numDiseases()];
+        for (int c = 0; c < diseases.length; c++) {
+            diseases[c] = engine.diseaseName(c);
+        }
+
+        long start = System.nanoTime();
+        TriageTree interpreted = load(new File(args.length > 0 ? args[0] : TREE_FILE), symptoms);
+        long parsed = System.nanoTime() - start;
+        start = System.nanoTime();
+        TriageTree generated = interpreted.generated();
+        long compiled = System.nanoTime() - start;
+        System.out.printf("Tree: %d splits, %d leaves, %d labels, depth %d; parsed in %.1f ms, %s in %.1f ms%n",
+                interpreted.numNodes(), interpreted.numLeaves(), interpreted.numLabels(), interpreted.depth(),
+                parsed / 1e6, generated.isGenerated() ? "generated" : "not generated (no JDK compiler)",
+                compiled / 1e6);
+
+        int[] classOf = interpreted.classIndices(diseases);
+        for (int i = 0; i < classOf.length; i++) {
+            if (classOf[i] < 0) {
+                System.out.println("Label not among the forest's classes: " + interpreted.label(i));
+            }
+        }
+
+        CSVLoader loader = new CSVLoader();
+        loader.setSource(new File(args.length > 1 ? args[1] : ModelStore.TEST_FILE));
+        Instances data = loader.getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        int[] columns = vocabulary.columnsOf(data);
+        long[][] rows = new long[data.numInstances()][];
+        int[] truth = new int[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = vocabulary.encode(data.instance(r), columns);
+            truth[r] = engine.snapshot().header().classAttribute()
+                    .indexOfValue(data.classAttribute().value((int) data.instance(r).classValue()));
+        }
+
+        int agree = 0;
+        int treeCorrect = 0;
+        int forestCorrect = 0;
+        int bothWrongAlike = 0;
+        CompiledForest forest = engine.forest();
+        for (int r = 0; r < rows.length; r++) {
+            int tree = classOf[generated.classify(rows[r])];
+            int full = forest.classify(rows[r]);
+            if (tree != classOf[interpreted.classify(rows[r])]) {
+                throw new IllegalStateException("Generated and interpreted trees differ on row " + r);
+            }
+            agree += (tree == full) ? 1 : 0;
+            treeCorrect += (tree == truth[r]) ? 1 : 0;
+            forestCorrect += (full == truth[r]) ? 1 : 0;
+            bothWrongAlike += (tree == full && full != truth[r]) ? 1 : 0;
+        }
+        System.out.printf("Rows: %d; tree agrees with the forest on %.2f%% (%d wrong alike), tree accuracy %.2f%%,"
+                        + " forest accuracy %.2f%%%n", rows.length, 100.0 * agree / rows.length, bothWrongAlike,
+                100.0 * treeCorrect / rows.length, 100.0 * forestCorrect / rows.length);
+
+        int sink = 0;
+        double[] scratch = new double[forest.numClasses()];
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            for (int repeat = 0; repeat < 100; repeat++) {
+                for (long[] row : rows) {
+                    sink += interpreted.classify(row);
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int repeat = 0; repeat < 100; repeat++) {
+                for (long[] row : rows) {
+                    sink += generated.classify(row);
+                }
+            }
+            long t2 = System.nanoTime();
+            for (int repeat = 0; repeat < 10; repeat++) {
+                for (long[] row : rows) {
+                    sink += forest.classify(row, scratch);
+                }
+            }
+            long t3 = System.nanoTime();
+            System.out.printf("Round %d: interpreted %.1f ns/row, generated %.1f ns/row, forest %.1f ns/row%n",
+                    round, (t1 - t0) / 100.0 / rows.length, (t2 - t1) / 100.0 / rows.length,
+                    (t3 - t2) / 10.0 / rows.length);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
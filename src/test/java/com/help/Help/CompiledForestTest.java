@@ -0,0 +1,110 @@
+package com.help.Help;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.cbot.Cbot.CompiledForest;
+import com.cbot.Cbot.SymptomVocabulary;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Checks that the compiled forest reproduces Weka's RandomForest exactly.
+ */
+public class CompiledForestTest
+    extends TestCase
+{
+    static final int SYMPTOMS = 70;
+
+    /**
+     * Builds a synthetic symptom dataset: each disease has a fixed profile and
+     * every row keeps a random subset of it plus a little noise.
+     */
+    static Instances dataset( int rows, long seed )
+    {
+        List<String> diseases = Arrays.asList( "A", "B", "C", "D", "E" );
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for ( int i = 0; i < SYMPTOMS; i++ )
+        {
+            attributes.add( new Attribute( "symptom_" + i ) );
+        }
+        attributes.add( new Attribute( "prognosis", diseases ) );
+        Instances data = new Instances( "symptoms", attributes, rows );
+        data.setClassIndex( SYMPTOMS );
+
+        Random random = new Random( seed );
+        for ( int r = 0; r < rows; r++ )
+        {
+            int disease = r % diseases.size();
+            double[] values = new double[SYMPTOMS + 1];
+            for ( int i = disease * 12; i < disease * 12 + 12; i++ )
+            {
+                values[i] = random.nextInt( 3 ) > 0 ? 1 : 0;
+            }
+            values[random.nextInt( SYMPTOMS )] = 1;
+            values[SYMPTOMS] = disease;
+            data.add( new DenseInstance( 1.0, values ) );
+        }
+        return data;
+    }
+
+    public void testMatchesWekaDistributions()
+        throws Exception
+    {
+        Instances train = dataset( 300, 1 );
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 20 );
+        forest.buildClassifier( train );
+
+        SymptomVocabulary vocabulary = new SymptomVocabulary( train );
+        CompiledForest compiled = CompiledForest.compile( forest, train );
+        assertEquals( 20, compiled.numTrees() );
+
+        Instances test = dataset( 200, 2 );
+        assertEquals( 0, CompiledForest.verify( forest, compiled, vocabulary, test ) );
+
+        long[][] rows = new long[test.numInstances()][];
+        for ( int r = 0; r < rows.length; r++ )
+        {
+            rows[r] = vocabulary.encode( test.instance( r ) );
+        }
+        double[] distributions = new double[rows.length * compiled.numClasses()];
+        int[] predictions = new int[rows.length];
+        compiled.classifyBatch( rows, rows.length, distributions, predictions );
+        for ( int r = 0; r < rows.length; r++ )
+        {
+            Instance instance = test.instance( r );
+            assertEquals( (int) forest.classifyInstance( instance ), predictions[r] );
+            assertEquals( predictions[r], compiled.classify( rows[r] ) );
+        }
+    }
+
+    public void testEarlyExitMatchesFullForest()
+        throws Exception
+    {
+        Instances train = dataset( 300, 1 );
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 20 );
+        forest.buildClassifier( train );
+
+        SymptomVocabulary vocabulary = new SymptomVocabulary( train );
+        CompiledForest compiled = CompiledForest.compile( forest, train );
+        CompiledForest.EarlyExitStats stats = new CompiledForest.EarlyExitStats();
+        Instances test = dataset( 200, 2 );
+        for ( Instance instance : test )
+        {
+            long[] bits = vocabulary.encode( instance );
+            assertEquals( compiled.classify( bits ),
+                compiled.classifyEarly( bits, CompiledForest.NO_CONFIDENCE_THRESHOLD, stats ) );
+            assertTrue( stats.lastTreesEvaluated() > 10 && stats.lastTreesEvaluated() <= 20 );
+        }
+        assertEquals( test.numInstances(), stats.calls() );
+    }
+}
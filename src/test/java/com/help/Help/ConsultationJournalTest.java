@@ -0,0 +1,125 @@
+package com.help.Help;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cbot.Cbot.ConsultationJournal;
+import com.cbot.Cbot.ConsultationSession;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.ModelSnapshot;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+/**
+ * Journals consultations across segment rotations and replays them,
+ * including after a torn final write and with two journals sharing one
+ * directory.
+ */
+public class ConsultationJournalTest
+    extends TestCase
+{
+    public void testReplaysAcrossSegmentsAndTornTail()
+        throws Exception
+    {
+        Instances train = CompiledForestTest.dataset( 200, 3 );
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 10 );
+        forest.buildClassifier( train );
+        DiagnosisEngine engine = new DiagnosisEngine( new ModelSnapshot( "test", "test", forest, train ) );
+
+        File dir = Files.createTempDirectory( "journal" ).toFile();
+        List<ConsultationSession> sessions = new ArrayList<>();
+        // Small segments force several rotations
+        ConsultationJournal journal = new ConsultationJournal( dir, 1000, 4096 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            ConsultationSession session = new ConsultationSession( engine );
+            session.start( "symptom_" + ( i % 10 ) );
+            while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+            {
+                session.answer( i % 3 != 0 );
+            }
+            assertTrue( journal.record( session ) );
+            sessions.add( session );
+        }
+        journal.close();
+        assertEquals( 200, journal.written() );
+        assertEquals( 0, journal.dropped() );
+
+        List<ConsultationJournal.Entry> entries = new ArrayList<>();
+        assertEquals( 0, ConsultationJournal.replay( dir, entries::add ) );
+        assertEquals( sessions.size(), entries.size() );
+        for ( int i = 0; i < entries.size(); i++ )
+        {
+            ConsultationSession session = sessions.get( i );
+            ConsultationJournal.Entry entry = entries.get( i );
+            assertTrue( Arrays.equals( session.askedOrder(), entry.askedOrder() ) );
+            int first = entry.askedOrder()[0];
+            assertEquals( "symptom_" + ( i % 10 ), entry.symptomName( first ) );
+            for ( int index : entry.askedOrder() )
+            {
+                assertEquals( session.answers().isYes( index ), entry.isYes( index ) );
+            }
+            assertEquals( session.outcome(), entry.outcome() );
+            assertEquals( engine.version(), entry.modelVersion() );
+            if ( session.prediction() != null )
+            {
+                assertEquals( session.prediction().disease(), entry.disease() );
+            }
+        }
+
+        File[] segments = dir.listFiles();
+        assertTrue( segments.length > 2 );
+        Arrays.sort( segments );
+        File last = segments[segments.length - 1];
+        try ( RandomAccessFile file = new RandomAccessFile( last, "rw" ) )
+        {
+            file.setLength( file.length() - 3 );
+        }
+        entries.clear();
+        assertEquals( 1, ConsultationJournal.replay( dir, entries::add ) );
+        assertEquals( sessions.size() - 1, entries.size() );
+    }
+
+    public void testSharesDirectoryWithAnotherJournal()
+        throws Exception
+    {
+        Instances train = CompiledForestTest.dataset( 200, 3 );
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 10 );
+        forest.buildClassifier( train );
+        DiagnosisEngine engine = new DiagnosisEngine( new ModelSnapshot( "test", "test", forest, train ) );
+
+        File dir = Files.createTempDirectory( "journal" ).toFile();
+        // The first journal's first rotation lands on the segment number the second one holds
+        ConsultationJournal first = new ConsultationJournal( dir, 1000, 4096 );
+        ConsultationJournal second = new ConsultationJournal( dir, 1000, 4096 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            ConsultationSession session = new ConsultationSession( engine );
+            session.start( "symptom_" + ( i % 10 ) );
+            while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+            {
+                session.answer( i % 3 != 0 );
+            }
+            assertTrue( first.record( session ) );
+            assertTrue( second.record( session ) );
+        }
+        first.close();
+        second.close();
+        assertEquals( 200, first.written() );
+        assertEquals( 0, first.dropped() );
+        assertEquals( 200, second.written() );
+        assertEquals( 0, second.dropped() );
+
+        List<ConsultationJournal.Entry> entries = new ArrayList<>();
+        assertEquals( 0, ConsultationJournal.replay( dir, entries::add ) );
+        assertEquals( 400, entries.size() );
+    }
+}
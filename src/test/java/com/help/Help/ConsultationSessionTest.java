@@ -0,0 +1,96 @@
+package com.help.Help;
+
+import com.cbot.Cbot.ConsultationSession;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.DiseaseProfiles;
+import com.cbot.Cbot.InformationGainStrategy;
+import com.cbot.Cbot.ModelSnapshot;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+/**
+ * Walks the consultation state machine through its question cap and the
+ * minimum-yes rule.
+ */
+public class ConsultationSessionTest
+    extends TestCase
+{
+    private DiagnosisEngine engine;
+    private Instances train;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        train = CompiledForestTest.dataset( 200, 3 );
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 10 );
+        forest.buildClassifier( train );
+        engine = new DiagnosisEngine( new ModelSnapshot( "test", "test", forest, train ) );
+    }
+
+    public void testAsksUntilTheQuestionCap()
+    {
+        ConsultationSession session = new ConsultationSession( engine );
+        assertEquals( ConsultationSession.State.AWAITING_ANSWER, session.start( "symptom_0" ) );
+        assertEquals( "symptom_1", session.currentQuestionName() );
+
+        int questions = 1;
+        while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+        {
+            session.answer( true );
+            questions++;
+        }
+        assertEquals( ConsultationSession.MAX_QUESTIONS, questions );
+        assertEquals( ConsultationSession.Outcome.PREDICTED, session.outcome() );
+        assertEquals( "A", session.prediction().disease() );
+    }
+
+    public void testTooFewYesAnswersIsInsufficient()
+    {
+        ConsultationSession session = new ConsultationSession( engine );
+        session.start( "symptom_0" );
+        session.answer( true );
+        while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+        {
+            session.answer( false );
+        }
+        assertEquals( ConsultationSession.Outcome.INSUFFICIENT_SYMPTOMS, session.outcome() );
+        assertNull( session.prediction() );
+    }
+
+    public void testUnknownFirstSymptomFinishesImmediately()
+    {
+        ConsultationSession session = new ConsultationSession( engine );
+        assertEquals( ConsultationSession.State.FINISHED, session.start( "no_such_symptom" ) );
+        assertEquals( ConsultationSession.Outcome.INSUFFICIENT_SYMPTOMS, session.outcome() );
+        try
+        {
+            session.answer( true );
+            fail( "answer() must be rejected once the consultation is finished" );
+        }
+        catch ( IllegalStateException expected )
+        {
+            // expected
+        }
+    }
+
+    public void testInformationGainAsksAboutTheLikelyDisease()
+    {
+        DiseaseProfiles profiles = DiseaseProfiles.fromInstances( train, engine.vocabulary() );
+        InformationGainStrategy strategy = new InformationGainStrategy( profiles, engine.forest(), 0.9 );
+        ConsultationSession session = new ConsultationSession( engine, strategy );
+
+        // The patient has every symptom of disease B's block and nothing else
+        session.start( "symptom_12" );
+        while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+        {
+            int question = session.currentQuestion();
+            session.answer( question >= 12 && question < 24 );
+        }
+        assertEquals( ConsultationSession.Outcome.PREDICTED, session.outcome() );
+        assertEquals( "B", session.prediction().disease() );
+    }
+}
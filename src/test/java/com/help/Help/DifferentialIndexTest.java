@@ -0,0 +1,101 @@
+package com.help.Help;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cbot.Cbot.DifferentialIndex;
+import com.cbot.Cbot.SymptomVocabulary;
+
+import junit.framework.TestCase;
+import weka.core.Instances;
+import weka.core.converters.CSVSaver;
+
+/**
+ * Checks the differential ranking against a brute-force scan of the dataset
+ * and the explanation of the best match.
+ */
+public class DifferentialIndexTest
+    extends TestCase
+{
+    private Instances data;
+    private SymptomVocabulary vocabulary;
+    private DifferentialIndex index;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        data = CompiledForestTest.dataset( 400, 7 );
+        vocabulary = new SymptomVocabulary( data );
+        File file = Files.createTempFile( "differential", ".csv" ).toFile();
+        try
+        {
+            CSVSaver saver = new CSVSaver();
+            saver.setInstances( data );
+            saver.setFile( file );
+            saver.writeBatch();
+            index = DifferentialIndex.fromCsv( file, vocabulary );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testRanksLikeBruteForce()
+    {
+        long[] yes = new long[vocabulary.words()];
+        long[] asked = new long[vocabulary.words()];
+        // Two symptoms of disease B's profile, one of C's denied
+        for ( int symptom : new int[] { 12, 14 } )
+        {
+            yes[symptom >>> 6] |= 1L << symptom;
+            asked[symptom >>> 6] |= 1L << symptom;
+        }
+        asked[0] |= 1L << 25;
+
+        List<DifferentialIndex.Candidate> top = index.topK( yes, asked, 3 );
+        assertEquals( 3, top.size() );
+        assertEquals( "B", top.get( 0 ).name() );
+        assertEquals( Arrays.asList( "symptom_12", "symptom_14" ), top.get( 0 ).matched() );
+
+        double[] best = new double[index.numDiseases()];
+        for ( int r = 0; r < data.numInstances(); r++ )
+        {
+            int matched = 0;
+            int denied = 0;
+            for ( int i = 0; i < CompiledForestTest.SYMPTOMS; i++ )
+            {
+                boolean present = data.instance( r ).value( i ) == 1;
+                boolean isYes = ( yes[i >>> 6] & ( 1L << i ) ) != 0;
+                boolean isAsked = ( asked[i >>> 6] & ( 1L << i ) ) != 0;
+                matched += ( present && isYes ) ? 1 : 0;
+                denied += ( present && isAsked && !isYes ) ? 1 : 0;
+            }
+            int disease = (int) data.instance( r ).classValue();
+            best[disease] = Math.max( best[disease], matched / ( 2.0 + denied ) );
+        }
+        for ( int i = 0; i < top.size(); i++ )
+        {
+            assertEquals( best[top.get( i ).disease()], top.get( i ).score(), 1e-12 );
+            if ( i > 0 )
+            {
+                assertTrue( top.get( i ).score() <= top.get( i - 1 ).score() );
+            }
+            best[top.get( i ).disease()] = -1;
+        }
+        for ( double left : best )
+        {
+            assertTrue( left <= top.get( top.size() - 1 ).score() );
+        }
+    }
+
+    public void testNoYesAnswersGiveNoCandidates()
+    {
+        long[] none = new long[vocabulary.words()];
+        assertTrue( index.topK( none, none, 5 ).isEmpty() );
+        assertTrue( index.numPatterns() > 0 );
+    }
+}
@@ -0,0 +1,50 @@
+package com.help.Help;
+
+import com.cbot.Cbot.LatencyHistogram;
+import com.cbot.Cbot.Metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the latency histogram and the Prometheus export.
+ */
+public class MetricsTest
+    extends TestCase
+{
+    public void testPercentilesWithinBucketResolution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals( 0, histogram.percentileNanos( 0.99 ) );
+        for ( long micros = 1; micros <= 10_000; micros++ )
+        {
+            histogram.record( micros * 1000 );
+        }
+        assertEquals( 10_000, histogram.count() );
+        assertEquals( 10_000_000, histogram.maxNanos() );
+        assertEquals( 5_000_500.0, histogram.meanNanos(), 1e-6 );
+        assertClose( 5_000_000, histogram.percentileNanos( 0.5 ) );
+        assertClose( 9_900_000, histogram.percentileNanos( 0.99 ) );
+        assertClose( 9_990_000, histogram.percentileNanos( 0.999 ) );
+        assertEquals( 10_000_000, histogram.percentileNanos( 1.0 ) );
+
+        histogram.record( Long.MAX_VALUE );
+        assertEquals( Long.MAX_VALUE, histogram.percentileNanos( 1.0 ) );
+    }
+
+    private static void assertClose( long expected, long actual )
+    {
+        assertTrue( expected + " vs " + actual, Math.abs( actual - expected ) <= expected / 64 + 1 );
+    }
+
+    public void testPrometheusText()
+    {
+        Metrics.Stage.CLASSIFY.histogram().record( 2_000 );
+        Metrics.predicted( "Fungal \"infection\"" );
+        String text = Metrics.prometheusText();
+        assertTrue( text.contains( "# TYPE hcb_stage_seconds summary\n" ) );
+        assertTrue( text.contains( "hcb_stage_seconds_count{stage=\"classify\"} " ) );
+        assertTrue( text.contains( "hcb_stage_seconds{stage=\"classify\",quantile=\"0.99\"} " ) );
+        assertTrue( text.contains( "hcb_predictions_total{disease=\"Fungal \\\"infection\\\"\"} " ) );
+        assertTrue( text.contains( "# TYPE hcb_sessions_total counter\n" ) );
+    }
+}
@@ -0,0 +1,125 @@
+package com.help.Help;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.cbot.Cbot.ConsultationSession;
+import com.cbot.Cbot.DatasetPreprocessor;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.ModelHolder;
+import com.cbot.Cbot.ModelStore;
+
+import junit.framework.TestCase;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.CSVSaver;
+
+/**
+ * Retrains after an appended case and checks that running consultations keep
+ * the model they started with, and that an append leaves earlier rows on
+ * their side of the split.
+ */
+public class ModelHolderTest
+    extends TestCase
+{
+    public void testSwapLeavesRunningSessionsOnTheirModel()
+        throws Exception
+    {
+        File dir = Files.createTempDirectory( "holder" ).toFile();
+        File dataset = new File( dir, "Dataset.csv" );
+        CSVSaver saver = new CSVSaver();
+        saver.setInstances( CompiledForestTest.dataset( 300, 1 ) );
+        saver.setFile( dataset );
+        saver.writeBatch();
+
+        ModelStore store = new ModelStore( dataset, new File( dir, "model.snapshot" ), new String[0] );
+        ModelHolder holder = new ModelHolder( store, new DiagnosisEngine( store.loadOrTrain(), dataset ) );
+        try
+        {
+            DiagnosisEngine before = holder.current();
+            ConsultationSession running = new ConsultationSession( before );
+            running.start( "symptom_0" );
+
+            assertFalse( holder.retrainNow().get().trained() );
+
+            holder.appendCase( new long[] { 0x7L, 0L }, "A" );
+            ModelHolder.RetrainResult result = holder.retrainNow().get();
+            assertTrue( result.trained() );
+            assertEquals( result.candidateAccuracy() >= result.liveAccuracy(), result.accepted() );
+            assertEquals( result.version(), holder.current().version() );
+            if ( result.accepted() )
+            {
+                assertNotSame( before, holder.current() );
+                assertTrue( holder.current().version() > before.version() );
+            }
+
+            while ( running.state() == ConsultationSession.State.AWAITING_ANSWER )
+            {
+                running.answer( true );
+            }
+            assertSame( before, running.engine() );
+            assertEquals( before.version(), running.prediction().modelVersion() );
+        }
+        finally
+        {
+            holder.close();
+            for ( File file : dir.listFiles() )
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testAppendKeepsTrainingRowsOutOfHeldOutSide()
+        throws Exception
+    {
+        File dir = Files.createTempDirectory( "holder" ).toFile();
+        File dataset = new File( dir, "Dataset.csv" );
+        CSVSaver saver = new CSVSaver();
+        saver.setInstances( CompiledForestTest.dataset( 300, 4 ) );
+        saver.setFile( dataset );
+        saver.writeBatch();
+
+        ModelStore store = new ModelStore( dataset, new File( dir, "model.snapshot" ), new String[0] );
+        ModelHolder holder = new ModelHolder( store, new DiagnosisEngine( store.loadOrTrain(), dataset ) );
+        try
+        {
+            DatasetPreprocessor.Split before = store.split();
+            // A pattern no earlier row has, so it forms a new group
+            holder.appendCase( new long[] { 0x5L, 1L << 59 }, "E" );
+            DatasetPreprocessor.Split after = store.split();
+
+            assertEquals( before.train().numInstances() + before.test().numInstances() + 1,
+                          after.train().numInstances() + after.test().numInstances() );
+            Set<String> afterTest = rows( after.test() );
+            for ( Instance row : before.train() )
+            {
+                assertFalse( row.toString(), afterTest.contains( row.toString() ) );
+            }
+            assertTrue( rows( after.train() ).containsAll( rows( before.train() ) ) );
+            assertTrue( afterTest.containsAll( rows( before.test() ) ) );
+        }
+        finally
+        {
+            holder.close();
+            for ( File file : dir.listFiles() )
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static Set<String> rows( Instances data )
+    {
+        Set<String> rows = new HashSet<>();
+        for ( Instance row : data )
+        {
+            rows.add( row.toString() );
+        }
+        return rows;
+    }
+}
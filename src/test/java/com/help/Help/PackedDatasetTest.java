@@ -0,0 +1,68 @@
+package com.help.Help;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.cbot.Cbot.PackedDataset;
+
+import junit.framework.TestCase;
+import weka.core.Instances;
+
+/**
+ * Converts a small CSV to the packed format and reads it back.
+ */
+public class PackedDatasetTest
+    extends TestCase
+{
+    public void testCsvRoundTrip()
+        throws Exception
+    {
+        StringBuilder csv = new StringBuilder();
+        for ( int s = 0; s < 70; s++ )
+        {
+            csv.append( s == 2 ? "'spotting_ urination'" : "symptom_" + s ).append( ',' );
+        }
+        csv.append( "prognosis\n" );
+        for ( int r = 0; r < 3; r++ )
+        {
+            for ( int s = 0; s < 70; s++ )
+            {
+                csv.append( ( s == r || s == 65 + r ) ? "1" : "0" ).append( ',' );
+            }
+            csv.append( r == 1 ? "Diabetes " : "Allergy" ).append( '\n' );
+        }
+
+        File input = File.createTempFile( "packed", ".csv" );
+        File output = File.createTempFile( "packed", PackedDataset.EXTENSION );
+        try
+        {
+            Files.write( input.toPath(), csv.toString().getBytes( StandardCharsets.UTF_8 ) );
+            assertEquals( 3, PackedDataset.convert( input, output ) );
+
+            PackedDataset dataset = PackedDataset.open( output );
+            assertEquals( 3, dataset.numRows() );
+            assertEquals( 70, dataset.numSymptoms() );
+            assertEquals( 2, dataset.words() );
+            assertEquals( "spotting_ urination", dataset.symptomName( 2 ) );
+            assertEquals( "Diabetes ", dataset.classLabel( dataset.classId( 1 ) ) );
+            assertEquals( dataset.classId( 0 ), dataset.classId( 2 ) );
+
+            long[] bits = dataset.bits( 1 );
+            assertEquals( 1L << 1, bits[0] );
+            assertEquals( 1L << ( 66 - 64 ), bits[1] );
+
+            Instances instances = dataset.toInstances();
+            assertEquals( 3, instances.numInstances() );
+            assertEquals( "prognosis", instances.classAttribute().name() );
+            assertEquals( 1.0, instances.instance( 2 ).value( 67 ), 0.0 );
+            assertEquals( 0.0, instances.instance( 2 ).value( 66 ), 0.0 );
+            assertEquals( "Allergy", instances.instance( 2 ).stringValue( instances.classIndex() ) );
+        }
+        finally
+        {
+            input.delete();
+            output.delete();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.help.Help;
+
+import com.cbot.Cbot.ConsultationBits;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.KnowledgeBase;
+import com.cbot.Cbot.ModelSnapshot;
+import com.cbot.Cbot.PredictionCache;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+/**
+ * Checks that the prediction cache answers repeated yes-sets, stays within
+ * its capacity and forgets answers of older model versions.
+ */
+public class PredictionCacheTest
+    extends TestCase
+{
+    private Instances train;
+    private DiagnosisEngine engine;
+    private KnowledgeBase knowledgeBase;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        train = CompiledForestTest.dataset( 200, 5 );
+        engine = newEngine();
+        knowledgeBase = KnowledgeBase.getDefault();
+    }
+
+    private DiagnosisEngine newEngine()
+        throws Exception
+    {
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 10 );
+        forest.buildClassifier( train );
+        return new DiagnosisEngine( new ModelSnapshot( "test", "test", forest, train ) );
+    }
+
+    private ConsultationBits consultation( int... yes )
+    {
+        ConsultationBits consultation = engine.vocabulary().newConsultation();
+        for ( int index : yes )
+        {
+            consultation.answer( index, true );
+        }
+        return consultation;
+    }
+
+    public void testSameYesSetHits()
+    {
+        PredictionCache cache = new PredictionCache( knowledgeBase, 100 );
+        PredictionCache.Entry first = cache.get( engine, consultation( 0, 1, 2 ) );
+        // A different "no" answer leaves the yes-set, and so the answer, unchanged
+        ConsultationBits again = consultation( 2, 1, 0 );
+        again.answer( 40, false );
+        PredictionCache.Entry second = cache.get( engine, again );
+
+        assertSame( first, second );
+        assertEquals( engine.predict( again ).disease(), second.prediction().disease() );
+        assertEquals( second.prediction().disease(), second.advice().disease() );
+        assertEquals( 1, cache.hits() );
+        assertEquals( 1, cache.misses() );
+        assertEquals( 0.5, cache.hitRatio(), 1e-9 );
+        assertEquals( 1, cache.size() );
+    }
+
+    public void testEvictsLeastRecentlyUsed()
+    {
+        PredictionCache cache = new PredictionCache( knowledgeBase, 2 );
+        PredictionCache.Entry a = cache.get( engine, consultation( 0, 1, 2 ) );
+        cache.get( engine, consultation( 12, 13, 14 ) );
+        cache.get( engine, consultation( 0, 1, 2 ) );
+        cache.get( engine, consultation( 24, 25, 26 ) );
+
+        assertEquals( 2, cache.size() );
+        assertEquals( 1, cache.evictions() );
+        assertSame( a, cache.get( engine, consultation( 0, 1, 2 ) ) );
+    }
+
+    public void testNewModelVersionInvalidates()
+        throws Exception
+    {
+        PredictionCache cache = new PredictionCache( knowledgeBase, 100 );
+        cache.get( engine, consultation( 0, 1, 2 ) );
+        Thread.sleep( 5 );
+        DiagnosisEngine retrained = newEngine();
+        assertTrue( retrained.version() > engine.version() );
+
+        PredictionCache.Entry fresh = cache.get( retrained, consultation( 0, 1, 2 ) );
+        assertEquals( retrained.version(), fresh.prediction().modelVersion() );
+        assertEquals( 1, cache.invalidations() );
+        assertEquals( 1, cache.size() );
+
+        // A session still on the old model is answered by it, without touching the cache
+        PredictionCache.Entry old = cache.get( engine, consultation( 0, 1, 2 ) );
+        assertEquals( engine.version(), old.prediction().modelVersion() );
+        assertSame( fresh, cache.get( retrained, consultation( 0, 1, 2 ) ) );
+        assertEquals( 1, cache.hits() );
+    }
+}
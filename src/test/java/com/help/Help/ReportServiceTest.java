@@ -0,0 +1,210 @@
+package com.help.Help;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cbot.Cbot.ConsultationSession;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.ModelSnapshot;
+import com.cbot.Cbot.ReportService;
+
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+import weka.core.converters.CSVSaver;
+
+/**
+ * Renders consultation reports to files and streams, and checks that a full
+ * queue refuses work at once instead of blocking the caller.
+ */
+public class ReportServiceTest
+    extends TestCase
+{
+    private File dir;
+    private DiagnosisEngine engine;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        dir = Files.createTempDirectory( "reports" ).toFile();
+        Instances train = CompiledForestTest.dataset( 200, 3 );
+        File dataset = new File( dir, "Dataset.csv" );
+        CSVSaver saver = new CSVSaver();
+        saver.setInstances( train );
+        saver.setFile( dataset );
+        saver.writeBatch();
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations( 10 );
+        forest.buildClassifier( train );
+        engine = new DiagnosisEngine( new ModelSnapshot( "test", "test", forest, train ), dataset );
+        dataset.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File file : dir.listFiles() )
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testWritesReadableReports()
+        throws Exception
+    {
+        List<ReportService.Report> reports = new ArrayList<>();
+        List<Future<File>> written = new ArrayList<>();
+        try ( ReportService service = new ReportService( dir, 2, 8 ) )
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                ReportService.Report report = ReportService.Report.of( finished( "symptom_" + i ), "Ann Lee" );
+                reports.add( report );
+                written.add( service.submit( report ) );
+            }
+            for ( int i = 0; i < written.size(); i++ )
+            {
+                File file = written.get( i ).get( 10, TimeUnit.SECONDS );
+                assertEquals( new File( dir, reports.get( i ).fileName() ), file );
+                byte[] bytes = Files.readAllBytes( file.toPath() );
+                assertEquals( "%PDF", new String( bytes, 0, 4, StandardCharsets.US_ASCII ) );
+
+                PdfReader reader = new PdfReader( bytes );
+                assertTrue( reader.getNumberOfPages() >= 1 );
+                String text = PdfTextExtractor.getTextFromPage( reader, 1 );
+                reader.close();
+                assertTrue( text, text.contains( "Ann Lee" ) );
+                assertTrue( text, text.contains( reports.get( i ).disease() ) );
+                assertTrue( text, text.contains( reports.get( i ).reported().get( 0 ) ) );
+                assertTrue( text, text.contains( "Differential diagnosis" ) );
+                assertTrue( text, text.contains( "Consultation report" ) );
+            }
+            assertEquals( 3, service.rendered() );
+            assertEquals( 0, service.failed() );
+        }
+        // Only the finished reports, no temporary files left behind
+        assertEquals( 3, dir.listFiles().length );
+    }
+
+    public void testNeverReplacesAGeneratedReport()
+        throws Exception
+    {
+        ReportService.Report report = ReportService.Report.of( finished( "symptom_1" ), "Ann Lee" );
+        assertTrue( report.fileName(), report.fileName().contains( "-" + ProcessHandle.current().pid() + "-" ) );
+        try ( ReportService service = new ReportService( dir, 1, 8 ) )
+        {
+            File file = service.submit( report ).get( 10, TimeUnit.SECONDS );
+            byte[] first = Files.readAllBytes( file.toPath() );
+            try
+            {
+                service.submit( report ).get( 10, TimeUnit.SECONDS );
+                fail( "A second report under the same name must not replace the first" );
+            }
+            catch ( ExecutionException expected )
+            {
+                assertTrue( expected.getCause() instanceof FileAlreadyExistsException );
+            }
+            assertTrue( Arrays.equals( first, Files.readAllBytes( file.toPath() ) ) );
+            assertEquals( 1, service.failed() );
+        }
+        assertEquals( 1, dir.listFiles().length );
+    }
+
+    public void testRejectsWhenQueueIsFull()
+        throws Exception
+    {
+        ReportService.Report report = ReportService.Report.of( finished( "symptom_1" ), null );
+        CountDownLatch writing = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        OutputStream blocked = new OutputStream()
+        {
+            @Override
+            public void write( int b )
+                throws IOException
+            {
+                write( new byte[] { (byte) b }, 0, 1 );
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len )
+                throws IOException
+            {
+                writing.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+                first.write( b, off, len );
+            }
+        };
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        ReportService service = new ReportService( null, 1, 1 );
+        Future<Void> running = service.submit( report, blocked );
+        assertTrue( writing.await( 10, TimeUnit.SECONDS ) );
+        Future<Void> queued = service.submit( report, second );
+        assertEquals( 1, service.queued() );
+        try
+        {
+            service.submit( report, new ByteArrayOutputStream() );
+            fail( "A full queue must refuse the report" );
+        }
+        catch ( ReportService.QueueFullException expected )
+        {
+            // expected
+        }
+        assertEquals( 1, service.rejected() );
+
+        release.countDown();
+        running.get( 10, TimeUnit.SECONDS );
+        queued.get( 10, TimeUnit.SECONDS );
+        assertEquals( 2, service.rendered() );
+        assertEquals( "%PDF", new String( first.toByteArray(), 0, 4, StandardCharsets.US_ASCII ) );
+        assertEquals( "%PDF", new String( second.toByteArray(), 0, 4, StandardCharsets.US_ASCII ) );
+        assertEquals( 1, new PdfReader( second.toByteArray() ).getNumberOfPages() );
+
+        service.close();
+        try
+        {
+            service.submit( report, new ByteArrayOutputStream() );
+            fail( "A closed service must refuse the report" );
+        }
+        catch ( IllegalStateException expected )
+        {
+            // expected
+        }
+    }
+
+    private ConsultationSession finished( String symptom )
+    {
+        ConsultationSession session = new ConsultationSession( engine );
+        session.start( symptom );
+        while ( session.state() == ConsultationSession.State.AWAITING_ANSWER )
+        {
+            session.answer( true );
+        }
+        return session;
+    }
+}
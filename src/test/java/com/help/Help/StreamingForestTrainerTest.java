@@ -0,0 +1,131 @@
+package com.help.Help;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.cbot.Cbot.CompiledForest;
+import com.cbot.Cbot.DiagnosisEngine;
+import com.cbot.Cbot.ModelSnapshot;
+import com.cbot.Cbot.StreamingForestTrainer;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+import weka.core.converters.CSVSaver;
+
+/**
+ * Trains by streaming with reservoirs smaller than the data and checks the
+ * split, the sample sizes and that the result behaves as a RandomForest.
+ */
+public class StreamingForestTrainerTest
+    extends TestCase
+{
+    private File dir;
+    private File dataset;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        dir = Files.createTempDirectory( "streaming" ).toFile();
+        dataset = new File( dir, "Dataset.csv" );
+        CSVSaver saver = new CSVSaver();
+        saver.setInstances( CompiledForestTest.dataset( 600, 3 ) );
+        saver.setFile( dataset );
+        saver.writeBatch();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File file : dir.listFiles() )
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testTrainsForestFromBoundedSamples()
+        throws Exception
+    {
+        StreamingForestTrainer trainer =
+            new StreamingForestTrainer( new String[] { "-I", "10" }, 100, 0.8, 1 );
+        File trainFile = new File( dir, "train.csv" );
+        File testFile = new File( dir, "test.csv" );
+        StreamingForestTrainer.Sample sample = trainer.sample( dataset, trainFile, testFile );
+
+        assertEquals( 600, sample.trainRows() + sample.testRows() );
+        assertTrue( sample.testRows() > 0 );
+        for ( int rows : sample.sampledRows() )
+        {
+            assertEquals( 100, rows );
+        }
+        Instances train = load( trainFile );
+        Instances test = load( testFile );
+        assertEquals( sample.trainRows(), train.numInstances() );
+        assertEquals( sample.testRows(), test.numInstances() );
+        assertEquals( 0, leaked( train, test ) );
+
+        RandomForest forest = trainer.build( sample, 2 );
+        assertEquals( 10, forest.getNumIterations() );
+        ModelSnapshot snapshot = new ModelSnapshot( "test", "test", forest, sample.header() );
+        DiagnosisEngine engine = new DiagnosisEngine( snapshot );
+        assertEquals( 0, CompiledForest.verify( forest, engine.forest(), engine.vocabulary(), test ) );
+        assertTrue( StreamingForestTrainer.accuracy( engine, testFile ) > 0.8 );
+        assertEquals( StreamingForestTrainer.accuracy( engine, testFile ),
+                      trainer.heldOutAccuracy( engine, dataset ), 1e-9 );
+
+        try
+        {
+            trainer.build( sample, 1 );
+            fail( "A sample can only be built once" );
+        }
+        catch ( IllegalStateException expected )
+        {
+            // expected
+        }
+    }
+
+    private static Instances load( File file )
+        throws Exception
+    {
+        CSVLoader loader = new CSVLoader();
+        loader.setSource( file );
+        Instances data = loader.getDataSet();
+        data.setClassIndex( data.numAttributes() - 1 );
+        return data;
+    }
+
+    private static int leaked( Instances train, Instances test )
+    {
+        Set<List<Double>> patterns = new HashSet<>();
+        for ( int r = 0; r < train.numInstances(); r++ )
+        {
+            patterns.add( pattern( train, r ) );
+        }
+        int leaked = 0;
+        for ( int r = 0; r < test.numInstances(); r++ )
+        {
+            if ( patterns.contains( pattern( test, r ) ) )
+            {
+                leaked++;
+            }
+        }
+        return leaked;
+    }
+
+    private static List<Double> pattern( Instances data, int row )
+    {
+        List<Double> values = new ArrayList<>();
+        for ( int i = 0; i < data.numAttributes() - 1; i++ )
+        {
+            values.add( data.instance( row ).value( i ) );
+        }
+        return values;
+    }
+}
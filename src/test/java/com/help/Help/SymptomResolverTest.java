@@ -0,0 +1,98 @@
+package com.help.Help;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import com.cbot.Cbot.CsvReader;
+import com.cbot.Cbot.KnowledgeBase;
+import com.cbot.Cbot.SymptomResolver;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for free-text symptom resolution against the real column names.
+ */
+public class SymptomResolverTest
+    extends TestCase
+{
+    private static SymptomResolver resolver;
+
+    private static SymptomResolver resolver()
+        throws Exception
+    {
+        if ( resolver == null )
+        {
+            String[] header;
+            try ( CsvReader reader = CsvReader.open( new File( "Data/Dataset.csv" ) ) )
+            {
+                header = reader.next();
+            }
+            String[] symptoms = new String[header.length - 1];
+            System.arraycopy( header, 0, symptoms, 0, symptoms.length );
+            resolver = SymptomResolver.load( symptoms, new File( SymptomResolver.SYNONYMS_FILE ),
+                new File( KnowledgeBase.SEVERITY_FILE ) );
+        }
+        return resolver;
+    }
+
+    public void testExactNamesAndSynonyms()
+        throws Exception
+    {
+        SymptomResolver resolver = resolver();
+        assertEquals( "continuous_sneezing", resolver.resolve( "Continuous Sneezing" ) );
+        assertEquals( "skin_rash", resolver.resolve( "skin rash" ) );
+        assertEquals( "spotting_ urination", resolver.resolve( "spotting urination" ) );
+        assertEquals( "continuous_sneezing", resolver.resolve( "sneezing" ) );
+        assertEquals( "high_fever", resolver.resolve( "fever" ) );
+        // Severity file spelling of a differently spelled column
+        assertEquals( "foul_smell_of urine", resolver.resolve( "foul_smell_ofurine" ) );
+        assertNull( resolver.resolve( "sneez" ) );
+    }
+
+    public void testCompletesWordPrefixes()
+        throws Exception
+    {
+        List<SymptomResolver.Match> matches = resolver().complete( "sneez", 5 );
+        assertEquals( 1, matches.size() );
+        assertEquals( "continuous_sneezing", matches.get( 0 ).symptom() );
+        assertEquals( SymptomResolver.Match.Kind.PREFIX, matches.get( 0 ).kind() );
+
+        matches = resolver().complete( "pain", 20 );
+        assertTrue( matches.size() > 5 );
+        // Terms starting with the word rank before terms merely containing it
+        assertEquals( "painful_walking", matches.get( 0 ).symptom() );
+        for ( SymptomResolver.Match match : matches )
+        {
+            assertTrue( match.term(), match.term().contains( "pain" ) );
+        }
+    }
+
+    public void testToleratesMisspellings()
+        throws Exception
+    {
+        SymptomResolver resolver = resolver();
+        assertEquals( "continuous_sneezing", resolver.complete( "sneezng", 3 ).get( 0 ).symptom() );
+        assertEquals( "stomach_pain", resolver.complete( "stomch pain", 3 ).get( 0 ).symptom() );
+        assertEquals( "diarrhoea", resolver.complete( "diarhea", 3 ).get( 0 ).symptom() );
+        assertTrue( resolver.complete( "xyzzy", 3 ).isEmpty() );
+    }
+
+    public void testLargeVocabulary()
+    {
+        String[] words = { "acute", "chronic", "pain", "swelling", "left", "right", "upper", "lower", "lesion",
+            "fever", "rash", "cough", "joint", "nerve", "skin", "ocular", "renal", "hepatic", "cardiac", "muscle" };
+        String[] symptoms = new String[100_000];
+        for ( int i = 0; i < symptoms.length; i++ )
+        {
+            symptoms[i] = words[i % 20] + "_" + words[( i / 20 ) % 20] + "_" + words[( i / 400 ) % 20] + "_" + i;
+        }
+        SymptomResolver resolver = new SymptomResolver( symptoms, Map.of( "ache", symptoms[42] ) );
+        assertEquals( symptoms[42], resolver.resolve( "ache" ) );
+        List<SymptomResolver.Match> matches = resolver.complete( "p", 8 );
+        assertEquals( 8, matches.size() );
+        assertTrue( matches.get( 0 ).term().startsWith( "pain_" ) );
+        String typo = symptoms[12345].substring( 0, 1 ) + symptoms[12345].substring( 2 );
+        assertEquals( symptoms[12345], resolver.complete( typo, 1 ).get( 0 ).symptom() );
+    }
+}
@@ -0,0 +1,64 @@
+package com.help.Help;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.cbot.Cbot.ConsultationBits;
+import com.cbot.Cbot.SymptomVocabulary;
+
+import junit.framework.TestCase;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Unit tests for the symptom vocabulary and its bitset encoding.
+ */
+public class SymptomVocabularyTest
+    extends TestCase
+{
+    static Instances header( int numSymptoms )
+    {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add( new Attribute( "itching" ) );
+        attributes.add( new Attribute( "skin_rash" ) );
+        attributes.add( new Attribute( "spotting_ urination" ) );
+        for ( int i = attributes.size(); i < numSymptoms; i++ )
+        {
+            attributes.add( new Attribute( "symptom_" + i ) );
+        }
+        attributes.add( new Attribute( "prognosis", Arrays.asList( "Allergy", "Fungal infection" ) ) );
+        Instances header = new Instances( "symptoms", attributes, 0 );
+        header.setClassIndex( header.numAttributes() - 1 );
+        return header;
+    }
+
+    public void testNormalizedLookup()
+    {
+        SymptomVocabulary vocabulary = new SymptomVocabulary( header( 3 ) );
+        assertEquals( 0, vocabulary.indexOf( "ITCHING" ) );
+        assertEquals( 1, vocabulary.indexOf( "skin rash" ) );
+        assertEquals( 2, vocabulary.indexOf( "spotting_urination" ) );
+        assertEquals( 2, vocabulary.indexOf( "'spotting_ urination'" ) );
+        assertEquals( -1, vocabulary.indexOf( "sneezing" ) );
+    }
+
+    public void testEncodingRoundTrip()
+    {
+        SymptomVocabulary vocabulary = new SymptomVocabulary( header( 130 ) );
+        ConsultationBits consultation = vocabulary.newConsultation();
+        consultation.answer( 1, true );
+        consultation.answer( 2, false );
+        consultation.answer( 70, true );
+        consultation.answer( 129, true );
+
+        assertEquals( 3, consultation.yesCount() );
+        assertEquals( 4, consultation.askedCount() );
+
+        Instance instance = vocabulary.toInstance( consultation.yesBits() );
+        assertEquals( 1.0, instance.value( 70 ), 0.0 );
+        assertEquals( 0.0, instance.value( 2 ), 0.0 );
+        assertTrue( instance.classIsMissing() );
+        assertTrue( Arrays.equals( consultation.yesBits(), vocabulary.encode( instance ) ) );
+    }
+}
@@ -0,0 +1,74 @@
+package com.help.Help;
+
+import com.cbot.Cbot.TriageTree;
+
+import junit.framework.TestCase;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ * Checks that the triage tree, interpreted and generated, answers the way
+ * the J48 it was read from does.
+ */
+public class TriageTreeTest
+    extends TestCase
+{
+    public void testMatchesJ48()
+        throws Exception
+    {
+        Instances data = CompiledForestTest.dataset( 600, 11 );
+        J48 j48 = new J48();
+        j48.buildClassifier( data );
+
+        String[] symptoms = new String[CompiledForestTest.SYMPTOMS];
+        for ( int i = 0; i < symptoms.length; i++ )
+        {
+            symptoms[i] = data.attribute( i ).name();
+        }
+        TriageTree interpreted = TriageTree.fromJ48( j48, symptoms );
+        TriageTree generated = interpreted.generated();
+        assertTrue( interpreted.numNodes() > 0 );
+
+        for ( int r = 0; r < data.numInstances(); r++ )
+        {
+            long[] bits = new long[interpreted.words()];
+            for ( int i = 0; i < symptoms.length; i++ )
+            {
+                if ( data.instance( r ).value( i ) == 1 )
+                {
+                    bits[i >>> 6] |= 1L << i;
+                }
+            }
+            String expected = data.classAttribute().value( (int) j48.classifyInstance( data.instance( r ) ) );
+            assertEquals( "row " + r, expected, interpreted.label( interpreted.classify( bits ) ) );
+            assertEquals( "row " + r, expected, generated.label( generated.classify( bits ) ) );
+        }
+    }
+
+    public void testNominalSplitsAndUnknownColumns()
+    {
+        String dot = "digraph J48Tree {\n"
+            + "N0 [label=\"fever\" ]\n"
+            + "N0->N1 [label=\"= 0\"]\n"
+            + "N1 [label=\"not_a_column\" ]\n"
+            + "N1->N2 [label=\"= 0\"]\n"
+            + "N2 [label=\"Cold (10.0/2.0)\" shape=box style=filled ]\n"
+            + "N1->N3 [label=\"= 1\"]\n"
+            + "N3 [label=\"Flu (5.0)\" shape=box style=filled ]\n"
+            + "N0->N4 [label=\"= 1\"]\n"
+            + "N4 [label=\"Dimorphic hemmorhoids(piles) (7.0)\" shape=box style=filled ]\n"
+            + "}\n";
+        TriageTree tree = TriageTree.parse( dot, new String[] { "cough", "Fever" } );
+
+        assertEquals( 1, tree.numNodes() );
+        assertEquals( 1, tree.columnOf( "fever" ) );
+        assertEquals( "Cold", tree.label( tree.classify( new long[] { 0 } ) ) );
+        assertEquals( 0.8, tree.leafPurity( new long[] { 0 } ), 1e-9 );
+        assertEquals( 10.0, tree.leafSupport( new long[] { 0 } ), 1e-9 );
+        assertEquals( 7.0, tree.leafSupport( new long[] { 2 } ), 1e-9 );
+        assertEquals( "Dimorphic hemmorhoids(piles)", tree.label( tree.classify( new long[] { 2 } ) ) );
+        int[] classes = tree.classIndices( new String[] { "Flu", "cold " } );
+        assertEquals( 1, classes[tree.classify( new long[] { 0 } )] );
+        assertEquals( -1, classes[tree.classify( new long[] { 2 } )] );
+    }
+}